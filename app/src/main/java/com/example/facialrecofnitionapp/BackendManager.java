@@ -0,0 +1,174 @@
+package com.example.facialrecofnitionapp;
+
+import android.util.Log;
+
+import org.tensorflow.lite.Delegate;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+import org.tensorflow.lite.gpu.GpuDelegate;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//creates Interpreters for one model on the fastest backend of this device
+//the backend is chosen by BackendSelector the first time a model is seen and cached by the
+//hash of the model, so a new model version is measured again
+//owns every delegate it creates, close() frees them together with the interpreters
+public class BackendManager {
+    private static final String TAG = "BackendManager";
+    //runs before timing starts, the first ones allocate tensors and warm caches
+    private static final int TRIAL_WARM_UP_RUNS = 2;
+    private static final int TRIAL_RUNS = 5;
+
+    private final ByteBuffer model;
+    private final BackendSelector selector;
+    //interpreters and delegates handed out by create, closed in close()
+    private final List<Interpreter> interpreters = new ArrayList<>();
+    private final List<Delegate> delegates = new ArrayList<>();
+    private Backend backend;
+
+    public BackendManager(ByteBuffer model, File cacheFile) {
+        this.model = model;
+        this.selector = new BackendSelector(Runtime.getRuntime().availableProcessors(), true, cacheFile);
+    }
+
+    //the cached or measured backend for this model
+    public synchronized Backend selectBackend() {
+        if (backend == null) {
+            long start = System.nanoTime();
+            backend = selector.select(modelHash(model), new BackendSelector.Trial() {
+                @Override
+                public long measureMicros(Backend candidate) throws Exception {
+                    return measure(candidate);
+                }
+            });
+            Log.d(TAG, "backend " + backend + " chosen in " + (System.nanoTime() - start) / 1000000
+                    + " ms " + selector.getMeasurements());
+        }
+        return backend;
+    }
+
+    //interpreter on the selected backend
+    //when the delegate fails here after all (driver update, low memory) plain CPU is used
+    public Interpreter create() {
+        Backend selected = selectBackend();
+        try {
+            return create(selected);
+        } catch (RuntimeException e) {
+            Log.d(TAG, selected + " failed, falling back to cpu", e);
+            backend = Backend.cpu(Math.max(1, selected.threads));
+            return create(backend);
+        }
+    }
+
+    //interpreter on backend, closed by close()
+    public synchronized Interpreter create(Backend backend) {
+        List<Delegate> created = new ArrayList<>();
+        try {
+            Interpreter interpreter = new Interpreter(model, options(backend, created));
+            interpreters.add(interpreter);
+            delegates.addAll(created);
+            return interpreter;
+        } catch (RuntimeException e) {
+            closeDelegates(created);
+            throw e;
+        }
+    }
+
+    //close every interpreter before its delegates, the interpreter still uses them while open
+    public synchronized void close() {
+        for (Interpreter interpreter : interpreters) {
+            interpreter.close();
+        }
+        interpreters.clear();
+        closeDelegates(delegates);
+        delegates.clear();
+    }
+
+    //median microseconds of one inference on a blank input
+    private long measure(Backend candidate) {
+        List<Delegate> created = new ArrayList<>();
+        Interpreter interpreter = null;
+        try {
+            interpreter = new Interpreter(model, options(candidate, created));
+            ByteBuffer input = blank(interpreter.getInputTensor(0));
+            ByteBuffer output = blank(interpreter.getOutputTensor(0));
+            for (int i = 0; i < TRIAL_WARM_UP_RUNS; i++) {
+                runOnce(interpreter, input, output);
+            }
+            long[] micros = new long[TRIAL_RUNS];
+            for (int i = 0; i < TRIAL_RUNS; i++) {
+                long start = System.nanoTime();
+                runOnce(interpreter, input, output);
+                micros[i] = (System.nanoTime() - start) / 1000;
+            }
+            Arrays.sort(micros);
+            return micros[TRIAL_RUNS / 2];
+        } finally {
+            if (interpreter != null) {
+                interpreter.close();
+            }
+            closeDelegates(created);
+        }
+    }
+
+    private static void runOnce(Interpreter interpreter, ByteBuffer input, ByteBuffer output) {
+        input.rewind();
+        output.rewind();
+        interpreter.run(input, output);
+    }
+
+    private static ByteBuffer blank(Tensor tensor) {
+        return ByteBuffer.allocateDirect(tensor.numBytes()).order(ByteOrder.nativeOrder());
+    }
+
+    //delegates created for backend are added to created so the caller can close them
+    private static Interpreter.Options options(Backend backend, List<Delegate> created) {
+        Interpreter.Options options = new Interpreter.Options();
+        options.setNumThreads(backend.threads);
+        if (backend.xnnpack) {
+            options.setUseXNNPACK(true);
+        }
+        if (backend.nnapi) {
+            options.setUseNNAPI(true);
+        }
+        if (backend.gpu) {
+            GpuDelegate gpuDelegate = new GpuDelegate();
+            created.add(gpuDelegate);
+            options.addDelegate(gpuDelegate);
+        }
+        return options;
+    }
+
+    private static void closeDelegates(List<Delegate> delegates) {
+        for (Delegate delegate : delegates) {
+            if (delegate instanceof GpuDelegate) {
+                ((GpuDelegate) delegate).close();
+            }
+        }
+    }
+
+    //hex SHA-1 of the model file, key of the backend cache
+    static String modelHash(ByteBuffer model) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            ByteBuffer bytes = model.duplicate();
+            bytes.rewind();
+            digest.update(bytes);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b & 0xff));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            //every Android runtime has SHA-1, fall back to the size so caching still works
+            return "size" + model.capacity();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.facialrecofnitionapp;
+
+import android.util.Log;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+//runs all faces of a frame through the interpreter in one call
+//input tensor is resized to [N,96,96,3] and every face is packed in one direct buffer
+//N is rounded up to a bucket (1, 2, 4, 8, 16) so the interpreter only reallocates
+//its tensors when the bucket changes, not every time the face count changes
+//models whose batch dimension cannot be resized are run in chunks of their fixed batch
+//quantized outputs are read as bytes and dequantized, callers always get floats
+public class BatchInterpreter implements FaceModel {
+    private static final String TAG = "BatchInterpreter";
+    private static final int[] BATCH_BUCKETS = {1, 2, 4, 8, 16};
+
+    private final Interpreter interpreter;
+    //input shape without batch dimension
+    private final int[] faceShape;
+    //bytes of one face in the input tensor
+    private final int bytesPerFace;
+    //number of values the model returns for one face
+    private final int outputSize;
+    //batch size of the model as loaded
+    private final int modelBatch;
+    //type and quantization of the output
+    private final TensorFormat outputFormat;
+
+    //false once resizing the batch dimension failed
+    private boolean resizable = true;
+    //batch the input tensor is currently sized for
+    private int currentBatch;
+    //one buffer big enough for the largest bucket, reused every frame
+    private final ByteBuffer batchBuffer;
+    //output arrays (float[][] or byte[][]), one per bucket, created on first use
+    private final Object[] bucketOutputs = new Object[BATCH_BUCKETS.length];
+
+    public BatchInterpreter(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        Tensor input = interpreter.getInputTensor(0);
+        int[] shape = input.shape();
+        modelBatch = shape[0];
+        currentBatch = modelBatch;
+        faceShape = new int[shape.length - 1];
+        System.arraycopy(shape, 1, faceShape, 0, faceShape.length);
+        bytesPerFace = input.numBytes() / modelBatch;
+
+        int[] outputShape = interpreter.getOutputTensor(0).shape();
+        outputSize = outputShape.length > 1 ? outputShape[1] : 1;
+        outputFormat = formatOf(interpreter.getOutputTensor(0));
+
+        int maxBatch = Math.max(modelBatch, BATCH_BUCKETS[BATCH_BUCKETS.length - 1]);
+        batchBuffer = ByteBuffer.allocateDirect(bytesPerFace * maxBatch);
+        batchBuffer.order(ByteOrder.nativeOrder());
+    }
+
+    //run model on every face, returns one row of model output per face
+    //inputs must hold one face each, in the layout of the model input tensor
+    public float[][] run(FaceInput[] inputs) {
+        float[][] results = new float[inputs.length][outputSize];
+        int done = 0;
+        while (done < inputs.length) {
+            int remaining = inputs.length - done;
+            int batch = resizable ? bucketFor(remaining) : modelBatch;
+            if (resizable && !resizeTo(batch)) {
+                //batch dimension is fixed, continue with the model's own batch size
+                batch = modelBatch;
+            }
+            int count = Math.min(batch, remaining);
+            Object output;
+            try {
+                output = runBatch(inputs, done, count, batch);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                //some models accept the resize but fail to allocate the new shape
+                if (batch == modelBatch) {
+                    throw e;
+                }
+                disableResize(e);
+                continue;
+            }
+            copyRows(output, results, done, count);
+            done += count;
+        }
+        return results;
+    }
+
+    //pack count faces starting at offset and run one batch
+    //unused slots of a bucket keep whatever was there before, their output is ignored
+    private Object runBatch(FaceInput[] inputs, int offset, int count, int batch) {
+        batchBuffer.clear();
+        for (int i = 0; i < count; i++) {
+            ByteBuffer face = inputs[offset + i].bytes;
+            face.rewind();
+            batchBuffer.put(face);
+        }
+        batchBuffer.position(0);
+        batchBuffer.limit(bytesPerFace * batch);
+        Object output = outputFor(batch);
+        interpreter.run(batchBuffer, output);
+        return output;
+    }
+
+    //first count rows of a batch output into results starting at offset
+    private void copyRows(Object output, float[][] results, int offset, int count) {
+        if (outputFormat.isQuantized()) {
+            byte[][] rows = (byte[][]) output;
+            for (int i = 0; i < count; i++) {
+                float[] result = results[offset + i];
+                for (int j = 0; j < outputSize; j++) {
+                    result[j] = outputFormat.dequantize(rows[i][j]);
+                }
+            }
+        } else {
+            float[][] rows = (float[][]) output;
+            for (int i = 0; i < count; i++) {
+                System.arraycopy(rows[i], 0, results[offset + i], 0, outputSize);
+            }
+        }
+    }
+
+    //resize input tensor to batch, returns false when the model does not allow it
+    private boolean resizeTo(int batch) {
+        if (batch == currentBatch) {
+            return true;
+        }
+        try {
+            interpreter.resizeInput(0, inputShape(batch));
+            currentBatch = batch;
+            return true;
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            disableResize(e);
+            return false;
+        }
+    }
+
+    //fall back to the batch size the model was exported with
+    private void disableResize(RuntimeException e) {
+        Log.d(TAG, "batch dimension is fixed, running " + modelBatch + " face(s) per call: " + e.getMessage());
+        resizable = false;
+        interpreter.resizeInput(0, inputShape(modelBatch));
+        currentBatch = modelBatch;
+    }
+
+    private int[] inputShape(int batch) {
+        int[] shape = new int[faceShape.length + 1];
+        shape[0] = batch;
+        System.arraycopy(faceShape, 0, shape, 1, faceShape.length);
+        return shape;
+    }
+
+    private Object outputFor(int batch) {
+        for (int i = 0; i < BATCH_BUCKETS.length; i++) {
+            if (BATCH_BUCKETS[i] == batch) {
+                if (bucketOutputs[i] == null) {
+                    bucketOutputs[i] = newOutput(batch);
+                }
+                return bucketOutputs[i];
+            }
+        }
+        //fixed model batch that is not one of the buckets
+        return newOutput(batch);
+    }
+
+    private Object newOutput(int batch) {
+        return outputFormat.isQuantized() ? new byte[batch][outputSize] : new float[batch][outputSize];
+    }
+
+    //format of an interpreter tensor, throws for types the app cannot feed or read
+    static TensorFormat formatOf(Tensor tensor) {
+        DataType dataType = tensor.dataType();
+        Tensor.QuantizationParams quantization = tensor.quantizationParams();
+        switch (dataType) {
+            case FLOAT32:
+                return TensorFormat.FLOAT32;
+            case UINT8:
+                return new TensorFormat(TensorFormat.Type.UINT8, quantization.getScale(), quantization.getZeroPoint());
+            case INT8:
+                return new TensorFormat(TensorFormat.Type.INT8, quantization.getScale(), quantization.getZeroPoint());
+            default:
+                throw new IllegalArgumentException("unsupported tensor type " + dataType);
+        }
+    }
+
+    //smallest bucket that holds count faces, or the largest bucket
+    static int bucketFor(int count) {
+        for (int bucket : BATCH_BUCKETS) {
+            if (bucket >= count) {
+                return bucket;
+            }
+        }
+        return BATCH_BUCKETS[BATCH_BUCKETS.length - 1];
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.tensorflow.lite.Interpreter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+//BlazeFace front camera model on a TFLite interpreter created by BackendManager, so it gets
+//the same per device backend choice (threads, XNNPACK, NNAPI, GPU) as the recognition model
+//the frame is scaled to 128x128 without keeping its aspect ratio, boxes are mapped back the
+//same way; input buffer, output arrays and Mats are allocated once
+public class BlazeFaceDetector implements FaceDetector {
+    private static final int SIZE = BlazeFaceDecoder.INPUT_SIZE;
+
+    private final Interpreter interpreter;
+    private final BlazeFaceDecoder decoder;
+    private final Size inputDims = new Size(SIZE, SIZE);
+    private final Mat resized = new Mat(SIZE, SIZE, CvType.CV_8UC4);
+    private final Mat rgb = new Mat(SIZE, SIZE, CvType.CV_8UC3);
+    private final Mat rgbFloat = new Mat(SIZE, SIZE, CvType.CV_32FC3);
+    private final float[] pixels = new float[SIZE * SIZE * 3];
+    private final ByteBuffer input;
+    private final FloatBuffer inputFloats;
+    private final float[][][] boxes = new float[1][BlazeFaceDecoder.ANCHORS][BlazeFaceDecoder.BOX_VALUES];
+    private final float[][][] logits = new float[1][BlazeFaceDecoder.ANCHORS][1];
+    private final Object[] inputs = new Object[1];
+    private final Map<Integer, Object> outputs = new HashMap<>();
+
+    public BlazeFaceDetector(Interpreter interpreter, float minScore) {
+        this.interpreter = interpreter;
+        this.decoder = new BlazeFaceDecoder(minScore, 0.3f);
+        int[] shape = interpreter.getInputTensor(0).shape();
+        if (shape[1] != SIZE || shape[2] != SIZE) {
+            throw new IllegalArgumentException("expected the 128x128 BlazeFace front model, input is "
+                    + shape[1] + "x" + shape[2]);
+        }
+        input = ByteBuffer.allocateDirect(SIZE * SIZE * 3 * 4);
+        input.order(ByteOrder.nativeOrder());
+        //view must be created after order is set
+        inputFloats = input.asFloatBuffer();
+        inputs[0] = input;
+        //exports differ in output order, the box output is the one with 16 values per anchor
+        boolean boxesFirst = interpreter.getOutputTensor(0).shape()[2] == BlazeFaceDecoder.BOX_VALUES;
+        outputs.put(boxesFirst ? 0 : 1, boxes);
+        outputs.put(boxesFirst ? 1 : 0, logits);
+    }
+
+    @Override
+    public Rect[] detect(FrameContext context, Mat detectGray, DetectionConfig config) {
+        context.resizeUpright(resized, inputDims);
+        Imgproc.cvtColor(resized, rgb, Imgproc.COLOR_RGBA2RGB);
+        //the model wants RGB in -1..1
+        rgb.convertTo(rgbFloat, CvType.CV_32FC3, 1 / 127.5, -1);
+        rgbFloat.get(0, 0, pixels);
+        inputFloats.clear();
+        inputFloats.put(pixels);
+        interpreter.runForMultipleInputsOutputs(inputs, outputs);
+        Rect[] faces = decoder.decode(boxes[0], logits[0], detectGray.cols(), detectGray.rows());
+        //same face size limits as the cascade
+        int minSize = (int) (detectGray.rows() * config.minFaceFraction);
+        int maxSize = config.maxFaceFraction > 0 ? (int) (detectGray.rows() * config.maxFaceFraction) : Integer.MAX_VALUE;
+        int kept = 0;
+        for (Rect face : faces) {
+            int size = Math.max(face.width, face.height);
+            if (size >= minSize && size <= maxSize) {
+                faces[kept++] = face;
+            }
+        }
+        if (kept == faces.length) {
+            return faces;
+        }
+        Rect[] result = new Rect[kept];
+        System.arraycopy(faces, 0, result, 0, kept);
+        return result;
+    }
+
+    @Override
+    public void close() {
+        resized.release();
+        rgb.release();
+        rgbFloat.release();
+    }
+}
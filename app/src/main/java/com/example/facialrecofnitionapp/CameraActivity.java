@@ -13,6 +13,7 @@ import android.os.Bundle;
 import android.os.PowerManager;
 import android.util.Log;
 import android.view.SurfaceView;
+import android.view.View;
 import android.view.Window;
 import android.view.WindowManager;
 import android.widget.Toast;
@@ -23,8 +24,13 @@ import org.opencv.android.LoaderCallbackInterface;
 import org.opencv.android.OpenCVLoader;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 public class CameraActivity extends Activity implements CameraBridgeViewBase.CvCameraViewListener2 {
     private static final String TAG =  "MainActivity";
@@ -33,6 +39,26 @@ public class CameraActivity extends Activity implements CameraBridgeViewBase.CvC
     private Mat mGray;
     private CameraBridgeViewBase mOpenCvCameraView;
     private Face_Recognition face_recognition;
+    //runs face_recognition off the camera thread
+    private FacePipeline facePipeline;
+    //frames without motion skip recognition and only get the last faces drawn
+    //camera thread only, sensitivity and refresh interval are the MotionGate arguments
+    //created with the camera view, its Mats need the OpenCV library loaded
+    private MotionGate motionGate;
+    //set when the model could not be loaded, preview is shown without recognition
+    private volatile boolean modelFailed = false;
+    private static final Point WARMING_UP_ORIGIN = new Point(20, 50);
+    private static final Scalar WARMING_UP_COLOR = new Scalar(255, 255, 0, 255);
+    //metrics overlay, toggled by tapping the preview, a long press writes the full report to a file
+    private volatile boolean showMetrics = false;
+    private String[] metricsLines = new String[0];
+    private long metricsUpdated = 0;
+    private static final long METRICS_REFRESH_NANOS = 500000000L;
+    private static final String METRICS_FILE = "metrics.txt";
+    private static final Scalar METRICS_COLOR = new Scalar(0, 255, 255, 255);
+    private final Point metricsOrigin = new Point();
+    //frame latency the governor keeps recognition within, see FrameGovernor
+    private static final double FRAME_BUDGET_MILLIS = 33;
     private BaseLoaderCallback mLoaderCallback = new BaseLoaderCallback(this) {
         @Override
         public void onManagerConnected(int status) {
@@ -75,21 +101,56 @@ public class CameraActivity extends Activity implements CameraBridgeViewBase.CvC
         mOpenCvCameraView=(CameraBridgeViewBase)findViewById(R.id.frame_surface);
         mOpenCvCameraView.setVisibility(SurfaceView.VISIBLE);
         mOpenCvCameraView.setCvCameraViewListener(this);
+        mOpenCvCameraView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                showMetrics = !showMetrics;
+            }
+        });
+        mOpenCvCameraView.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                dumpMetrics();
+                return true;
+            }
+        });
 
         //input size of model
         int inputSize = 96;
-        try {
-            face_recognition = new Face_Recognition(getAssets(),
-                    CameraActivity.this,
-                    "model_best_eff.tflite",
-                    //"my_model.tflite",
-                    inputSize);
-        }
-        catch (IOException e){
-            e.printStackTrace();
-            Log.d("CameraActivity", "Model failed loading...: ");
-            Toast.makeText(this, "Face_Recognition Error: "+e.getMessage(), Toast.LENGTH_SHORT).show();
-        }
+        face_recognition = new Face_Recognition(getAssets(),
+                CameraActivity.this,
+                "model_best_eff.tflite",
+                //"my_model.tflite",
+                inputSize);
+        //detection passes scan around known faces and one stripe, new faces show up within 15 frames
+        face_recognition.setRoiDetection(RoiScheduler.defaults());
+        //30 fps: detection and recognition step down when frames take longer than 33 ms
+        face_recognition.setLatencyBudget(FRAME_BUDGET_MILLIS);
+        facePipeline = new FacePipeline(face_recognition);
+        //model and cascade load in the background, the camera starts right away
+        face_recognition.warmUp(new Face_Recognition.WarmUpListener() {
+            @Override
+            public void onReady(final long millis) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(CameraActivity.this, "Model loaded in " + millis + " ms", Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+
+            @Override
+            public void onError(final Exception e) {
+                modelFailed = true;
+                Log.d("CameraActivity", "Model failed loading...: ");
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(CameraActivity.this, "Face_Recognition Error: "+e.getMessage(), Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        });
 
     }
 
@@ -146,16 +207,32 @@ public class CameraActivity extends Activity implements CameraBridgeViewBase.CvC
         if (mOpenCvCameraView != null){
             mOpenCvCameraView.disableView();
         }
+        if (face_recognition != null){
+            face_recognition.release();
+        }
     }
 
     @Override
     public void onCameraViewStarted(int width, int height) {
         mRgba= new Mat(height, width, CvType.CV_8UC4);
         mGray = new Mat(height, width, CvType.CV_8UC1);
+        motionGate = MotionGate.defaults();
+        if (facePipeline != null){
+            //pipeline Mats are sized from the camera frame
+            facePipeline.start(width, height);
+        }
     }
 
     @Override
     public void onCameraViewStopped() {
+        if (facePipeline != null){
+            facePipeline.stop();
+        }
+        //only there once the view started
+        if (motionGate != null){
+            motionGate.release();
+            motionGate = null;
+        }
         mRgba.release();
     }
 
@@ -163,11 +240,83 @@ public class CameraActivity extends Activity implements CameraBridgeViewBase.CvC
         mRgba = inputFrame.rgba();
         mGray = inputFrame.gray();
 
-        //pass input as mRgba
-        mRgba = face_recognition.recognitionImage(mRgba);
-        //output is saved in mRgba
+        if (modelFailed){
+            //model failed loading, show plain preview
+            return mRgba;
+        }
+        if (!face_recognition.isReady()){
+            //model is still loading
+            Imgproc.putText(mRgba, "warming up", WARMING_UP_ORIGIN, 1, 2, WARMING_UP_COLOR, 2);
+            return mRgba;
+        }
+        //mGray is only compared at 64 pixels, a still frame keeps the faces already drawn
+        boolean wasIdle = motionGate.isIdle();
+        if (motionGate.check(mGray)){
+            if (wasIdle){
+                //faces may have entered anywhere while detection was paused
+                face_recognition.requestFullScan();
+            }
+            //pass a copy of mRgba and of the camera's gray plane to the pipeline,
+            //detection and inference run on worker threads
+            facePipeline.submit(mRgba, mGray);
+        }
+        else {
+            face_recognition.getMetrics().recordSkipped();
+        }
+        //draw last known faces on mRgba
         //we will show returned mRgba to screen
+        mRgba = facePipeline.annotate(mRgba);
+        if (showMetrics){
+            drawMetrics(mRgba);
+        }
 
         return mRgba;
     }
+
+    //summary is rebuilt twice a second, formatting it every frame would cost more than drawing it
+    private void drawMetrics(Mat frame){
+        long now = System.nanoTime();
+        if (now - metricsUpdated > METRICS_REFRESH_NANOS){
+            face_recognition.sampleMetrics();
+            metricsLines = face_recognition.getMetrics().overlayLines();
+            FrameGovernor governor = face_recognition.getGovernor();
+            if (governor != null){
+                String[] lines = Arrays.copyOf(metricsLines, metricsLines.length + 1);
+                lines[metricsLines.length] = governor.summary();
+                metricsLines = lines;
+            }
+            metricsUpdated = now;
+        }
+        for (int i = 0; i < metricsLines.length; i++){
+            metricsOrigin.x = 20;
+            metricsOrigin.y = 40 + 30 * i;
+            Imgproc.putText(frame, metricsLines[i], metricsOrigin, 1, 1.5, METRICS_COLOR, 2);
+        }
+    }
+
+    //writes the report next to the app files, off the ui thread
+    private void dumpMetrics(){
+        final File file = new File(getExternalFilesDir(null), METRICS_FILE);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    face_recognition.dumpMetrics(file);
+                    showToast("metrics written to " + file);
+                } catch (IOException e) {
+                    Log.d(TAG, "metrics dump failed", e);
+                    showToast("metrics dump failed: " + e.getMessage());
+                }
+            }
+        }, "MetricsDump").start();
+    }
+
+    private void showToast(final String text){
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(CameraActivity.this, text, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
 }
\ No newline at end of file
@@ -0,0 +1,294 @@
+package com.example.facialrecofnitionapp;
+
+import android.util.Log;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+//runs the stages of RecognitionEngine off the camera thread
+//frames are only submitted once Face_Recognition finished its warm-up, so the engine exists
+//capture -> detect -> crop/preprocess -> infer -> annotate
+//stages are connected with LatestSlot so only the newest frame waits between two stages
+//and a slow stage drops stale frames instead of building a queue
+//the camera thread only copies the frame in (capture) and draws the last known faces (annotate)
+//frames travel in pooled FrameContexts, so no Mats are allocated per frame
+//frames stay in camera orientation: the camera's gray plane is copied in instead of converting
+//rgba again, and only the small detection image, face crops and name labels are turned upright
+//every stage records its latency into the PipelineMetrics of face_recognition, a frame counts
+//as done when its faces are known, dropped frames are counted where a slot replaces them
+public class FacePipeline {
+    private static final String TAG = "FacePipeline";
+
+    private final Face_Recognition face_recognition;
+    private final PipelineMetrics metrics;
+
+    //hand off slots between stages
+    private final LatestSlot<FramePacket> detectSlot = new LatestSlot<>();
+    private final LatestSlot<FramePacket> preprocessSlot = new LatestSlot<>();
+    private final LatestSlot<FramePacket> inferSlot = new LatestSlot<>();
+
+    //faces from the newest frame that finished inference, drawn on every preview frame
+    private volatile RecognizedFace[] lastFaces = new RecognizedFace[0];
+
+    //FrameContexts not used by any stage, sized in start(width, height)
+    private final ArrayDeque<FrameContext> freeContexts = new ArrayDeque<>();
+    private volatile int frameWidth;
+    private volatile int frameHeight;
+
+    private final AtomicLong framesCaptured = new AtomicLong();
+    private final AtomicLong framesCompleted = new AtomicLong();
+
+    private Thread detectThread;
+    private Thread preprocessThread;
+    private Thread inferThread;
+
+    public FacePipeline(Face_Recognition face_recognition) {
+        this.face_recognition = face_recognition;
+        this.metrics = face_recognition.getMetrics();
+    }
+
+    //called from onCameraViewStarted with the size of the camera frames
+    public synchronized void start(int width, int height) {
+        if (detectThread != null) {
+            return;
+        }
+        frameWidth = width;
+        frameHeight = height;
+        detectThread = startStage("FacePipeline-detect", new Runnable() {
+            @Override
+            public void run() {
+                runDetectStage();
+            }
+        });
+        preprocessThread = startStage("FacePipeline-preprocess", new Runnable() {
+            @Override
+            public void run() {
+                runPreprocessStage();
+            }
+        });
+        inferThread = startStage("FacePipeline-infer", new Runnable() {
+            @Override
+            public void run() {
+                runInferStage();
+            }
+        });
+    }
+
+    public synchronized void stop() {
+        if (detectThread == null) {
+            return;
+        }
+        joinStage(detectThread);
+        joinStage(preprocessThread);
+        joinStage(inferThread);
+        detectThread = null;
+        preprocessThread = null;
+        inferThread = null;
+        //free frames that were still waiting in the slots
+        releaseIfNotNull(detectSlot.clear());
+        releaseIfNotNull(preprocessSlot.clear());
+        releaseIfNotNull(inferSlot.clear());
+        lastFaces = new RecognizedFace[0];
+        //worker threads are gone, tracks and cached identities can be dropped safely
+        face_recognition.resetTracking();
+        //every context is back in the pool now
+        synchronized (freeContexts) {
+            for (FrameContext context : freeContexts) {
+                context.release();
+            }
+            freeContexts.clear();
+        }
+        Log.d(TAG, "stopped: " + getStats());
+    }
+
+    //capture stage, called on the camera thread
+    //copies the frame and its gray plane into a pooled context so the camera can reuse its own buffers
+    public void submit(Mat rgba, Mat gray) {
+        long captured = System.nanoTime();
+        FrameContext context = acquireContext();
+        context.load(rgba, gray);
+        FramePacket packet = new FramePacket(framesCaptured.incrementAndGet(), captured, context);
+        dropIfNotNull(detectSlot.offer(packet));
+    }
+
+    //annotate stage, called on the camera thread
+    //draws the last known faces on the current preview frame, in camera orientation
+    public Mat annotate(Mat rgba) {
+        RecognizedFace[] faces = lastFaces;
+        if (faces.length == 0) {
+            return rgba;
+        }
+        long start = System.nanoTime();
+        for (RecognizedFace face : faces) {
+            face_recognition.drawFace(rgba, face);
+        }
+        metrics.recordStage(PipelineMetrics.Stage.ANNOTATE, start);
+        return rgba;
+    }
+
+    private void runDetectStage() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                FramePacket packet = detectSlot.take();
+                long start = System.nanoTime();
+                try {
+                    packet.detections = face_recognition.getEngine().locateFaces(packet.context);
+                } catch (RuntimeException e) {
+                    failed("detect", packet, e);
+                    continue;
+                }
+                metrics.recordStage(PipelineMetrics.Stage.DETECT, start);
+                dropIfNotNull(preprocessSlot.offer(packet));
+            }
+        } catch (InterruptedException e) {
+            //pipeline stopped
+        }
+    }
+
+    private void runPreprocessStage() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                FramePacket packet = preprocessSlot.take();
+                long start = System.nanoTime();
+                //faces with a cached identity get no input and skip inference
+                packet.hashes = new long[packet.detections.faces.length];
+                try {
+                    packet.inputs = face_recognition.getEngine().preprocessFaces(packet.context,
+                            packet.detections, packet.frameId, packet.hashes);
+                } catch (RuntimeException e) {
+                    failed("preprocess", packet, e);
+                    continue;
+                }
+                metrics.recordStage(PipelineMetrics.Stage.PREPROCESS, start);
+                //pixels are no longer needed after cropping
+                recycleContext(packet.context);
+                packet.context = null;
+                dropIfNotNull(inferSlot.offer(packet));
+            }
+        } catch (InterruptedException e) {
+            //pipeline stopped
+        } finally {
+            face_recognition.releaseThreadResources();
+        }
+    }
+
+    private void runInferStage() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                FramePacket packet = inferSlot.take();
+                long start = System.nanoTime();
+                //all new faces of the frame in one interpreter call, the others come from the cache
+                RecognitionEngine engine = face_recognition.getEngine();
+                RecognizedFace[] faces;
+                try {
+                    faces = identify(engine, packet);
+                } catch (RuntimeException e) {
+                    failed("infer", packet, e);
+                    continue;
+                }
+                metrics.recordStage(PipelineMetrics.Stage.INFER, start);
+                lastFaces = faces;
+                metrics.recordFrame(packet.captureNanos, faces.length);
+                framesCompleted.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            //pipeline stopped
+        }
+    }
+
+    //inputs go back to the pool whether the model ran or threw
+    private static RecognizedFace[] identify(RecognitionEngine engine, FramePacket packet) {
+        try {
+            return engine.identifyFaces(packet.frameId, packet.detections, packet.inputs, packet.hashes);
+        } finally {
+            engine.recycleInputs(packet.inputs);
+            packet.inputs = new FaceInput[0];
+        }
+    }
+
+    //frames dropped because the detect stage was still busy
+    public long getDetectDrops() {
+        return detectSlot.getDropped();
+    }
+
+    //frames dropped because the preprocess stage was still busy
+    public long getPreprocessDrops() {
+        return preprocessSlot.getDropped();
+    }
+
+    //frames dropped because the infer stage was still busy
+    public long getInferDrops() {
+        return inferSlot.getDropped();
+    }
+
+    public String getStats() {
+        return "captured=" + framesCaptured.get()
+                + " completed=" + framesCompleted.get()
+                + " dropped(detect=" + getDetectDrops()
+                + ", preprocess=" + getPreprocessDrops()
+                + ", infer=" + getInferDrops() + ")";
+    }
+
+    private static Thread startStage(String name, Runnable stage) {
+        Thread thread = new Thread(stage, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void joinStage(Thread thread) {
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //a slot replaced packet with a newer frame
+    private void dropIfNotNull(FramePacket packet) {
+        if (packet != null) {
+            metrics.recordDrops(1);
+            releaseIfNotNull(packet);
+        }
+    }
+
+    //a frame that threw is logged and dropped, the stage goes on with the next one
+    private void failed(String stage, FramePacket packet, RuntimeException e) {
+        Log.e(TAG, stage + " failed on frame " + packet.frameId, e);
+        metrics.recordDrops(1);
+        releaseIfNotNull(packet);
+    }
+
+    //free a frame that will not go any further
+    private void releaseIfNotNull(FramePacket packet) {
+        if (packet != null) {
+            if (packet.context != null) {
+                recycleContext(packet.context);
+                packet.context = null;
+            }
+            if (packet.inputs.length > 0) {
+                face_recognition.getEngine().recycleInputs(packet.inputs);
+            }
+        }
+    }
+
+    //at most one context per stage and per slot is in use, so the pool stays small
+    private FrameContext acquireContext() {
+        synchronized (freeContexts) {
+            FrameContext context = freeContexts.poll();
+            if (context != null) {
+                return context;
+            }
+        }
+        return new FrameContext(frameWidth, frameHeight);
+    }
+
+    private void recycleContext(FrameContext context) {
+        synchronized (freeContexts) {
+            freeContexts.push(context);
+        }
+    }
+}
@@ -3,316 +3,800 @@ package com.example.facialrecofnitionapp;
 import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
-import android.graphics.Bitmap;
+import android.os.Debug;
 import android.util.Log;
-import android.widget.Toast;
 
-import org.opencv.android.Utils;
-import org.opencv.core.Core;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfRect;
-import org.opencv.core.Point;
 import org.opencv.core.Rect;
-import org.opencv.core.Scalar;
-import org.opencv.core.Size;
-import org.opencv.imgproc.Imgproc;
 import org.opencv.objdetect.CascadeClassifier;
 import org.tensorflow.lite.Interpreter;
-import org.tensorflow.lite.gpu.GpuDelegate;
+import org.tensorflow.lite.support.metadata.MetadataExtractor;
+import org.tensorflow.lite.support.metadata.schema.AssociatedFile;
+import org.tensorflow.lite.support.metadata.schema.AssociatedFileType;
+import org.tensorflow.lite.support.metadata.schema.TensorMetadata;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.Array;
-import java.nio.Buffer;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+//Android side of recognition: loads model, labels and face detector from the apk, picks the
+//interpreter backend and draws results; detection and identification run in RecognitionEngine
 public class Face_Recognition {
     // define interpreter
     private Interpreter interpreter;
+    //one or more interpreters, each runs its share of the faces of a frame in one call
+    private InterpreterPool interpreterPool;
+    //input format of the model, read when the interpreter is created
+    private TensorFormat inputFormat;
+    //created by warmUp once model and detector are loaded
+    private volatile RecognitionEngine engine;
+    //settings made before warmUp finished, handed to the engine when it is created
+    private volatile DetectionConfig detectionConfig = DetectionConfig.defaults();
+    //ROI detection, applied like detectionConfig, null scans the full frame every detection pass
+    private volatile RoiScheduler roiScheduler;
+    //frame latency budget of the governor in ms, 0 keeps the settings fixed
+    private volatile double latencyBudgetMillis = 0;
+    //adapts detection and recognition to the budget, null without one or before warmUp finished
+    private volatile FrameGovernor governor;
+    //frame counter of recognitionImage, FacePipeline numbers its own frames
+    private long syncFrameId = 0;
+    //Mats reused by recognitionImage
+    private FrameContext frameContext;
+    //draws boxes and names, reuses its points between faces
+    private final FaceAnnotator faceAnnotator = new FaceAnnotator();
+    //stage latencies, frame rate and drops of recognitionImage and FacePipeline
+    private final PipelineMetrics metrics = new PipelineMetrics();
     //define model size
     private int INPUT_SIZE;
-    // define height and width of the frame
-    private int height = 0;
-    private int width = 0;
-    //define gpuDelegate... This is used to run model using GPU
-    private GpuDelegate gpuDelegate = null;
+    //picks threads/XNNPACK/NNAPI/GPU for the model and owns the interpreter and its delegates
+    private BackendManager backendManager;
+    //chosen backend per model hash, kept between starts
+    private static final String BACKEND_CACHE = "interpreter_backend.properties";
     //define cascadeClassifier
     private CascadeClassifier cascadeClassifier;
+    //detection backend, chosen with setDetector before warmUp
+    private volatile DetectorType detectorType = DetectorType.HAAR;
+    //input resolution of the SSD detector, the cascade's comes from DetectionConfig
+    private volatile int detectorInputSize = SSD_INPUT_SIZE;
+    //detector handed to the engine, null when even the cascade failed to load
+    private FaceDetector faceDetector;
+    //interpreter and delegates of the BlazeFace detector
+    private BackendManager detectorBackendManager;
+    //SSD face detector files in assets, extracted to app storage because dnn reads files
+    private static final String SSD_DIR = "face_detector";
+    private static final String SSD_PROTOTXT = "deploy.prototxt";
+    private static final String SSD_WEIGHTS = "res10_300x300_ssd_iter_140000.caffemodel";
+    private static final int SSD_INPUT_SIZE = 300;
+    private static final float SSD_MIN_CONFIDENCE = 0.5f;
+    private static final String BLAZEFACE_MODEL = "blazeface.tflite";
+    private static final float BLAZEFACE_MIN_SCORE = 0.75f;
+    //mapped .tflite file
+    private MappedByteBuffer modelBuffer;
+    //names of the model outputs
+    private LabelTable labelTable;
+    //side-car label file, used when the model has no label metadata
+    private static final String LABELS_PATH = "labels.txt";
+    private static final String UNKNOWN_NAME = "Unknown";
+    //enrolled people, set in embedding mode
+    private volatile FaceGallery faceGallery;
+    private volatile float minGallerySimilarity = 0.6f;
+    //enrollments kept in the gallery log before they are compacted into the gallery file
+    private static final int GALLERY_COMPACT_AFTER = 256;
+    //where the model comes from, loading happens in warmUp
+    private final AssetManager assetManager;
+    private final Context context;
+    private final String modelPath;
+    //set once interpreter and detector are loaded and the interpreter ran once
+    private volatile boolean ready = false;
+    //guards warmingUp and released: the warm-up thread publishes the engine and release()
+    //frees resources under it, so an engine is never built on freed resources
+    private final Object lifecycle = new Object();
+    //loaders of a running warmUp, release() interrupts them
+    private ExecutorService loaders;
+    private boolean warmingUp = false;
+    private boolean released = false;
+    private static final String TAG = "Face_Recognition";
+
+    //called when warmUp is done, on a background thread
+    public interface WarmUpListener {
+        //model and detector are loaded, millis is the wall time of the warm-up
+        void onReady(long millis);
+        //the model could not be loaded, recognition stays off
+        void onError(Exception e);
+    }
+
     //create constructor
-    Face_Recognition(AssetManager assetManager, Context context, String modelPath, int input_size) throws IOException{
+    //only stores its arguments so the camera can start right away, call warmUp to load the model
+    Face_Recognition(AssetManager assetManager, Context context, String modelPath, int input_size){
         //call this class in Camera Activity
-
+        this.assetManager = assetManager;
+        this.context = context.getApplicationContext();
+        this.modelPath = modelPath;
         //get input size
         INPUT_SIZE = input_size;
-        //set GPU for the Interpreter
-        Interpreter.Options options = new Interpreter.Options();
-        gpuDelegate = new GpuDelegate();
-        //if you are using EFficient you can use GPU as it doesnt support GPU
-        //Still without GPU frame rate is OK
-
-        /**1. But if you are using MobileNet model**/
-        //options.addDelegate(gpuDelegate);
-
-        /**2. But if you are using Efficient model*/
-        //Before loading, add number of threads
-        options.setNumThreads(4); // chose number of threads according to your phone
-        //If you want to increase frame-rate use maximum frame rate that your phone can support
-        //If your phone slows down due to this app, reduce the number of threads
+    }
+
+    //load interpreter and detector in parallel on background threads, then run the model once
+    //so the first camera frame does not pay for lazy tensor allocation
+    //a BlazeFace detector loads after the interpreter, both search their backend by timing
+    public void warmUp(final WarmUpListener listener){
+        final long start = System.nanoTime();
+        final ExecutorService loaders = Executors.newFixedThreadPool(2);
+        synchronized (lifecycle){
+            if (released){
+                loaders.shutdown();
+                return;
+            }
+            warmingUp = true;
+            this.loaders = loaders;
+        }
+        final Future<?> model = loaders.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                loadInterpreter();
+                return null;
+            }
+        });
+        final DetectorType type = detectorType;
+        final Future<?> detector = loaders.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+                if (type == DetectorType.BLAZEFACE){
+                    //BlazeFace times backends like the model does, one search after the other so
+                    //neither measures the other's load and they do not write the backend cache together
+                    try {
+                        model.get();
+                    }
+                    catch (ExecutionException e){
+                        //reported by the warm-up thread, nothing to load a detector for
+                        return null;
+                    }
+                }
+                loadDetector(type);
+                return null;
+            }
+        });
+        loaders.shutdown();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Exception failure = null;
+                try {
+                    model.get();
+                    detector.get();
+                }
+                catch (ExecutionException e){
+                    Log.d(TAG, "Face_Recognition Error: Model failed loading", e.getCause());
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+                catch (InterruptedException e){
+                    failure = e;
+                }
+                //a loader may still run after an interrupt, nothing is published or freed under it
+                awaitTermination(loaders);
+                synchronized (lifecycle){
+                    warmingUp = false;
+                    Face_Recognition.this.loaders = null;
+                    if (released){
+                        //release() came during warm-up and left the loaded resources to this thread
+                        Log.d(TAG, "warm-up cancelled");
+                        freeResources();
+                        return;
+                    }
+                    if (failure == null){
+                        //every field written by the loaders is visible after get()
+                        engine = createEngine();
+                        startGovernor();
+                        ready = true;
+                    }
+                }
+                if (failure != null){
+                    listener.onError(failure);
+                    return;
+                }
+                long millis = (System.nanoTime() - start) / 1000000;
+                Log.d(TAG, "warm-up done in " + millis + " ms");
+                listener.onReady(millis);
+            }
+        }, "Face_Recognition-warmup").start();
+    }
+
+    //wait for the loaders to finish, keeping an interrupt for later
+    private static void awaitTermination(ExecutorService loaders){
+        boolean interrupted = false;
+        while (true){
+            try {
+                if (loaders.awaitTermination(1, TimeUnit.SECONDS)){
+                    break;
+                }
+            }
+            catch (InterruptedException e){
+                interrupted = true;
+            }
+        }
+        if (interrupted){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private RecognitionEngine createEngine(){
+        RecognitionEngine created = new RecognitionEngine(faceDetector, interpreterPool, inputFormat,
+                INPUT_SIZE, labelTable, UNKNOWN_NAME);
+        created.setDetectionConfig(detectionConfig);
+        created.setRoiScheduler(roiScheduler);
+        if (faceGallery != null){
+            created.setGallery(faceGallery, minGallerySimilarity);
+        }
+        return created;
+    }
+
+    //the settings in effect now are the governor's baseline, it only ever returns to them
+    private void startGovernor(){
+        if (latencyBudgetMillis <= 0){
+            return;
+        }
+        FrameGovernor.Settings baseline = new FrameGovernor.Settings(detectionConfig.detectionLongEdge,
+                engine.getFaceTracker().getDetectionInterval(), engine.getMaxFacesPerFrame(),
+                interpreterPool.getActiveInstances());
+        governor = FrameGovernor.forBudget(latencyBudgetMillis, baseline, new FrameGovernor.Target() {
+            @Override
+            public void apply(FrameGovernor.Settings settings, FrameGovernor.Decision decision) {
+                Log.d(TAG, "governor " + decision);
+                //the governor owns the detection resolution while it runs, the rest of the config stays
+                setDetectionConfig(detectionConfig.withDetectionLongEdge(settings.detectionLongEdge));
+                RecognitionEngine engine = Face_Recognition.this.engine;
+                engine.getFaceTracker().setDetectionInterval(settings.detectionInterval);
+                engine.setMaxFacesPerFrame(settings.maxFaces);
+                interpreterPool.setActiveInstances(settings.interpreters);
+            }
+        });
+        metrics.setListener(governor);
+        Log.d(TAG, "governor on, budget " + latencyBudgetMillis + " ms, baseline " + baseline);
+    }
+
+    //true once warmUp finished, frames before that are not processed
+    public boolean isReady(){
+        return ready;
+    }
+
+    private void loadInterpreter() throws IOException{
+        long phase = System.nanoTime();
         //load model
-        interpreter = new Interpreter(loadModel(assetManager, modelPath), options);
+        modelBuffer = loadModel(assetManager, modelPath);
+        phase = logPhase("map model", phase);
+        //the fastest of CPU threads, XNNPACK, NNAPI and GPU on this phone, measured once per model
+        backendManager = new BackendManager(modelBuffer, new File(context.getCacheDir(), BACKEND_CACHE));
+        backendManager.selectBackend();
+        phase = logPhase("select backend", phase);
+        interpreter = backendManager.create();
+        interpreterPool = createPool(backendManager, interpreter);
+        phase = logPhase("create " + interpreterPool.size() + " interpreter(s)", phase);
+        //float or quantized input, outputs are dequantized by BatchInterpreter
+        inputFormat = BatchInterpreter.formatOf(interpreter.getInputTensor(0));
+        Log.d(TAG, "model input " + inputFormat + ", output " + BatchInterpreter.formatOf(interpreter.getOutputTensor(0)));
+        labelTable = loadLabels(assetManager, modelBuffer);
+        phase = logPhase("load labels", phase);
+        //one inference on a blank face allocates tensors and warms caches
+        FaceInput blank = new FaceInput(interpreter.getInputTensor(0).numBytes());
+        interpreterPool.runOnEach(new FaceInput[]{blank});
+        logPhase("warm-up inference", phase);
         //when model is loaded successfully
-        Toast.makeText(context, "Model loaded successfully", Toast.LENGTH_SHORT).show();
-        Log.d("Face_Recognition", "Face_Recognition: Model loaded successfully");
+        Log.d(TAG, "Face_Recognition: Model loaded successfully");
+    }
+
+    //interpreters on the selected backend, first is the one already created
+    //as many as the cores allow at the thread count the backend was measured with
+    private static InterpreterPool createPool(BackendManager backendManager, Interpreter first){
+        Backend backend = backendManager.selectBackend();
+        int instances = InterpreterPool.instancesFor(backend, Runtime.getRuntime().availableProcessors());
+        List<BatchInterpreter> batchInterpreters = new ArrayList<>();
+        batchInterpreters.add(new BatchInterpreter(first));
+        for (int i = 1; i < instances; i++){
+            batchInterpreters.add(new BatchInterpreter(backendManager.create(backend)));
+        }
+        return new InterpreterPool(batchInterpreters);
+    }
+
+    //choose the detection backend, takes effect at the next warmUp
+    //inputSize is the SSD input resolution, the BlazeFace model has a fixed 128x128 input and the
+    //cascade's resolution is DetectionConfig.detectionLongEdge
+    public void setDetector(DetectorType type, int inputSize){
+        detectorType = type;
+        detectorInputSize = inputSize;
+    }
+
+    public DetectorType getDetectorType(){
+        return detectorType;
+    }
+
+    //load the chosen detector, a detector whose model is missing falls back to the cascade
+    private void loadDetector(DetectorType type){
+        long phase = System.nanoTime();
+        try {
+            if (type == DetectorType.SSD){
+                File directory = context.getDir(SSD_DIR, Context.MODE_PRIVATE);
+                faceDetector = DnnFaceDetector.caffe(extractAsset(SSD_DIR + "/" + SSD_PROTOTXT, directory),
+                        extractAsset(SSD_DIR + "/" + SSD_WEIGHTS, directory), detectorInputSize, SSD_MIN_CONFIDENCE);
+                logPhase("load SSD detector", phase);
+                return;
+            }
+            if (type == DetectorType.BLAZEFACE){
+                //same backend search and cache as the recognition model, keyed by model hash
+                detectorBackendManager = new BackendManager(loadModel(assetManager, BLAZEFACE_MODEL),
+                        new File(context.getCacheDir(), BACKEND_CACHE));
+                faceDetector = new BlazeFaceDetector(detectorBackendManager.create(), BLAZEFACE_MIN_SCORE);
+                logPhase("load BlazeFace detector on " + detectorBackendManager.selectBackend(), phase);
+                return;
+            }
+        }
+        catch (IOException | RuntimeException e){
+            Log.d(TAG, type + " detector failed loading, using the cascade", e);
+            if (detectorBackendManager != null){
+                detectorBackendManager.close();
+                detectorBackendManager = null;
+            }
+        }
+        loadCascade();
+        if (cascadeClassifier != null){
+            faceDetector = new HaarFaceDetector(cascadeClassifier);
+        }
+    }
+
+    //copy an asset into directory once, returns the copy
+    private File extractAsset(String asset, File directory) throws IOException{
+        File file = new File(directory, new File(asset).getName());
+        if (file.exists()){
+            return file;
+        }
+        //written next to the target and renamed, a partial copy is never used
+        File partial = new File(directory, file.getName() + ".partial");
+        InputStream inputStream = assetManager.open(asset);
+        try {
+            FileOutputStream outputStream = new FileOutputStream(partial);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int byteRead;
+                while ((byteRead = inputStream.read(buffer)) != -1){
+                    outputStream.write(buffer, 0, byteRead);
+                }
+            }
+            finally {
+                outputStream.close();
+            }
+        }
+        finally {
+            inputStream.close();
+        }
+        if (!partial.renameTo(file)){
+            throw new IOException("cannot move " + partial + " to " + file);
+        }
+        return file;
+    }
 
-        //load haar cascade model
+    //load haar cascade model
+    //the cascade is copied out of res/raw only when the copy in app storage does not match it
+    private void loadCascade(){
+        long phase = System.nanoTime();
         try{
-            //define input stream to read haar cascade file
-            InputStream inputStream = context.getResources().openRawResource(R.raw.haarcascade_frontalface_alt);
             //create a new folder to save classifier
             File cascadeDir = context.getDir("cascade", Context.MODE_PRIVATE);
             //create a new cascade file in that folder
             File mCascadeFile = new File(cascadeDir, "haarcascade_frontalface_alt");
-            //define output stream to save haarcascade_frontalface_alt in mCascadeFile
-            FileOutputStream outputStream = new FileOutputStream(mCascadeFile);
-            //create empty byte buffer to store byte
-            byte[] buffer = new byte[4096];
-            int byteRead;
-            //read byte in loop
-            //when it reads -1, that means no data to read
-            while ((byteRead = inputStream.read(buffer)) != -1){
-                outputStream.write(buffer, 0, byteRead);
+            File checksumFile = new File(cascadeDir, "haarcascade_frontalface_alt.crc");
+            //read the resource once, it is needed for the checksum in any case
+            byte[] cascadeBytes = readRawResource(R.raw.haarcascade_frontalface_alt);
+            CRC32 crc = new CRC32();
+            crc.update(cascadeBytes, 0, cascadeBytes.length);
+            String checksum = Long.toHexString(crc.getValue());
+            if (mCascadeFile.length() == cascadeBytes.length && checksum.equals(readText(checksumFile))){
+                Log.d(TAG, "cascade copy is up to date, not extracting");
             }
-            //when reading file is complete do the following:
-            inputStream.close();
-            outputStream.close();
+            else {
+                //define output stream to save haarcascade_frontalface_alt in mCascadeFile
+                FileOutputStream outputStream = new FileOutputStream(mCascadeFile);
+                outputStream.write(cascadeBytes);
+                outputStream.close();
+                //checksum is written last, a partial copy never matches it
+                FileOutputStream checksumStream = new FileOutputStream(checksumFile);
+                checksumStream.write(checksum.getBytes("UTF-8"));
+                checksumStream.close();
+            }
+            phase = logPhase("extract cascade", phase);
 
             //load cascade classifier
             //                                       Path of saved file
             cascadeClassifier = new CascadeClassifier(mCascadeFile.getAbsolutePath());
+            logPhase("load cascade", phase);
 
             //if classifier is successfully loaded
-            Log.d("Face_Recognition", "Face_Recognition: classifier loaded successfully ");
-            Toast.makeText(context, "classifier loaded successfully", Toast.LENGTH_SHORT).show();
+            Log.d(TAG, "Face_Recognition: classifier loaded successfully ");
         }
         catch (IOException e){
             e.printStackTrace();
-            Log.d("Face_Recognition", "Face_Recognition Error: Error in loading classifier ");
-            Toast.makeText(context, "Error in loading classifier \n"+e.getMessage(), Toast.LENGTH_SHORT).show();
+            Log.d(TAG, "Face_Recognition Error: Error in loading classifier ");
         }
     }
 
+    private byte[] readRawResource(int id) throws IOException{
+        //define input stream to read haar cascade file
+        InputStream inputStream = context.getResources().openRawResource(id);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            //create empty byte buffer to store byte
+            byte[] buffer = new byte[64 * 1024];
+            int byteRead;
+            //when it reads -1, that means no data to read
+            while ((byteRead = inputStream.read(buffer)) != -1){
+                bytes.write(buffer, 0, byteRead);
+            }
+            return bytes.toByteArray();
+        }
+        finally {
+            inputStream.close();
+        }
+    }
+
+    private static String readText(File file){
+        if (!file.exists()){
+            return null;
+        }
+        try {
+            FileInputStream inputStream = new FileInputStream(file);
+            try {
+                byte[] bytes = new byte[(int) file.length()];
+                int read = 0;
+                while (read < bytes.length){
+                    int count = inputStream.read(bytes, read, bytes.length - read);
+                    if (count < 0){
+                        break;
+                    }
+                    read += count;
+                }
+                return new String(bytes, 0, read, "UTF-8");
+            }
+            finally {
+                inputStream.close();
+            }
+        }
+        catch (IOException e){
+            return null;
+        }
+    }
+
+    //log time spent since start, returns now
+    private static long logPhase(String phase, long start){
+        long now = System.nanoTime();
+        Log.d(TAG, "warm-up " + phase + ": " + (now - start) / 1000000 + " ms");
+        return now;
+    }
+
     //create a new function with input Mat and output Mat
+    //synchronous path: every stage runs on the calling thread
+    //FacePipeline runs the same stages on worker threads
     public Mat recognitionImage(Mat mat_image){
-        //call this method in onCameraFrame of CameraACtivity
-
-        //Before doing process rotate mat_image by 90 degree
-        //As its not properly aligned
-        Core.flip(mat_image.t(), mat_image, 1);
-
-        //do all processing here
-        //convert mat_image to gray_scale
-        Mat grayScaleImage = new Mat();
-        //               input      output          type
-        Imgproc.cvtColor(mat_image, grayScaleImage, Imgproc.COLOR_RGBA2GRAY);
-        //define height and width
-        height = grayScaleImage.height();
-        width = grayScaleImage.width();
-
-        //define min height and width of face in frame
-        //below this height and width will be neglected
-        int absoluteFaceSize = (int) (height*0.1);
-        MatOfRect faces = new MatOfRect();
-        //This will store all faces
-        //check if cascadeClassifier is loaded or not
-        if (cascadeClassifier != null){
-            //detect face in frame
-            //                                  input         //output     //Scale of frames
-            cascadeClassifier.detectMultiScale(grayScaleImage, faces, 1.1, 2, 2,
-                    new Size(absoluteFaceSize, absoluteFaceSize), new Size());
-                    //min size of face
-        }
+        return recognitionImage(mat_image, null);
+    }
 
-        //convert face to array
-        Rect[] faceArray = faces.toArray();
+    //same with the camera's gray plane, null converts it from mat_image
+    //both are read where they are: nothing is copied and the frame is never turned upright
+    public Mat recognitionImage(Mat mat_image, Mat gray_image){
+        //model still loading
+        if (!ready){
+            return mat_image;
+        }
+        long captured = System.nanoTime();
+        //Mats of this path are reused every frame, only recreated if frame size changes
+        if (frameContext == null || !frameContext.fits(mat_image.cols(), mat_image.rows())){
+            if (frameContext != null){
+                frameContext.release();
+            }
+            frameContext = new FrameContext(mat_image.cols(), mat_image.rows());
+        }
+        //frame is in camera orientation, faces come back in upright coordinates
+        frameContext.wrap(mat_image, gray_image);
+
+        RecognitionEngine engine = this.engine;
+        //detect or track faces on the upright detection image
+        FaceDetections detections = engine.locateFaces(frameContext);
+        metrics.recordStage(PipelineMetrics.Stage.DETECT, captured);
+        long frameId = ++syncFrameId;
+        //crop each face and convert it to model input, faces with a cached identity are skipped
+        long start = System.nanoTime();
+        long[] hashes = new long[detections.faces.length];
+        FaceInput[] inputs = engine.preprocessFaces(frameContext, detections, frameId, hashes);
+        metrics.recordStage(PipelineMetrics.Stage.PREPROCESS, start);
+        //read face values of all new faces in one interpreter call
+        start = System.nanoTime();
+        RecognizedFace[] faces = engine.identifyFaces(frameId, detections, inputs, hashes);
+        engine.recycleInputs(inputs);
+        metrics.recordStage(PipelineMetrics.Stage.INFER, start);
         //loop through each face
-        for (int i =0; i<faceArray.length; i++){
-            //draw rec around faces
-    //                  //input/output,  starting point,    endpoint,            color   (R, G, B,Alpha), Thickness
-            Imgproc.rectangle(mat_image, faceArray[i].tl(), faceArray[i].br(), new Scalar(0,255,0,255), 2);
-
-            //                  Starting coordinates of x,   Starting coordinates of y,
-            Rect roi = new Rect((int)faceArray[i].tl().x, (int)faceArray[i].tl().y,
-                    ((int)faceArray[i].br().x) - ((int)faceArray[i].tl().x),
-                    ((int)faceArray[i].br().y) - ((int)faceArray[i].tl().y));
-            //roi(region Of Interest) is used to crop faces from image
-            Mat cropped_rgb = new Mat(mat_image, roi);
-
-            //convert cropped_rgb to bitmap
-            Bitmap bitmap = null;
-            bitmap=Bitmap.createBitmap(cropped_rgb.cols(), cropped_rgb.rows(), Bitmap.Config.ARGB_8888);
-            Utils.matToBitmap(cropped_rgb, bitmap);
-            //scale bitmap to model input size 96
-            Bitmap scaledBitmap = Bitmap.createScaledBitmap(bitmap, INPUT_SIZE, INPUT_SIZE, false);
-            
-            //convert scaledBitmap to byteBuffer
-            ByteBuffer byteBuffer = convertBitmapToByteBuffer(scaledBitmap);
-            //create output
-            float[][] face_value = new float[1][1];
-            interpreter.run(byteBuffer, face_value);
-            //ig=f you want to see face_value
-            Log.d("Face_Recognition", "Face_Recognition Output: "+ Array.get(Array.get(face_value, 0), 0));
-            
-            //read face value
-            float read_face = (float) Array.get(Array.get(face_value, 0), 0);
-            //invoke method whose input is read_face and output is name
-            String face_name = getFaceName(read_face);
-            //put text on frame
-            //        //input/output            text
-            Imgproc.putText(mat_image, ""+face_name,
-                    new Point((int)faceArray[i].tl().x+10, (int)faceArray[i].tl().y+20),
-                    1, 1.5, new Scalar(255,255,255.150), 2);
-                    //sizw                  color ( R, G, B, Alpha)         thickness
-        }
-
-
-        //before returning rotate it back by -90 degree
-        Core.flip(mat_image.t(), mat_image, 0);
+        start = System.nanoTime();
+        for (RecognizedFace face : faces){
+            //draw rectangle and name on frame, mapped to camera orientation
+            drawFace(mat_image, face);
+        }
+        metrics.recordStage(PipelineMetrics.Stage.ANNOTATE, start);
+        metrics.recordFrame(captured, faces.length);
 
         return mat_image;
     }
 
-    private String getFaceName(float read_face) {
-        String val = "";
-        if (read_face >=0 & read_face<0.5){
-            val ="Courtney Cox";
-        }
-        else if (read_face >=0.5 & read_face<1.5){
-            val ="Anord Schwarzeneggar";
-        }
-        else if (read_face >=1.5 & read_face<2.5){
-            val ="Bhuvan Bam";
-        }
-        else if (read_face >=2.5 & read_face<3.5){
-            val ="Hardik Pandya";
-        }
-        else if (read_face >=3.5 & read_face<4.5){
-            val ="David Schwimmer";
-        }
-        else if (read_face >=4.5 & read_face<5.5){
-            val ="Matt LeBlanc";
-        }
-        else if (read_face >=5.5 & read_face<6.5){
-            val ="Simon Helberg";
-        }
-        else if (read_face >=6.5 & read_face<7.5){
-            val ="Scarlett Johnson";
-        }
-        else if (read_face >=7.5 & read_face<8.5){
-            val ="Pankaj Tripathi";
-        }
-        else if (read_face >=8.5 & read_face<9.5){
-            val ="Mathew Perry";
-        }
-        else if (read_face >=9.5 & read_face<10.5){
-            val ="Sylvester Stallone";
-        }
-        else if (read_face >=10.5 & read_face<11.5){
-            val ="Messi";
-        }
-        else if (read_face >=11.5 & read_face<12.5){
-            val ="Jim Parsons";
-        }
-        else if (read_face >=12.5 & read_face<13.5){
-            val ="Not in Dataset";
-        }
-        else if (read_face >=13.5 & read_face<14.5){
-            val ="Lisa Kudrow";
-        }
-        else if (read_face >=14.5 & read_face<15.5){
-            val ="Mohamed Ali";
-        }
-        else if (read_face >=15.5 & read_face<16.5){
-            val ="Brad Pit";
-        }
-        else if (read_face >=16.5 & read_face<17.5){
-            val ="Ronaldo";
-        }
-        else if (read_face >=17.5 & read_face<18.5){
-            val ="Virat Kohli";
-        }
-        else if (read_face >=18.5 & read_face<19.5){
-            val ="Angelina Jolie";
-        }
-        else if (read_face >=19.5 & read_face<20.5){
-            val ="KunalNayya";
-        }
-        else if (read_face >=20.5 & read_face<21.5){
-            val ="Monaje Bajpayee";
-        }
-        else if (read_face >=21.5 & read_face<22.5){
-            val ="Sachin Tundulka";
+    //engine with the loaded model and cascade, null before warmUp finished
+    //FacePipeline runs its stages (locateFaces, preprocessFaces, identifyFaces) on worker threads
+    public RecognitionEngine getEngine(){
+        return engine;
+    }
+
+    //tracker used for detection, e.g. to change how often full detection runs
+    //null before warmUp finished
+    public FaceTracker getFaceTracker(){
+        RecognitionEngine engine = this.engine;
+        return engine != null ? engine.getFaceTracker() : null;
+    }
+
+    //change detection parameters, used by the next frame
+    public void setDetectionConfig(DetectionConfig config){
+        detectionConfig = config;
+        RecognitionEngine engine = this.engine;
+        if (engine != null){
+            engine.setDetectionConfig(config);
         }
-        else if (read_face >=22.5 & read_face<23.5){
-            val ="Jennifer Aniston";
+    }
+
+    public DetectionConfig getDetectionConfig(){
+        return detectionConfig;
+    }
+
+    //scan only around known faces and a rotating stripe on detection passes, see RoiScheduler
+    //null goes back to full frame scans
+    public void setRoiDetection(RoiScheduler scheduler){
+        roiScheduler = scheduler;
+        RecognitionEngine engine = this.engine;
+        if (engine != null){
+            engine.setRoiScheduler(scheduler);
         }
-        else if (read_face >=23.5 & read_face<24.5){
-            val ="Dhoni";
+    }
+
+    //keep every pipeline stage within millis per frame by adapting detection resolution and
+    //interval, faces classified per frame and interpreters used (see FrameGovernor), call before
+    //warmUp; 0 turns it off
+    public void setLatencyBudget(double millis){
+        latencyBudgetMillis = millis;
+    }
+
+    //null when no budget was set or before warmUp finished
+    public FrameGovernor getGovernor(){
+        return governor;
+    }
+
+    //scan the full frame on the next detection pass, e.g. when motion starts after a still period
+    public void requestFullScan(){
+        RecognitionEngine engine = this.engine;
+        if (engine != null){
+            engine.requestFullScan();
         }
-        else if (read_face >=24.5 & read_face<25.5){
-            val ="Pewdiepie";
+    }
+
+    //frames until a face entering the frame is detected at most
+    public int getNewFaceLatencyFrames(){
+        RecognitionEngine engine = this.engine;
+        return engine != null ? engine.getNewFaceLatencyFrames() : 0;
+    }
+
+    //free preprocessing Mats of the calling thread
+    void releaseThreadResources(){
+        //a thread that ran before warm-up finished has nothing to free
+        RecognitionEngine engine = this.engine;
+        if (engine != null){
+            engine.releaseThreadResources();
         }
-        else if (read_face >=25.5 & read_face<26.5){
-            val ="Aishwarya Rai";
+    }
+
+    //annotate stage: draw rectangle and name of one face on a camera frame
+    //face is in upright coordinates, called from one thread at a time
+    void drawFace(Mat mat_image, RecognizedFace face){
+        faceAnnotator.drawFace(mat_image, face, true);
+    }
+
+    //forget all tracked faces and their cached identities
+    public void resetTracking(){
+        RecognitionEngine engine = this.engine;
+        if (engine != null){
+            engine.reset();
         }
-        else if (read_face >=26.5 & read_face<27.5){
-            val ="Johnny Galeck";
+    }
+
+    //free native memory of the synchronous path, the interpreter and its delegates
+    //the pipeline has to be stopped before; a running warmUp is cancelled and frees what it
+    //loaded once its loaders stopped, no engine is built after this
+    public void release(){
+        synchronized (lifecycle){
+            if (released){
+                return;
+            }
+            released = true;
+            ready = false;
+            if (warmingUp){
+                loaders.shutdownNow();
+                return;
+            }
+            freeResources();
         }
-        else if (read_face >=27.5 & read_face<28.5){
-            val ="Rohit Sharma";
+    }
+
+    //everything warmUp loaded, any of it may be missing when warm-up failed or never ran
+    private void freeResources(){
+        ready = false;
+        metrics.setListener(null);
+        governor = null;
+        resetTracking();
+        if (frameContext != null){
+            frameContext.release();
+            frameContext = null;
+        }
+        faceAnnotator.release();
+        if (engine != null){
+            engine.close();
+        }
+        if (faceDetector != null){
+            faceDetector.close();
+            faceDetector = null;
+        }
+        if (detectorBackendManager != null){
+            detectorBackendManager.close();
+            detectorBackendManager = null;
+        }
+        if (interpreterPool != null){
+            //waits for running inferences, the interpreters may not be closed under them
+            interpreterPool.close();
+            interpreterPool = null;
+        }
+        if (backendManager != null){
+            backendManager.close();
+            backendManager = null;
         }
-        else if (read_face >=28.5 & read_face<29.5){
-            val ="Suresh Raina";
+    }
+
+    //backend the interpreter runs on, null before warmUp finished
+    public Backend getBackend(){
+        return ready ? backendManager.selectBackend() : null;
+    }
+
+    //switch to embedding mode: the model output ([1][D]) is matched against gallery
+    //faces less similar than minSimilarity to every enrolled person are unknown
+    //null switches back to reading the output as a label
+    public void setGallery(FaceGallery gallery, float minSimilarity){
+        minGallerySimilarity = minSimilarity;
+        faceGallery = gallery;
+        RecognitionEngine engine = this.engine;
+        if (engine != null){
+            engine.setGallery(gallery, minSimilarity);
         }
+    }
+
+    //embedding mode with a gallery kept in directory, enrollments survive restarts
+    //the caller closes the returned store when recognition stops
+    public GalleryStore openStoredGallery(File directory, float minSimilarity) throws IOException{
+        //the embedding size comes from the loaded model
+        checkReady();
+        int dimension = interpreter.getOutputTensor(0).shape()[1];
+        GalleryStore store = GalleryStore.open(directory, dimension, GALLERY_COMPACT_AFTER);
+        setGallery(store.gallery(), minSimilarity);
+        return store;
+    }
 
+    public FaceGallery getGallery(){
+        return faceGallery;
+    }
 
-        return val;
+    //embedding of one face of an upright rgba frame
+    public float[] embedFace(Mat upright, Rect face){
+        checkReady();
+        return engine.embedFace(upright, face);
+    }
+
+    //add a person to the gallery from one face, no retraining or redeploy needed
+    public int enrollFace(String name, Mat upright, Rect face){
+        checkReady();
+        return engine.enrollFace(name, upright, face);
+    }
 
+    //model and engine exist only between a finished warmUp and release
+    private void checkReady(){
+        if (!ready){
+            throw new IllegalStateException("call warmUp first");
+        }
     }
 
-    private ByteBuffer convertBitmapToByteBuffer(Bitmap scaledBitmap) {
+    public PipelineMetrics getMetrics(){
+        return metrics;
+    }
 
-        //Define ByteBuffer
-        ByteBuffer byteBuffer;
-        //define input size
-        int input_size=INPUT_SIZE;
+    //values the pipeline does not record itself, sampled when the metrics are shown or dumped
+    //native heap is outside the Java heap limits, OpenCV Mats and the interpreter live there
+    public void sampleMetrics(){
+        metrics.recordNativeMemory(Debug.getNativeHeapAllocatedSize());
+        metrics.recordNewFaceLatencyBound(getNewFaceLatencyFrames());
+    }
 
-        //Multiply by 4 if input of model is float
-        //Multiply by 3 if input is RGB
-        byteBuffer = ByteBuffer.allocateDirect(4*1*input_size*input_size*3);
-        byteBuffer.order(ByteOrder.nativeOrder());
-        int[] intValue = new int[input_size*input_size];
-        scaledBitmap.getPixels(intValue, 0, scaledBitmap.getWidth(), 0, 0, scaledBitmap.getWidth(), scaledBitmap.getHeight());
-        int pixels = 0;
-        for (int i=0; i<input_size; i++){
-            for (int j=0; j<input_size; j++){
-                //each pixel value
-                final int val = intValue[pixels++];
-                //put this pixel value in bytebuffer
-                //VERY IMPORTANT AS IT IS PLACING RGB TO MSB TO LSB
-                byteBuffer.putFloat((((val>>16)&0xFF))/255.0f);
-                byteBuffer.putFloat((((val>>8)&0xFF))/255.0f);
-                byteBuffer.putFloat(((val & 0xFF))/255.0f);
-                //scaling pixels from 0-255 to 0-1
+    //write the full metrics report to file, called on demand
+    public void dumpMetrics(File file) throws IOException{
+        sampleMetrics();
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write("backend " + getBackend() + "\n");
+            metrics.writeTo(writer);
+            FrameGovernor governor = this.governor;
+            if (governor != null){
+                governor.writeTo(writer);
             }
+        } finally {
+            writer.close();
         }
-        return byteBuffer;
+    }
 
+    public LabelTable getLabelTable() {
+        return labelTable;
+    }
+
+    //labels from the model metadata, else from the side-car file in assets,
+    //else the index itself so a new model still runs before its labels are added
+    private LabelTable loadLabels(AssetManager assetManager, MappedByteBuffer model) {
+        String[] labels = readMetadataLabels(model);
+        if (labels == null) {
+            try {
+                labels = LabelTable.readLabels(assetManager.open(LABELS_PATH));
+            }
+            catch (IOException e) {
+                Log.d("Face_Recognition", "Face_Recognition: no labels found, showing label index");
+                int count = interpreter.getOutputTensor(0).shape()[1];
+                labels = new String[count > 1 ? count : 0];
+                for (int i = 0; i < labels.length; i++) {
+                    labels[i] = String.valueOf(i);
+                }
+            }
+        }
+        Log.d("Face_Recognition", "Face_Recognition: " + labels.length + " labels loaded");
+        return new LabelTable(labels, UNKNOWN_NAME, 0.5f, 0.5f);
+    }
+
+    //labels packed in the .tflite file as a label file of the first output tensor
+    //returns null when the model has no such metadata
+    private static String[] readMetadataLabels(ByteBuffer model) {
+        try {
+            MetadataExtractor extractor = new MetadataExtractor(model);
+            if (!extractor.hasMetadata()) {
+                return null;
+            }
+            TensorMetadata output = extractor.getOutputTensorMetadata(0);
+            for (int i = 0; i < output.associatedFilesLength(); i++) {
+                AssociatedFile file = output.associatedFiles(i);
+                if (file.type() == AssociatedFileType.TENSOR_AXIS_LABELS
+                        || file.type() == AssociatedFileType.TENSOR_VALUE_LABELS) {
+                    return LabelTable.readLabels(extractor.getAssociatedFile(file.name()));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            //no usable metadata, caller falls back to a side-car file
+        }
+        return null;
     }
 
     //this function will load model
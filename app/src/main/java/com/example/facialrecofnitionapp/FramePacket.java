@@ -0,0 +1,25 @@
+package com.example.facialrecofnitionapp;
+
+//one camera frame moving through the stages of FacePipeline
+//each stage fills in its part and hands the packet to the next stage
+class FramePacket {
+    //sequence number given at capture
+    final long frameId;
+    //System.nanoTime when the camera handed the frame over, for end to end latency
+    final long captureNanos;
+    //pooled Mats of this frame, given back to the pool once faces are cropped
+    FrameContext context;
+    //faces and their track ids, filled by detect stage
+    FaceDetections detections = FaceDetections.empty();
+    //filled by preprocess stage, one model input per face
+    //null for faces whose cached identity is reused
+    FaceInput[] inputs = new FaceInput[0];
+    //crop hash of each face, filled by preprocess stage
+    long[] hashes = new long[0];
+
+    FramePacket(long frameId, long captureNanos, FrameContext context) {
+        this.frameId = frameId;
+        this.captureNanos = captureNanos;
+        this.context = context;
+    }
+}
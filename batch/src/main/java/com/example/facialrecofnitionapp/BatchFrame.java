@@ -0,0 +1,45 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Mat;
+
+//one recorded frame moving through BatchPipeline
+//instances and their Mats are pooled, so a long video does not allocate a Mat per frame
+class BatchFrame {
+    //position in the input, counted from 0
+    long index;
+    //presentation time of a video frame, or 0 for images
+    double timestampMillis;
+    //file the frame was read from
+    String source;
+    //decoded pixels, filled by the FrameSource
+    final Mat rgba = new Mat();
+    //Mats of the detect stage, sized from rgba
+    FrameContext context;
+    FaceDetections detections = FaceDetections.empty();
+    FaceInput[] inputs = new FaceInput[0];
+    long[] hashes = new long[0];
+    //filled by the infer stage
+    RecognizedFace[] faces = new RecognizedFace[0];
+    //System.nanoTime when decoding finished
+    long decodedNanos;
+
+    //detect stage Mats for the size of rgba
+    FrameContext context() {
+        //decoded frames are upright already
+        if (context == null || !context.fits(rgba.cols(), rgba.rows(), false)) {
+            if (context != null) {
+                context.release();
+            }
+            context = new FrameContext(rgba.cols(), rgba.rows(), false);
+        }
+        return context;
+    }
+
+    void release() {
+        rgba.release();
+        if (context != null) {
+            context.release();
+            context = null;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.facialrecofnitionapp;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+//runs recorded frames through RecognitionEngine as fast as the machine allows
+//decode -> detect/preprocess -> infer -> write, one thread per stage, the model itself can
+//spread a frame's faces over more cores (InterpreterPool of DnnModels)
+//
+//unlike the live FacePipeline nothing is dropped: stages are connected with bounded queues
+//and a frame only leaves the free pool when the slowest stage took the previous one, so a
+//fast decoder waits instead of filling memory; frames are written in input order
+public class BatchPipeline {
+    //frames in flight, one per stage plus one waiting in front of each
+    private static final int FRAMES = 6;
+
+    private final RecognitionEngine engine;
+    private final PipelineMetrics metrics;
+
+    private final BlockingQueue<BatchFrame> free = new ArrayBlockingQueue<>(FRAMES);
+    private final BlockingQueue<BatchFrame> decoded = new ArrayBlockingQueue<>(FRAMES);
+    private final BlockingQueue<BatchFrame> detected = new ArrayBlockingQueue<>(FRAMES);
+    private final BlockingQueue<BatchFrame> identified = new ArrayBlockingQueue<>(FRAMES);
+    //every frame of the pool, released at the end whichever queue or stage it was left in
+    private final BatchFrame[] frames = new BatchFrame[FRAMES];
+    //marks the end of the input in the queues
+    private final BatchFrame end = new BatchFrame();
+
+    private final Thread[] threads = new Thread[4];
+    //first exception of any stage, the others are interrupted when it is set
+    private volatile Exception failure;
+
+    public BatchPipeline(RecognitionEngine engine, PipelineMetrics metrics) {
+        this.engine = engine;
+        this.metrics = metrics;
+    }
+
+    //process every frame of source, returns the number of frames written
+    public long run(final FrameSource source, final ResultWriter writer) throws IOException {
+        for (int i = 0; i < FRAMES; i++) {
+            frames[i] = new BatchFrame();
+            free.add(frames[i]);
+        }
+        final long[] written = new long[1];
+        threads[0] = newStage("Batch-decode", new Stage() {
+            @Override
+            public void run() throws Exception {
+                decode(source);
+            }
+        });
+        threads[1] = newStage("Batch-detect", new Stage() {
+            @Override
+            public void run() throws Exception {
+                try {
+                    detect();
+                } finally {
+                    engine.releaseThreadResources();
+                }
+            }
+        });
+        threads[2] = newStage("Batch-infer", new Stage() {
+            @Override
+            public void run() throws Exception {
+                infer();
+            }
+        });
+        threads[3] = newStage("Batch-write", new Stage() {
+            @Override
+            public void run() throws Exception {
+                written[0] = write(writer);
+            }
+        });
+        //all threads exist before any starts, so a failing stage can interrupt every other one
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    //caller gave up, stop the stages and still wait for them to free their Mats
+                    interrupted = true;
+                    fail(e);
+                }
+            }
+        }
+        releaseFrames();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure != null) {
+            throw new IOException("batch recognition failed", failure);
+        }
+        return written[0];
+    }
+
+    private void decode(FrameSource source) throws Exception {
+        while (true) {
+            BatchFrame frame = free.take();
+            if (!source.next(frame)) {
+                free.put(frame);
+                decoded.put(end);
+                return;
+            }
+            frame.decodedNanos = System.nanoTime();
+            decoded.put(frame);
+        }
+    }
+
+    private void detect() throws Exception {
+        while (true) {
+            BatchFrame frame = decoded.take();
+            if (frame == end) {
+                detected.put(end);
+                return;
+            }
+            long start = System.nanoTime();
+            FrameContext context = frame.context();
+            //rgba stays with the frame until the faces are cropped, only gray is converted
+            context.wrap(frame.rgba, null);
+            frame.detections = engine.locateFaces(context);
+            metrics.recordStage(PipelineMetrics.Stage.DETECT, start);
+            start = System.nanoTime();
+            frame.hashes = new long[frame.detections.faces.length];
+            frame.inputs = engine.preprocessFaces(context, frame.detections, frame.index + 1,
+                    frame.hashes);
+            metrics.recordStage(PipelineMetrics.Stage.PREPROCESS, start);
+            detected.put(frame);
+        }
+    }
+
+    private void infer() throws Exception {
+        while (true) {
+            BatchFrame frame = detected.take();
+            if (frame == end) {
+                identified.put(end);
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                frame.faces = engine.identifyFaces(frame.index + 1, frame.detections, frame.inputs, frame.hashes);
+            } finally {
+                engine.recycleInputs(frame.inputs);
+                frame.inputs = new FaceInput[0];
+            }
+            metrics.recordStage(PipelineMetrics.Stage.INFER, start);
+            identified.put(frame);
+        }
+    }
+
+    private long write(ResultWriter writer) throws Exception {
+        long count = 0;
+        while (true) {
+            BatchFrame frame = identified.take();
+            if (frame == end) {
+                return count;
+            }
+            //writing the record is what annotating the preview is in the live pipeline
+            long start = System.nanoTime();
+            writer.write(frame);
+            metrics.recordStage(PipelineMetrics.Stage.ANNOTATE, start);
+            metrics.recordFrame(frame.decodedNanos, frame.faces.length);
+            count++;
+            free.put(frame);
+        }
+    }
+
+    //every stage has stopped, frames may still sit in a queue or where a failed stage left them
+    private void releaseFrames() {
+        free.clear();
+        decoded.clear();
+        detected.clear();
+        identified.clear();
+        for (BatchFrame frame : frames) {
+            if (frame.inputs.length > 0) {
+                engine.recycleInputs(frame.inputs);
+                frame.inputs = new FaceInput[0];
+            }
+            frame.release();
+        }
+    }
+
+    private synchronized void fail(Exception e) {
+        if (failure == null) {
+            failure = e;
+            for (Thread thread : threads) {
+                if (thread != null) {
+                    thread.interrupt();
+                }
+            }
+        }
+    }
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    private Thread newStage(String name, final Stage stage) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    stage.run();
+                } catch (InterruptedException e) {
+                    //another stage failed
+                } catch (Exception e) {
+                    fail(e);
+                }
+            }
+        }, name);
+        return thread;
+    }
+}
@@ -0,0 +1,303 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+//headless recognition of a video file or an image directory, e.g. to re-index archives overnight
+//  --input <video|dir>     required, a directory is read as images in file name order
+//  --model <graph.pb>      required, the recognition model as a frozen TensorFlow graph
+//  --labels <labels.txt>   required, one name per model output
+//  --output <file>         results, stdout when missing
+//  --format jsonl|binary   default jsonl, binary for an output ending in .bin
+//  --input-size <n>        model input size, default 96
+//  --cascade <xml>         face cascade, default the one shipped with the app
+//  --detector haar|ssd     detection backend, default haar
+//  --ssd <dir>             directory with deploy.prototxt and the res10 caffemodel, for --detector ssd
+//  --detector-size <n>     SSD input resolution, default 300
+//  --instances <n>         model instances for the faces of a frame, default from the cores
+//  --detect-every <n>      full detection every n video frames, tracked in between (default tracker)
+//several inputs at once share one model, detector set and label table (RecognitionService):
+//  --streams <a,b,...>     comma separated videos or directories, one stream each, instead of --input
+//  --workers <n>           recognition threads with a detector each, default half the cores
+//  --paced yes|no          play inputs at their frame rate like cameras (dropping when behind), default no
+//a summary with stage latencies goes to stderr, per stream with --streams, the exit code is 1 when
+//anything failed
+public final class BatchRecognition {
+    private static final String DEFAULT_CASCADE = "app/src/main/res/raw/haarcascade_frontalface_alt.xml";
+    private static final String UNKNOWN_NAME = "Unknown";
+
+    private BatchRecognition() {
+    }
+
+    public static void main(String[] args) {
+        try {
+            run(parse(args));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println("batch recognition failed: " + e);
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    static void run(Map<String, String> options) throws IOException {
+        if (options.containsKey("streams")) {
+            runStreams(options);
+            return;
+        }
+        File input = new File(required(options, "input"));
+        File modelFile = new File(required(options, "model"));
+        File labelsFile = new File(required(options, "labels"));
+        String output = options.get("output");
+        String format = options.containsKey("format") ? options.get("format")
+                : output != null && output.endsWith(".bin") ? "binary" : "jsonl";
+        int inputSize = Integer.parseInt(value(options, "input-size", "96"));
+        File cascadeFile = cascadeFile(options);
+        int cores = Runtime.getRuntime().availableProcessors();
+        //decode, detect and write take a core each
+        int instances = Integer.parseInt(value(options, "instances",
+                Integer.toString(Math.max(1, Math.min(InterpreterPool.MAX_INSTANCES, cores - 3)))));
+
+        nu.pattern.OpenCV.loadLocally();
+        FaceDetector detector = newDetector(options, cascadeFile);
+        String[] labels = LabelTable.readLabels(new FileInputStream(labelsFile));
+        List<DnnModel> models = new ArrayList<>();
+        for (int i = 0; i < instances; i++) {
+            models.add(new DnnModel(modelFile, inputSize));
+        }
+        InterpreterPool pool = new InterpreterPool(models);
+        RecognitionEngine engine = new RecognitionEngine(detector, pool, TensorFormat.FLOAT32, inputSize,
+                new LabelTable(labels, UNKNOWN_NAME, 0.5f, 0.5f), UNKNOWN_NAME);
+        FrameSource source = input.isDirectory() ? new ImageDirectorySource(input) : new VideoFrameSource(input);
+        if (!source.isContinuous()) {
+            //unrelated images, no face or identity may carry over to the next one
+            engine.setIndependentFrames(true);
+        } else if (options.containsKey("detect-every")) {
+            engine.getFaceTracker().setDetectionInterval(Integer.parseInt(options.get("detect-every")));
+        }
+
+        PipelineMetrics metrics = new PipelineMetrics();
+        OutputStream stream = output != null ? new FileOutputStream(output) : System.out;
+        ResultWriter writer = "binary".equals(format) ? new BinaryResultWriter(stream)
+                : new JsonlResultWriter(stream);
+        long start = System.nanoTime();
+        long frames;
+        try {
+            frames = new BatchPipeline(engine, metrics).run(source, writer);
+        } finally {
+            writer.close();
+            source.close();
+            engine.close();
+            detector.close();
+            pool.close();
+            for (DnnModel model : models) {
+                model.release();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Writer summary = new OutputStreamWriter(System.err, "UTF-8");
+        summary.write(String.format(Locale.US, "%d frames of %s in %.1f s (%.1f fps), %d model instances%n%n",
+                frames, input.getName(), seconds, frames / seconds, instances));
+        metrics.writeTo(summary);
+        summary.flush();
+    }
+
+    //every input of --streams as a stream of one RecognitionService, results of all streams go to
+    //one output in the order they finish, the source field (file name) tells them apart
+    static void runStreams(Map<String, String> options) throws IOException {
+        String[] inputs = options.get("streams").split(",");
+        File modelFile = new File(required(options, "model"));
+        File labelsFile = new File(required(options, "labels"));
+        String output = options.get("output");
+        String format = options.containsKey("format") ? options.get("format")
+                : output != null && output.endsWith(".bin") ? "binary" : "jsonl";
+        int inputSize = Integer.parseInt(value(options, "input-size", "96"));
+        File cascadeFile = cascadeFile(options);
+        int cores = Runtime.getRuntime().availableProcessors();
+        int workers = Integer.parseInt(value(options, "workers",
+                Integer.toString(Math.max(1, Math.min(inputs.length, cores / 2)))));
+        //a decoder per stream and the workers take their cores first
+        int instances = Integer.parseInt(value(options, "instances",
+                Integer.toString(Math.max(1, Math.min(InterpreterPool.MAX_INSTANCES, cores - workers - 1)))));
+        boolean paced = "yes".equals(value(options, "paced", "no"));
+
+        nu.pattern.OpenCV.loadLocally();
+        String[] labels = LabelTable.readLabels(new FileInputStream(labelsFile));
+        List<FaceDetector> detectors = new ArrayList<>();
+        List<DnnModel> models = new ArrayList<>();
+        List<FrameSource> sources = new ArrayList<>();
+        InterpreterPool pool = null;
+        RecognitionService service = null;
+        OutputStream stream = output != null ? new FileOutputStream(output) : System.out;
+        final ResultWriter writer = "binary".equals(format) ? new BinaryResultWriter(stream)
+                : new JsonlResultWriter(stream);
+        final IOException[] writeFailure = new IOException[1];
+        //first stream that failed, the other streams still run to the end
+        final IOException[] streamFailure = new IOException[1];
+        long start = System.nanoTime();
+        long frames = 0;
+        try {
+            for (int i = 0; i < workers; i++) {
+                detectors.add(newDetector(options, cascadeFile));
+            }
+            for (int i = 0; i < instances; i++) {
+                models.add(new DnnModel(modelFile, inputSize));
+            }
+            pool = new InterpreterPool(models);
+            service = new RecognitionService(detectors, pool, TensorFormat.FLOAT32, inputSize,
+                    new LabelTable(labels, UNKNOWN_NAME, 0.5f, 0.5f), UNKNOWN_NAME);
+            final FileStreamSource[] players = new FileStreamSource[inputs.length];
+            //one record per result, reused under the writer's lock
+            final BatchFrame record = new BatchFrame();
+            for (int i = 0; i < inputs.length; i++) {
+                File input = new File(inputs[i]);
+                FrameSource source = input.isDirectory() ? new ImageDirectorySource(input)
+                        : new VideoFrameSource(input);
+                sources.add(source);
+                final int player = i;
+                RecognitionService.Stream recognition = service.openStream(input.getName(), false, 4,
+                        new RecognitionService.Listener() {
+                            @Override
+                            public void recognized(RecognitionService.Stream stream, long index,
+                                                   RecognizedFace[] faces) {
+                                FileStreamSource.Origin origin = players[player].origin(index);
+                                synchronized (record) {
+                                    //the same fields the single input mode writes, per file for image directories
+                                    record.index = origin.index;
+                                    record.source = origin.source;
+                                    record.timestampMillis = origin.timestampMillis;
+                                    record.faces = faces;
+                                    try {
+                                        writer.write(record);
+                                    } catch (IOException e) {
+                                        if (writeFailure[0] == null) {
+                                            writeFailure[0] = e;
+                                        }
+                                    }
+                                }
+                            }
+
+                            @Override
+                            public void failed(RecognitionService.Stream stream, RuntimeException e) {
+                                System.err.println("stream " + stream.name + " failed: " + e);
+                                synchronized (streamFailure) {
+                                    if (streamFailure[0] == null) {
+                                        streamFailure[0] = new IOException("stream " + stream.name + " failed", e);
+                                    }
+                                }
+                            }
+                        });
+                if (!source.isContinuous()) {
+                    recognition.getEngine().setIndependentFrames(true);
+                } else if (options.containsKey("detect-every")) {
+                    recognition.getEngine().getFaceTracker().setDetectionInterval(
+                            Integer.parseInt(options.get("detect-every")));
+                }
+                players[i] = new FileStreamSource(source, recognition, paced);
+            }
+            service.start();
+            for (FileStreamSource player : players) {
+                player.start();
+            }
+            for (FileStreamSource player : players) {
+                frames += player.join();
+            }
+            //every frame is submitted, wait until the last ones are through
+            for (RecognitionService.Stream recognition : service.getStreams()) {
+                recognition.awaitIdle();
+            }
+            Writer summary = new OutputStreamWriter(System.err, "UTF-8");
+            double seconds = (System.nanoTime() - start) / 1e9;
+            summary.write(String.format(Locale.US, "%d frames of %d streams in %.1f s (%.1f fps), %d workers, "
+                    + "%d model instances%n%n", frames, inputs.length, seconds, frames / seconds, workers, instances));
+            service.writeTo(summary);
+            summary.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } finally {
+            if (service != null) {
+                service.close();
+            }
+            writer.close();
+            for (FrameSource source : sources) {
+                source.close();
+            }
+            for (FaceDetector detector : detectors) {
+                detector.close();
+            }
+            if (pool != null) {
+                pool.close();
+            }
+            for (DnnModel model : models) {
+                model.release();
+            }
+        }
+        if (writeFailure[0] != null) {
+            throw writeFailure[0];
+        }
+        synchronized (streamFailure) {
+            if (streamFailure[0] != null) {
+                throw streamFailure[0];
+            }
+        }
+    }
+
+    private static File cascadeFile(Map<String, String> options) {
+        return new File(value(options, "cascade", DEFAULT_CASCADE));
+    }
+
+    private static FaceDetector newDetector(Map<String, String> options, File cascadeFile) throws IOException {
+        if ("ssd".equals(value(options, "detector", "haar"))) {
+            File models = new File(required(options, "ssd"));
+            return DnnFaceDetector.caffe(new File(models, "deploy.prototxt"),
+                    new File(models, "res10_300x300_ssd_iter_140000.caffemodel"),
+                    Integer.parseInt(value(options, "detector-size", "300")), 0.5f);
+        }
+        CascadeClassifier cascade = new CascadeClassifier(cascadeFile.getAbsolutePath());
+        if (cascade.empty()) {
+            throw new IOException("cannot load cascade " + cascadeFile);
+        }
+        return new HaarFaceDetector(cascade);
+    }
+
+    //"--name value" pairs
+    static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("expected --name value pairs, got " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static String required(Map<String, String> options, String name) {
+        String value = options.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("missing --" + name
+                    + ", usage: --input <video|dir> --model <graph.pb> --labels <labels.txt> [--output <file>]");
+        }
+        return value;
+    }
+
+    private static String value(Map<String, String> options, String name, String fallback) {
+        String value = options.get(name);
+        return value != null ? value : fallback;
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Rect;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+//compact big-endian record stream, a fraction of the JSONL size on busy footage
+//  header  "FRB1"
+//  'S' int id, UTF string        defines a string (source file or face name) the first time it is used
+//  'F' long frame, double ms, int source id, short faces, then per face:
+//      int track, int x, int y, int w, int h, int name id, float score
+//names and sources are written once and referenced by id afterwards
+public class BinaryResultWriter implements ResultWriter {
+    static final byte[] MAGIC = {'F', 'R', 'B', '1'};
+    static final byte STRING = 'S';
+    static final byte FRAME = 'F';
+
+    private final DataOutputStream output;
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    public BinaryResultWriter(OutputStream output) throws IOException {
+        this.output = new DataOutputStream(new BufferedOutputStream(output, 1 << 16));
+        this.output.write(MAGIC);
+    }
+
+    @Override
+    public void write(BatchFrame frame) throws IOException {
+        //strings first, a reader always knows an id before it is used
+        int source = idOf(frame.source);
+        for (RecognizedFace face : frame.faces) {
+            idOf(face.name);
+        }
+        output.writeByte(FRAME);
+        output.writeLong(frame.index);
+        output.writeDouble(frame.timestampMillis);
+        output.writeInt(source);
+        output.writeShort(frame.faces.length);
+        for (RecognizedFace face : frame.faces) {
+            Rect rect = face.rect;
+            output.writeInt(face.trackId);
+            output.writeInt(rect.x);
+            output.writeInt(rect.y);
+            output.writeInt(rect.width);
+            output.writeInt(rect.height);
+            output.writeInt(idOf(face.name));
+            output.writeFloat(face.score);
+        }
+    }
+
+    private int idOf(String value) throws IOException {
+        String key = value == null ? "" : value;
+        Integer id = strings.get(key);
+        if (id == null) {
+            id = strings.size();
+            strings.put(key, id);
+            output.writeByte(STRING);
+            output.writeInt(id);
+            output.writeUTF(key);
+        }
+        return id;
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+}
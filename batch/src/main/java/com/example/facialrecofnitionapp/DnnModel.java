@@ -0,0 +1,79 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.dnn.Dnn;
+import org.opencv.dnn.Net;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+//recognition model on OpenCV's dnn module, for machines without the Android interpreter
+//TFLite has no desktop Java build, so the batch tool runs the same network exported as a
+//frozen TensorFlow graph (.pb); input is the float RGB 0-1 face written by FacePreprocessor
+//a Net is not thread safe, give every thread of an InterpreterPool its own instance
+public class DnnModel implements FaceModel {
+    private final Net net;
+    private final int inputSize;
+    private final Size inputDims;
+    private final Scalar noMean = new Scalar(0, 0, 0);
+    //one HWC face per batch entry, grown to the largest batch seen
+    private final List<Mat> faces = new ArrayList<>();
+    private final float[] pixels;
+
+    public DnnModel(File graph, int inputSize) throws IOException {
+        if (!graph.isFile()) {
+            throw new IOException("no model at " + graph);
+        }
+        net = Dnn.readNetFromTensorflow(graph.getPath());
+        if (net.empty()) {
+            throw new IOException("cannot read " + graph + " as a TensorFlow graph");
+        }
+        this.inputSize = inputSize;
+        this.inputDims = new Size(inputSize, inputSize);
+        pixels = new float[inputSize * inputSize * 3];
+    }
+
+    @Override
+    public float[][] run(FaceInput[] inputs) {
+        while (faces.size() < inputs.length) {
+            faces.add(new Mat(inputSize, inputSize, CvType.CV_32FC3));
+        }
+        List<Mat> batch = faces.subList(0, inputs.length);
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i].floats.position(0);
+            inputs[i].floats.get(pixels);
+            batch.get(i).put(0, 0, pixels);
+        }
+        //NHWC faces to the NCHW blob the importer expects, values are already scaled
+        Mat packed = Dnn.blobFromImages(batch, 1.0, inputDims, noMean, false, false);
+        try {
+            net.setInput(packed);
+            Mat output = net.forward();
+            try {
+                //[N][D], flattened when the graph ends in more dimensions
+                Mat rows = output.reshape(1, inputs.length);
+                float[][] results = new float[inputs.length][rows.cols()];
+                for (int i = 0; i < inputs.length; i++) {
+                    rows.get(i, 0, results[i]);
+                }
+                return results;
+            } finally {
+                output.release();
+            }
+        } finally {
+            packed.release();
+        }
+    }
+
+    public void release() {
+        for (Mat face : faces) {
+            face.release();
+        }
+        faces.clear();
+    }
+}
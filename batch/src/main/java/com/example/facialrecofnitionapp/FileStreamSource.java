@@ -0,0 +1,120 @@
+package com.example.facialrecofnitionapp;
+
+import java.io.IOException;
+import java.util.TreeMap;
+
+//plays a recorded file into a RecognitionService stream, standing in for a camera in headless
+//runs and tests; decodes on its own thread
+//- paced: frames are offered at the pace of their timestamps (40 ms apart for images), so a
+//  service that falls behind drops frames the way it would for a live camera
+//- unpaced: frames are put as fast as they decode and the decoder waits for room, nothing is lost
+//file name, position and timestamp of every frame are kept until its result, see origin
+public class FileStreamSource {
+    //where a frame of the stream came from
+    public static final class Origin {
+        //position in the input, counted from 0
+        public final long index;
+        //file the frame was read from
+        public final String source;
+        //presentation time of a video frame, or 0 for images
+        public final double timestampMillis;
+
+        Origin(long index, String source, double timestampMillis) {
+            this.index = index;
+            this.source = source;
+            this.timestampMillis = timestampMillis;
+        }
+    }
+
+    //pace of sources without timestamps
+    static final double IMAGE_INTERVAL_MILLIS = 40;
+
+    private final FrameSource source;
+    private final RecognitionService.Stream stream;
+    private final boolean paced;
+    private final Thread thread;
+    //decode buffer, copied into the stream on submit
+    private final BatchFrame frame = new BatchFrame();
+    //origins of submitted frames that have no result yet, by stream frame index
+    private final TreeMap<Long, Origin> origins = new TreeMap<>();
+    private volatile Exception failure;
+    private long submitted = 0;
+
+    public FileStreamSource(FrameSource source, RecognitionService.Stream stream, boolean paced) {
+        this.source = source;
+        this.stream = stream;
+        this.paced = paced;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    play();
+                } catch (InterruptedException e) {
+                    //stopped
+                } catch (Exception e) {
+                    failure = e;
+                } finally {
+                    frame.release();
+                }
+            }
+        }, "FileStream-" + stream.name);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    //wait until the whole file was submitted, returns the number of frames submitted
+    public long join() throws IOException, InterruptedException {
+        thread.join();
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure != null) {
+            throw new IOException("stream " + stream.name + " failed", failure);
+        }
+        return submitted;
+    }
+
+    //stop decoding, the stream stays open
+    public void stop() {
+        thread.interrupt();
+    }
+
+    //origin of the stream's frame index, called once per result; frames dropped before it are forgotten
+    //null for an index this source did not submit
+    public Origin origin(long index) {
+        synchronized (origins) {
+            origins.headMap(index).clear();
+            return origins.remove(index);
+        }
+    }
+
+    private void play() throws Exception {
+        long startNanos = System.nanoTime();
+        double firstMillis = -1;
+        while (source.next(frame)) {
+            if (paced) {
+                double millis = source.isContinuous() ? frame.timestampMillis : frame.index * IMAGE_INTERVAL_MILLIS;
+                if (firstMillis < 0) {
+                    firstMillis = millis;
+                }
+                long dueNanos = startNanos + (long) ((millis - firstMillis) * 1e6);
+                long waitNanos = dueNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+                }
+            }
+            //only this thread submits to the stream, so the frame gets the next stream index
+            synchronized (origins) {
+                origins.put(submitted, new Origin(frame.index, frame.source, frame.timestampMillis));
+            }
+            boolean accepted = paced ? stream.offer(frame.rgba, null) : stream.put(frame.rgba, null);
+            if (!accepted) {
+                //stream closed
+                return;
+            }
+            submitted++;
+        }
+    }
+}
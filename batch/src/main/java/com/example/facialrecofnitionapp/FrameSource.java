@@ -0,0 +1,14 @@
+package com.example.facialrecofnitionapp;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+//recorded frames for BatchRecognition, read one after the other on the decode thread
+public interface FrameSource extends Closeable {
+    //decode the next frame into frame (rgba, upright, reallocated by the source when the size
+    //differs) and fill in where it came from, false at the end of the input
+    boolean next(BatchFrame frame) throws IOException;
+
+    //frames of a source belong to one scene, so faces can be tracked from frame to frame
+    boolean isContinuous();
+}
@@ -0,0 +1,79 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+//images of a directory in file name order, files OpenCV cannot decode are skipped
+public class ImageDirectorySource implements FrameSource {
+    private static final String[] EXTENSIONS = {".jpg", ".jpeg", ".png", ".bmp", ".webp", ".tif", ".tiff"};
+
+    private final File[] files;
+    private int next = 0;
+    private long index = 0;
+
+    public ImageDirectorySource(File directory) throws IOException {
+        File[] found = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && isImage(file.getName());
+            }
+        });
+        if (found == null) {
+            throw new IOException("cannot list " + directory);
+        }
+        Arrays.sort(found);
+        files = found;
+    }
+
+    static boolean isImage(String name) {
+        String lower = name.toLowerCase(Locale.US);
+        for (String extension : EXTENSIONS) {
+            if (lower.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return files.length;
+    }
+
+    @Override
+    public boolean next(BatchFrame frame) {
+        while (next < files.length) {
+            File file = files[next++];
+            //imread has no variant that decodes into an existing Mat
+            Mat image = Imgcodecs.imread(file.getPath(), Imgcodecs.IMREAD_COLOR);
+            try {
+                if (image.empty()) {
+                    continue;
+                }
+                Imgproc.cvtColor(image, frame.rgba, Imgproc.COLOR_BGR2RGBA);
+            } finally {
+                image.release();
+            }
+            frame.index = index++;
+            frame.timestampMillis = 0;
+            frame.source = file.getName();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isContinuous() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+    }
+}
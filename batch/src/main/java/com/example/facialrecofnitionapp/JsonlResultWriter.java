@@ -0,0 +1,72 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Rect;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+//one JSON object per line and frame:
+//{"frame":12,"source":"clip.mp4","ms":400.0,"faces":[{"track":3,"x":10,"y":20,"w":64,"h":64,"name":"Bob","score":0.93}]}
+//rects are in the coordinates of the upright input frame
+public class JsonlResultWriter implements ResultWriter {
+    private final Writer writer;
+    //reused for every line
+    private final StringBuilder line = new StringBuilder(256);
+
+    public JsonlResultWriter(OutputStream output) throws IOException {
+        writer = new OutputStreamWriter(output, "UTF-8");
+    }
+
+    @Override
+    public void write(BatchFrame frame) throws IOException {
+        line.setLength(0);
+        line.append("{\"frame\":").append(frame.index);
+        line.append(",\"source\":");
+        appendString(frame.source);
+        line.append(",\"ms\":").append(String.format(Locale.US, "%.1f", frame.timestampMillis));
+        line.append(",\"faces\":[");
+        for (int i = 0; i < frame.faces.length; i++) {
+            RecognizedFace face = frame.faces[i];
+            Rect rect = face.rect;
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append("{\"track\":").append(face.trackId);
+            line.append(",\"x\":").append(rect.x).append(",\"y\":").append(rect.y);
+            line.append(",\"w\":").append(rect.width).append(",\"h\":").append(rect.height);
+            line.append(",\"name\":");
+            appendString(face.name);
+            line.append(",\"score\":").append(Float.isNaN(face.score) ? "null" : Float.toString(face.score));
+            line.append('}');
+        }
+        line.append("]}\n");
+        writer.append(line);
+    }
+
+    private void appendString(String value) {
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
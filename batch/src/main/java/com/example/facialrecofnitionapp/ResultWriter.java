@@ -0,0 +1,9 @@
+package com.example.facialrecofnitionapp;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+//streams the results of BatchRecognition, one record per frame in input order
+public interface ResultWriter extends Closeable {
+    void write(BatchFrame frame) throws IOException;
+}
@@ -0,0 +1,49 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+import java.io.File;
+import java.io.IOException;
+
+//frames of a video file, decoded by OpenCV's videoio backend (FFmpeg on Linux)
+public class VideoFrameSource implements FrameSource {
+    private final VideoCapture capture;
+    private final String name;
+    //decoder output is BGR, converted to rgba per frame
+    private final Mat bgr = new Mat();
+    private long index = 0;
+
+    public VideoFrameSource(File file) throws IOException {
+        capture = new VideoCapture(file.getPath());
+        if (!capture.isOpened()) {
+            throw new IOException("cannot open video " + file);
+        }
+        name = file.getName();
+    }
+
+    @Override
+    public boolean next(BatchFrame frame) {
+        if (!capture.read(bgr) || bgr.empty()) {
+            return false;
+        }
+        Imgproc.cvtColor(bgr, frame.rgba, Imgproc.COLOR_BGR2RGBA);
+        frame.index = index++;
+        frame.timestampMillis = capture.get(Videoio.CAP_PROP_POS_MSEC);
+        frame.source = name;
+        return true;
+    }
+
+    @Override
+    public boolean isContinuous() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        capture.release();
+        bgr.release();
+    }
+}
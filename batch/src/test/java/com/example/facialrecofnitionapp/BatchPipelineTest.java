@@ -0,0 +1,291 @@
+package com.example.facialrecofnitionapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * BatchPipeline and the result writers with desktop OpenCV, run on the development machine.
+ */
+public class BatchPipelineTest {
+    private RecognitionEngine engine;
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    @Before
+    public void setUp() {
+        //tests run in batch/, the cascade is the one the app ships
+        File cascade = new File("../app/src/main/res/raw/haarcascade_frontalface_alt.xml");
+        engine = new RecognitionEngine(new CascadeClassifier(cascade.getAbsolutePath()), new FaceModel() {
+            @Override
+            public float[][] run(FaceInput[] inputs) {
+                return new float[inputs.length][1];
+            }
+        }, TensorFormat.FLOAT32, 96, new LabelTable(new String[]{"Alice"}, "Unknown", 0.5f, 0.5f), "Unknown");
+    }
+
+    @After
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Test
+    public void run_writesEveryFrameInOrder() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PipelineMetrics metrics = new PipelineMetrics();
+        JsonlResultWriter writer = new JsonlResultWriter(output);
+        long frames = new BatchPipeline(engine, metrics).run(new BlankSource(50), writer);
+        writer.close();
+        String[] lines = output.toString("UTF-8").split("\n");
+
+        assertEquals(50, frames);
+        assertEquals(50, lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals("{\"frame\":" + i + ",\"source\":\"blank\",\"ms\":" + (i * 40) + ".0,\"faces\":[]}", lines[i]);
+        }
+        assertEquals(50, metrics.frameLatency().count());
+    }
+
+    @Test(expected = IOException.class)
+    public void run_reportsFailingSource() throws IOException {
+        new BatchPipeline(engine, new PipelineMetrics()).run(new BlankSource(-1),
+                new JsonlResultWriter(new ByteArrayOutputStream()));
+    }
+
+    @Test
+    public void imageDirectory_namesEachImageOnItsOwn() throws IOException {
+        //the same face box on a bright and a dark image, the model tells them apart by brightness
+        FaceDetector fixedFace = new FaceDetector() {
+            @Override
+            public Rect[] detect(FrameContext context, Mat detectGray, DetectionConfig config) {
+                return new Rect[]{new Rect(detectGray.cols() / 4, detectGray.rows() / 4, detectGray.cols() / 2,
+                        detectGray.rows() / 2)};
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        RecognitionEngine images = new RecognitionEngine(fixedFace, new FaceModel() {
+            @Override
+            public float[][] run(FaceInput[] inputs) {
+                float[][] outputs = new float[inputs.length][1];
+                for (int i = 0; i < inputs.length; i++) {
+                    outputs[i][0] = inputs[i].floats.get(0) > 0.5f ? 0 : 1;
+                }
+                return outputs;
+            }
+        }, TensorFormat.FLOAT32, 96, new LabelTable(new String[]{"Alice", "Bob"}, "Unknown", 0.5f, 0.5f),
+                "Unknown");
+        images.setIndependentFrames(true);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JsonlResultWriter writer = new JsonlResultWriter(output);
+        try {
+            new BatchPipeline(images, new PipelineMetrics()).run(new ImageSource(250, 5), writer);
+        } finally {
+            writer.close();
+            images.close();
+        }
+        String[] lines = output.toString("UTF-8").split("\n");
+
+        assertEquals(2, lines.length);
+        assertTrue(lines[0], lines[0].contains("\"name\":\"Alice\""));
+        assertTrue(lines[1], lines[1].contains("\"name\":\"Bob\""));
+        //not the track of the face in the previous image
+        assertFalse(lines[1], lines[1].contains("\"track\":1,"));
+    }
+
+    @Test
+    public void fileStream_keepsFileNameAndTimestampOfEveryFrame() throws IOException, InterruptedException {
+        FaceDetector noFaces = new FaceDetector() {
+            @Override
+            public Rect[] detect(FrameContext context, Mat detectGray, DetectionConfig config) {
+                return new Rect[0];
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        RecognitionService service = new RecognitionService(Collections.singletonList(noFaces), new FaceModel() {
+            @Override
+            public float[][] run(FaceInput[] inputs) {
+                return new float[inputs.length][1];
+            }
+        }, TensorFormat.FLOAT32, 96, new LabelTable(new String[]{"Alice"}, "Unknown", 0.5f, 0.5f), "Unknown");
+        final List<String> origins = Collections.synchronizedList(new ArrayList<String>());
+        final FileStreamSource[] player = new FileStreamSource[1];
+        try {
+            RecognitionService.Stream stream = service.openStream("images", false, 2,
+                    new RecognitionService.Listener() {
+                        @Override
+                        public void recognized(RecognitionService.Stream stream, long index, RecognizedFace[] faces) {
+                            FileStreamSource.Origin origin = player[0].origin(index);
+                            origins.add(origin.index + " " + origin.source + " " + origin.timestampMillis);
+                        }
+
+                        @Override
+                        public void failed(RecognitionService.Stream stream, RuntimeException e) {
+                            origins.add(e.toString());
+                        }
+                    });
+            player[0] = new FileStreamSource(new ImageSource(10, 20, 30), stream, false);
+            service.start();
+            player[0].start();
+            assertEquals(3, player[0].join());
+            stream.awaitIdle();
+        } finally {
+            service.close();
+        }
+
+        assertEquals(Arrays.asList("0 image0.png 0.0", "1 image1.png 0.0", "2 image2.png 0.0"), origins);
+    }
+
+    @Test
+    public void jsonl_escapesNames() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JsonlResultWriter writer = new JsonlResultWriter(output);
+        BatchFrame frame = new BatchFrame();
+        frame.source = "a.png";
+        frame.faces = new RecognizedFace[]{new RecognizedFace(7, new Rect(1, 2, 3, 4), "O\"Neil\\", 0.5f)};
+        writer.write(frame);
+        writer.close();
+        frame.release();
+
+        assertEquals("{\"frame\":0,\"source\":\"a.png\",\"ms\":0.0,\"faces\":[{\"track\":7,\"x\":1,\"y\":2,\"w\":3,"
+                + "\"h\":4,\"name\":\"O\\\"Neil\\\\\",\"score\":0.5}]}\n", output.toString("UTF-8"));
+    }
+
+    @Test
+    public void binary_writesStringsOnce() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BinaryResultWriter writer = new BinaryResultWriter(output);
+        BatchFrame frame = new BatchFrame();
+        frame.source = "clip.mp4";
+        frame.faces = new RecognizedFace[]{new RecognizedFace(1, new Rect(1, 2, 3, 4), "Alice", 0.9f)};
+        writer.write(frame);
+        frame.index = 1;
+        writer.write(frame);
+        writer.close();
+        frame.release();
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(output.toByteArray()));
+        byte[] magic = new byte[4];
+        input.readFully(magic);
+        assertArrayEquals(BinaryResultWriter.MAGIC, magic);
+        assertString(input, 0, "clip.mp4");
+        assertString(input, 1, "Alice");
+        for (int index = 0; index < 2; index++) {
+            assertEquals(BinaryResultWriter.FRAME, input.readByte());
+            assertEquals(index, input.readLong());
+            assertEquals(0, input.readDouble(), 0);
+            assertEquals(0, input.readInt());
+            assertEquals(1, input.readShort());
+            assertEquals(1, input.readInt());
+            assertEquals(1, input.readInt());
+            assertEquals(2, input.readInt());
+            assertEquals(3, input.readInt());
+            assertEquals(4, input.readInt());
+            assertEquals(1, input.readInt());
+            assertEquals(0.9f, input.readFloat(), 0);
+        }
+        assertEquals(-1, input.read());
+    }
+
+    private static void assertString(DataInputStream input, int id, String value) throws IOException {
+        assertEquals(BinaryResultWriter.STRING, input.readByte());
+        assertEquals(id, input.readInt());
+        assertEquals(value, input.readUTF());
+    }
+
+    //unrelated uniform images of the given gray levels, like an image directory
+    private static class ImageSource implements FrameSource {
+        private final int[] levels;
+        private int next = 0;
+
+        ImageSource(int... levels) {
+            this.levels = levels;
+        }
+
+        @Override
+        public boolean next(BatchFrame frame) {
+            if (next == levels.length) {
+                return false;
+            }
+            int level = levels[next];
+            frame.rgba.create(240, 320, CvType.CV_8UC4);
+            frame.rgba.setTo(new Scalar(level, level, level, 255));
+            frame.index = next;
+            frame.timestampMillis = 0;
+            frame.source = "image" + next + ".png";
+            next++;
+            return true;
+        }
+
+        @Override
+        public boolean isContinuous() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    //gray frames 25 per second, a negative count fails on the first frame
+    private static class BlankSource implements FrameSource {
+        private final int count;
+        private int next = 0;
+
+        BlankSource(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public boolean next(BatchFrame frame) throws IOException {
+            if (count < 0) {
+                throw new IOException("broken input");
+            }
+            if (next == count) {
+                return false;
+            }
+            frame.rgba.create(240, 320, CvType.CV_8UC4);
+            frame.rgba.setTo(new Scalar(128, 128, 128, 255));
+            frame.index = next;
+            frame.timestampMillis = next * 40;
+            frame.source = "blank";
+            next++;
+            return true;
+        }
+
+        @Override
+        public boolean isContinuous() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
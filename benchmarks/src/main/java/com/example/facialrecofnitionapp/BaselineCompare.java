@@ -0,0 +1,106 @@
+package com.example.facialrecofnitionapp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+//compares a JMH csv result with the committed baseline
+//every benchmark and parameter set is compared on its score (latency, and the gc profiler's
+//allocation per operation), a score that grew by more than tolerance percent is a regression
+//usage: BaselineCompare <baseline.csv> <result.csv> <tolerance percent>
+public final class BaselineCompare {
+    private BaselineCompare() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        File baselineFile = new File(args[0]);
+        File resultFile = new File(args[1]);
+        double tolerance = Double.parseDouble(args[2]);
+        //nothing to compare against is a failed check, not a passed one
+        if (!baselineFile.exists()) {
+            System.err.println("no baseline at " + baselineFile + ", record one with :benchmarks:jmhBaseline"
+                    + " on the reference machine and commit it");
+            System.exit(1);
+        }
+        Map<String, Double> baseline = read(baselineFile);
+        Map<String, Double> result = read(resultFile);
+        int regressions = 0;
+        for (Map.Entry<String, Double> entry : result.entrySet()) {
+            Double before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.println(String.format(Locale.US, "%-90s %12.2f (new)", entry.getKey(), entry.getValue()));
+                continue;
+            }
+            double change = before == 0 ? 0 : (entry.getValue() - before) * 100 / before;
+            boolean regression = change > tolerance;
+            if (regression) {
+                regressions++;
+            }
+            System.out.println(String.format(Locale.US, "%-90s %12.2f -> %12.2f %+7.1f%%%s", entry.getKey(),
+                    before, entry.getValue(), change, regression ? "  REGRESSION" : ""));
+        }
+        System.out.println(regressions + " regression(s) above " + tolerance + "%");
+        if (regressions > 0) {
+            System.exit(1);
+        }
+    }
+
+    //"benchmark[params] unit" -> score, for latency rows and allocation per operation rows
+    static Map<String, Double> read(File file) throws IOException {
+        Map<String, Double> scores = new LinkedHashMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            List<String> header = split(reader.readLine());
+            int benchmark = header.indexOf("Benchmark");
+            int score = header.indexOf("Score");
+            int unit = header.indexOf("Unit");
+            String line;
+            while ((line = reader.readLine()) != null) {
+                List<String> fields = split(line);
+                String name = fields.get(benchmark);
+                //the gc profiler adds rates and counts too, only the normalized allocation is stable
+                if (name.contains(":") && !name.endsWith("gc.alloc.rate.norm")) {
+                    continue;
+                }
+                StringBuilder key = new StringBuilder(name);
+                for (int i = 0; i < header.size(); i++) {
+                    if (header.get(i).startsWith("Param: ")) {
+                        key.append(' ').append(header.get(i).substring(7)).append('=').append(fields.get(i));
+                    }
+                }
+                key.append(" [").append(fields.get(unit)).append(']');
+                scores.put(key.toString(), Double.parseDouble(fields.get(score).replace(',', '.')));
+            }
+        } finally {
+            reader.close();
+        }
+        return scores;
+    }
+
+    //fields of one csv line, quotes removed
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
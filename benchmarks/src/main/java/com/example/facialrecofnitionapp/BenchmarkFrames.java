@@ -0,0 +1,97 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.util.Random;
+
+//frames the benchmarks run on, in camera orientation (landscape rgba) like onCameraFrame gets them
+//recorded frames are read from the directory in -Dbenchmark.frames, named <resolution>_<faces>.png
+//(e.g. 720p_5.png, upright like the preview shows them); without them a seeded noise frame is used
+//face rects of a frame are laid out on a grid, so every stage after detection sees exactly
+//the requested number of faces whatever the cascade finds in the image
+final class BenchmarkFrames {
+    private BenchmarkFrames() {
+    }
+
+    static int width(String resolution) {
+        switch (resolution) {
+            case "480p":
+                return 640;
+            case "720p":
+                return 1280;
+            case "1080p":
+                return 1920;
+            default:
+                throw new IllegalArgumentException("unknown resolution " + resolution);
+        }
+    }
+
+    static int height(String resolution) {
+        switch (resolution) {
+            case "480p":
+                return 480;
+            case "720p":
+                return 720;
+            case "1080p":
+                return 1080;
+            default:
+                throw new IllegalArgumentException("unknown resolution " + resolution);
+        }
+    }
+
+    //rgba frame in camera orientation, width(resolution) x height(resolution)
+    static Mat frame(String resolution, int faces) {
+        int width = width(resolution);
+        int height = height(resolution);
+        String directory = System.getProperty("benchmark.frames");
+        if (directory != null) {
+            File file = new File(directory, resolution + "_" + faces + ".png");
+            Mat recorded = Imgcodecs.imread(file.getAbsolutePath());
+            if (!recorded.empty()) {
+                Mat rgba = new Mat();
+                Imgproc.cvtColor(recorded, rgba, Imgproc.COLOR_BGR2RGBA);
+                recorded.release();
+                //stored upright, turned back into camera orientation
+                Mat camera = new Mat();
+                Core.rotate(rgba, camera, Core.ROTATE_90_COUNTERCLOCKWISE);
+                rgba.release();
+                if (camera.cols() == width && camera.rows() == height) {
+                    return camera;
+                }
+                camera.release();
+            }
+        }
+        Mat frame = new Mat(height, width, CvType.CV_8UC4);
+        byte[] pixels = new byte[width * height * 4];
+        new Random(width * 31 + faces).nextBytes(pixels);
+        for (int i = 3; i < pixels.length; i += 4) {
+            pixels[i] = (byte) 255;
+        }
+        frame.put(0, 0, pixels);
+        return frame;
+    }
+
+    //count face rects in upright coordinates (height(resolution) wide), on a grid of equal squares
+    static Rect[] faces(String resolution, int count) {
+        int uprightWidth = height(resolution);
+        int uprightHeight = width(resolution);
+        Rect[] faces = new Rect[count];
+        int columns = (int) Math.ceil(Math.sqrt(count));
+        int rows = count == 0 ? 0 : (count + columns - 1) / columns;
+        for (int i = 0; i < count; i++) {
+            int cellWidth = uprightWidth / columns;
+            int cellHeight = uprightHeight / rows;
+            int size = Math.min(cellWidth, cellHeight) * 3 / 4;
+            int x = (i % columns) * cellWidth + (cellWidth - size) / 2;
+            int y = (i / columns) * cellHeight + (cellHeight - size) / 2;
+            faces[i] = new Rect(x, y, size, size);
+        }
+        return faces;
+    }
+}
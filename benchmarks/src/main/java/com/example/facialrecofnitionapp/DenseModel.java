@@ -0,0 +1,43 @@
+package com.example.facialrecofnitionapp;
+
+import java.util.Random;
+
+//stand-in for the interpreter on the desktop JVM: one dense layer from the float input
+//to outputSize scores, single threaded like a one thread interpreter
+//TFLite has no desktop Java build, so this keeps the inference stage in the numbers with a
+//cost that grows with faces the same way; absolute times come from the on-device backend log
+final class DenseModel implements FaceModel {
+    private final int inputValues;
+    private final int outputSize;
+    private final float[] weights;
+    private final float[] pixels;
+
+    DenseModel(int inputSize, int outputSize) {
+        this.inputValues = inputSize * inputSize * 3;
+        this.outputSize = outputSize;
+        weights = new float[inputValues * outputSize];
+        pixels = new float[inputValues];
+        Random random = new Random(1);
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = random.nextFloat() - 0.5f;
+        }
+    }
+
+    @Override
+    public float[][] run(FaceInput[] inputs) {
+        float[][] outputs = new float[inputs.length][outputSize];
+        for (int face = 0; face < inputs.length; face++) {
+            inputs[face].floats.position(0);
+            inputs[face].floats.get(pixels);
+            for (int out = 0; out < outputSize; out++) {
+                float sum = 0;
+                int row = out * inputValues;
+                for (int i = 0; i < inputValues; i++) {
+                    sum += weights[row + i] * pixels[i];
+                }
+                outputs[face][out] = sum;
+            }
+        }
+        return outputs;
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+//speed and recall of the desktop detection backends on a fixed, annotated test set
+//the set is a directory with images and faces.txt, one line per image:
+//  <file> [<x> <y> <w> <h>]...     faces in upright image coordinates, none for an image without faces
+//a detection counts when it overlaps a face with an IoU of at least 0.5
+//usage: DetectorComparison <set dir> [<dir with deploy.prototxt and res10 caffemodel>]
+//BlazeFace needs the TFLite interpreter and is compared on the device (see the backend log)
+public final class DetectorComparison {
+    private static final String CASCADE = "../app/src/main/res/raw/haarcascade_frontalface_alt.xml";
+    private static final double MIN_IOU = 0.5;
+    //Haar detection resolutions (DetectionConfig long edge, 0 is full resolution) and SSD input sizes
+    private static final int[] HAAR_EDGES = {320, 640, 0};
+    private static final int[] SSD_SIZES = {300, 200};
+
+    private DetectorComparison() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: DetectorComparison <set dir> [<ssd model dir>]");
+            System.exit(2);
+        }
+        nu.pattern.OpenCV.loadLocally();
+        File set = new File(args[0]);
+        List<Sample> samples = readSet(set);
+        System.out.println(String.format(Locale.US, "%-12s %7s %7s %7s %9s %9s %9s", "detector", "faces",
+                "recall", "prec.", "mean ms", "p50 ms", "p90 ms"));
+
+        CascadeClassifier cascade = new CascadeClassifier(new File(CASCADE).getAbsolutePath());
+        for (int edge : HAAR_EDGES) {
+            compare("haar@" + (edge == 0 ? "full" : edge), new HaarFaceDetector(cascade),
+                    DetectionConfig.defaults().withDetectionLongEdge(edge), samples);
+        }
+        if (args.length > 1) {
+            File models = new File(args[1]);
+            for (int size : SSD_SIZES) {
+                compare("ssd@" + size, DnnFaceDetector.caffe(new File(models, "deploy.prototxt"),
+                        new File(models, "res10_300x300_ssd_iter_140000.caffemodel"), size, 0.5f),
+                        DetectionConfig.defaults(), samples);
+            }
+        }
+        for (Sample sample : samples) {
+            sample.context.release();
+        }
+    }
+
+    private static void compare(String name, FaceDetector detector, DetectionConfig config, List<Sample> samples) {
+        RecognitionEngine engine = new RecognitionEngine(detector, new FaceModel() {
+            @Override
+            public float[][] run(FaceInput[] inputs) {
+                return new float[inputs.length][1];
+            }
+        }, TensorFormat.FLOAT32, 96, new LabelTable(new String[0], "Unknown", 0.5f, 0.5f), "Unknown");
+        engine.setDetectionConfig(config);
+        LogHistogram latency = new LogHistogram();
+        int faces = 0;
+        int found = 0;
+        int detections = 0;
+        //first image once untimed, the first dnn forward pass allocates its layers
+        if (!samples.isEmpty()) {
+            engine.detectFaces(samples.get(0).context);
+        }
+        for (Sample sample : samples) {
+            long start = System.nanoTime();
+            Rect[] detected = engine.detectFaces(sample.context);
+            latency.record((System.nanoTime() - start) / 1000);
+            faces += sample.faces.length;
+            detections += detected.length;
+            found += matches(sample.faces, detected);
+        }
+        engine.close();
+        detector.close();
+        System.out.println(String.format(Locale.US, "%-12s %7d %7.3f %7.3f %9.2f %9.2f %9.2f", name, faces,
+                faces == 0 ? 0 : (double) found / faces, detections == 0 ? 0 : (double) found / detections,
+                latency.mean() / 1000, latency.percentile(0.5) / 1000.0, latency.percentile(0.9) / 1000.0));
+    }
+
+    //faces matched by a detection, every detection matches at most one face
+    static int matches(Rect[] faces, Rect[] detected) {
+        boolean[] used = new boolean[detected.length];
+        int matched = 0;
+        for (Rect face : faces) {
+            int best = -1;
+            double bestIou = MIN_IOU;
+            for (int i = 0; i < detected.length; i++) {
+                double iou = FaceTracker.intersectionOverUnion(face, detected[i]);
+                if (!used[i] && iou >= bestIou) {
+                    best = i;
+                    bestIou = iou;
+                }
+            }
+            if (best >= 0) {
+                used[best] = true;
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    private static List<Sample> readSet(File set) throws IOException {
+        List<Sample> samples = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(new File(set, "faces.txt")), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts[0].isEmpty()) {
+                    continue;
+                }
+                if ((parts.length - 1) % 4 != 0) {
+                    throw new IOException("expected 4 numbers per face: " + line);
+                }
+                Rect[] faces = new Rect[(parts.length - 1) / 4];
+                for (int i = 0; i < faces.length; i++) {
+                    faces[i] = new Rect(Integer.parseInt(parts[1 + i * 4]), Integer.parseInt(parts[2 + i * 4]),
+                            Integer.parseInt(parts[3 + i * 4]), Integer.parseInt(parts[4 + i * 4]));
+                }
+                samples.add(new Sample(new File(set, parts[0]), faces));
+            }
+        } finally {
+            reader.close();
+        }
+        return samples;
+    }
+
+    //decoded once, every detector runs on the same FrameContext
+    private static final class Sample {
+        final Rect[] faces;
+        final FrameContext context;
+
+        Sample(File file, Rect[] faces) throws IOException {
+            this.faces = faces;
+            Mat image = Imgcodecs.imread(file.getPath(), Imgcodecs.IMREAD_COLOR);
+            if (image.empty()) {
+                throw new IOException("cannot read " + file);
+            }
+            context = new FrameContext(image.cols(), image.rows(), false);
+            Imgproc.cvtColor(image, context.rgbaBuffer, Imgproc.COLOR_BGR2RGBA);
+            context.wrap(context.rgbaBuffer, null);
+            image.release();
+        }
+    }
+}
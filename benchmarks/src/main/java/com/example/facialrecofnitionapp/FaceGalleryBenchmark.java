@@ -0,0 +1,78 @@
+package com.example.facialrecofnitionapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//query latency of FaceGallery for growing galleries, exact scan against the IVF index
+//every call searches the next of a fixed set of random queries
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FaceGalleryBenchmark {
+    private static final int DIMENSION = 128;
+    private static final int QUERIES = 200;
+
+    @Param({"1000", "10000", "50000"})
+    public int size;
+
+    private FaceGallery exact;
+    private FaceGallery ivf;
+    private float[][] queries;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(size);
+        exact = new FaceGallery(DIMENSION, size);
+        ivf = new FaceGallery(DIMENSION, size);
+        for (int i = 0; i < size; i++) {
+            float[] embedding = randomEmbedding(random);
+            exact.enroll("person " + i, embedding);
+            ivf.enroll("person " + i, embedding);
+        }
+        ivf.setApproximate(1, (int) Math.sqrt(size), 8);
+        queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = randomEmbedding(random);
+        }
+    }
+
+    @Benchmark
+    public FaceGallery.Match exact() {
+        return exact.search(nextQuery(), 0f);
+    }
+
+    @Benchmark
+    public FaceGallery.Match ivf() {
+        return ivf.search(nextQuery(), 0f);
+    }
+
+    private float[] nextQuery() {
+        next = (next + 1) % QUERIES;
+        return queries[next];
+    }
+
+    private static float[] randomEmbedding(Random random) {
+        float[] embedding = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            embedding[i] = (float) random.nextGaussian();
+        }
+        return embedding;
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.facialrecofnitionapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//time per frame of the sequential interpreter against InterpreterPool, per number of faces
+//latency rather than throughput, so jmhCompare reads a higher score as worse like everywhere else
+//the pool has as many instances as the cpu backend gets on this machine's cores, so the
+//numbers show the gain of running chunks in parallel here
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterPoolBenchmark {
+    private static final int INPUT_SIZE = 96;
+    private static final int OUTPUT_SIZE = 64;
+
+    @Param({"1", "4", "16"})
+    public int faces;
+
+    private InterpreterPool sequential;
+    private InterpreterPool parallel;
+    private FaceInput[] inputs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int instances = InterpreterPool.instancesFor(Backend.cpu(1), Runtime.getRuntime().availableProcessors());
+        sequential = pool(1);
+        parallel = pool(instances);
+        Random random = new Random(faces);
+        inputs = new FaceInput[faces];
+        for (int i = 0; i < faces; i++) {
+            inputs[i] = new FaceInput(INPUT_SIZE * INPUT_SIZE * 3 * 4);
+            for (int j = 0; j < INPUT_SIZE * INPUT_SIZE * 3; j++) {
+                inputs[i].floats.put(j, random.nextFloat());
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sequential.close();
+        parallel.close();
+    }
+
+    @Benchmark
+    public float[][] sequential() {
+        return sequential.run(inputs);
+    }
+
+    @Benchmark
+    public float[][] pool() {
+        return parallel.run(inputs);
+    }
+
+    private static InterpreterPool pool(int instances) {
+        List<DenseModel> models = new ArrayList<>();
+        for (int i = 0; i < instances; i++) {
+            models.add(new DenseModel(INPUT_SIZE, OUTPUT_SIZE));
+        }
+        return new InterpreterPool(models);
+    }
+}
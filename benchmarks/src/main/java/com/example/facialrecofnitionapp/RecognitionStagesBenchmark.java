@@ -0,0 +1,199 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+//latency of every stage of a camera frame, per resolution and number of faces
+//stages run on the same Mats and in the same order as FacePipeline / recognitionImage:
+//copy in -> pyramid + upright detection image -> detectMultiScale -> crop, resize and convert -> model
+//-> names -> annotate, all on the frame in camera orientation
+//run with -prof gc (the jmh task does) to get the allocation rate of each stage next to its latency
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecognitionStagesBenchmark {
+    private static final int INPUT_SIZE = 96;
+    //relative to the benchmarks project directory, the jmh task runs there
+    private static final String CASCADE = "../app/src/main/res/raw/haarcascade_frontalface_alt.xml";
+    private static final String LABELS = "../app/src/main/assets/labels.txt";
+
+    @Param({"480p", "720p", "1080p"})
+    public String resolution;
+
+    @Param({"0", "1", "5", "20"})
+    public int faces;
+
+    private FrameContext context;
+    //camera rgba frame and its luminance plane
+    private Mat camera;
+    private Mat cameraGray;
+    private Mat detectGray;
+    //ROI pass: the cascade directly, windows around the faces in detection image coordinates
+    private HaarFaceDetector haar;
+    private RoiScheduler roi;
+    private Rect[] detectionFaces;
+    private final DetectionConfig detectionConfig = DetectionConfig.defaults();
+    private FaceDetections detections;
+    //model inputs of every face, prepared once for the model and name stages
+    private FaceInput[] inputs;
+    private long[] hashes;
+    private RecognitionEngine engine;
+    //same engine setup, with a model that answers instantly, so identifyFaces measures
+    //label lookup, identity cache and names only
+    private RecognitionEngine namingEngine;
+    private DenseModel model;
+    private FaceAnnotator annotator;
+    private RecognizedFace[] recognized;
+    //camera frame as a direct buffer, input of the end-to-end benchmark
+    private Frame frame;
+    private long frameId = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        nu.pattern.OpenCV.loadLocally();
+        int width = BenchmarkFrames.width(resolution);
+        int height = BenchmarkFrames.height(resolution);
+        camera = BenchmarkFrames.frame(resolution, faces);
+        cameraGray = new Mat();
+        Imgproc.cvtColor(camera, cameraGray, Imgproc.COLOR_RGBA2GRAY);
+        context = new FrameContext(width, height);
+        context.load(camera, cameraGray);
+
+        LabelTable labels = new LabelTable(LabelTable.readLabels(new FileInputStream(new File(LABELS))),
+                "Unknown", 0.5f, 0.5f);
+        CascadeClassifier cascade = new CascadeClassifier(new File(CASCADE).getAbsolutePath());
+        model = new DenseModel(INPUT_SIZE, labels.size());
+        engine = new RecognitionEngine(cascade, model, TensorFormat.FLOAT32, INPUT_SIZE, labels, "Unknown");
+        final float[][] outputs = new float[faces][labels.size()];
+        namingEngine = new RecognitionEngine(cascade, new FaceModel() {
+            @Override
+            public float[][] run(FaceInput[] inputs) {
+                return outputs;
+            }
+        }, TensorFormat.FLOAT32, INPUT_SIZE, labels, "Unknown");
+        annotator = new FaceAnnotator();
+
+        detectGray = engine.prepareDetectionImage(context);
+        Rect[] rects = BenchmarkFrames.faces(resolution, faces);
+        int[] trackIds = new int[faces];
+        for (int i = 0; i < faces; i++) {
+            trackIds[i] = i + 1;
+        }
+        detections = new FaceDetections(rects, trackIds, true);
+        haar = new HaarFaceDetector(cascade);
+        //no scheduled full scans, every measured pass is a windowed one
+        roi = new RoiScheduler(15, 0.5, 0);
+        roi.windows(detectGray.cols(), detectGray.rows(), new Rect[0], 0, 5);
+        double scale = (double) detectGray.cols() / context.uprightWidth();
+        detectionFaces = new Rect[faces];
+        for (int i = 0; i < faces; i++) {
+            detectionFaces[i] = new Rect((int) (rects[i].x * scale), (int) (rects[i].y * scale),
+                    (int) (rects[i].width * scale), (int) (rects[i].height * scale));
+        }
+        hashes = new long[faces];
+        inputs = engine.preprocessFaces(context, detections, 0, hashes);
+        recognized = namingEngine.identifyFaces(0, detections, inputs, hashes);
+
+        byte[] pixels = new byte[width * height * 4];
+        camera.get(0, 0, pixels);
+        ByteBuffer data = ByteBuffer.allocateDirect(pixels.length).order(ByteOrder.nativeOrder());
+        data.put(pixels);
+        frame = new Frame(data, width, height, width * 4, Frame.Format.RGBA8888, 90);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engine.recycleInputs(inputs);
+        engine.close();
+        namingEngine.close();
+        annotator.release();
+        context.release();
+        camera.release();
+        cameraGray.release();
+    }
+
+    //copy of the rgba frame and its gray plane into pooled Mats, what FacePipeline.submit does
+    @Benchmark
+    public Mat ingest() {
+        context.load(camera, cameraGray);
+        return context.gray;
+    }
+
+    //pyrDown to the detection resolution and the small detection image turned upright
+    @Benchmark
+    public Mat grayPyramid() {
+        return engine.prepareDetectionImage(context);
+    }
+
+    @Benchmark
+    public Rect[] detectMultiScale() {
+        return engine.detectOnImage(context, detectGray);
+    }
+
+    //one ROI detection pass: windows around the faces plus one of the rotating stripes
+    @Benchmark
+    public int detectRoi() {
+        int found = 0;
+        for (Rect window : roi.windows(detectGray.cols(), detectGray.rows(), detectionFaces, 0, 5)) {
+            found += haar.detect(context, detectGray, window, detectionConfig).length;
+        }
+        return found;
+    }
+
+    //crop, resize and conversion to model input (what convertBitmapToByteBuffer used to do)
+    @Benchmark
+    public int preprocessFaces() {
+        //a new frame id and no recorded identities, so every face is preprocessed
+        FaceInput[] faceInputs = engine.preprocessFaces(context, detections, ++frameId, hashes);
+        engine.recycleInputs(faceInputs);
+        return faceInputs.length;
+    }
+
+    @Benchmark
+    public float[][] model() {
+        return engine.runModel(inputs);
+    }
+
+    //label lookup, identity cache and names (what getFaceName used to do)
+    @Benchmark
+    public RecognizedFace[] names() {
+        return namingEngine.identifyFaces(++frameId, detections, inputs, hashes);
+    }
+
+    @Benchmark
+    public Mat annotate() {
+        annotator.drawFaces(context.rgba, recognized, true);
+        return context.rgba;
+    }
+
+    //whole frame through FaceRecognizer, detection and tracking decide the faces here
+    @Benchmark
+    public RecognizedFace[] recognize() {
+        return engine.recognize(frame);
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.facialrecofnitionapp;
+
+//one way of running the interpreter: CPU thread count plus an optional accelerator
+public class Backend {
+    public final int threads;
+    public final boolean xnnpack;
+    public final boolean nnapi;
+    public final boolean gpu;
+
+    public Backend(int threads, boolean xnnpack, boolean nnapi, boolean gpu) {
+        this.threads = threads;
+        this.xnnpack = xnnpack;
+        this.nnapi = nnapi;
+        this.gpu = gpu;
+    }
+
+    public static Backend cpu(int threads) {
+        return new Backend(threads, false, false, false);
+    }
+
+    public Backend withThreads(int threads) {
+        return new Backend(threads, xnnpack, nnapi, gpu);
+    }
+
+    //short form used in logs and in the backend cache, e.g. "cpu4", "xnnpack2", "gpu"
+    public String encode() {
+        if (gpu) {
+            return "gpu";
+        }
+        if (nnapi) {
+            return "nnapi";
+        }
+        return (xnnpack ? "xnnpack" : "cpu") + threads;
+    }
+
+    //inverse of encode, null when text is not a backend
+    public static Backend decode(String text) {
+        if (text == null) {
+            return null;
+        }
+        if (text.equals("gpu")) {
+            return new Backend(1, false, false, true);
+        }
+        if (text.equals("nnapi")) {
+            return new Backend(1, false, true, false);
+        }
+        try {
+            if (text.startsWith("xnnpack")) {
+                return new Backend(Integer.parseInt(text.substring(7)), true, false, false);
+            }
+            if (text.startsWith("cpu")) {
+                return cpu(Integer.parseInt(text.substring(3)));
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Backend && ((Backend) other).encode().equals(encode());
+    }
+
+    @Override
+    public int hashCode() {
+        return encode().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.facialrecofnitionapp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+//picks the fastest Backend for a model by timing each candidate
+//first the CPU thread count is searched (1, 2, 4 and every core), then XNNPACK with the best
+//thread count, NNAPI and GPU are tried; a candidate that fails is skipped, so a device
+//without a working delegate ends up on plain CPU
+//the choice is stored per model hash so later starts skip the timing
+//
+//timing itself is done by a Trial, so the search runs on a plain JVM with a fake Trial
+public class BackendSelector {
+    //time one backend, returns microseconds per inference
+    //throws when the backend cannot run the model on this device
+    public interface Trial {
+        long measureMicros(Backend backend) throws Exception;
+    }
+
+    //guards reading and rewriting the cache files, one rewrite at a time in the process
+    private static final Object CACHE_LOCK = new Object();
+
+    private final int cores;
+    private final boolean tryAccelerators;
+    //backend per model hash, null keeps nothing
+    private final File cacheFile;
+    //log of every measurement of the last select, for logging and tests
+    private final List<String> measurements = new ArrayList<>();
+
+    public BackendSelector(int cores, boolean tryAccelerators, File cacheFile) {
+        this.cores = Math.max(1, cores);
+        this.tryAccelerators = tryAccelerators;
+        this.cacheFile = cacheFile;
+    }
+
+    //thread counts to try: 1, 2, 4 and every core, without duplicates or counts above cores
+    public List<Integer> threadCandidates() {
+        List<Integer> threads = new ArrayList<>();
+        for (int count : new int[]{1, 2, 4, cores}) {
+            if (count <= cores && !threads.contains(count)) {
+                threads.add(count);
+            }
+        }
+        return threads;
+    }
+
+    //cached backend for modelHash, or the fastest one found by trial
+    public Backend select(String modelHash, Trial trial) {
+        measurements.clear();
+        Backend cached;
+        synchronized (CACHE_LOCK) {
+            cached = Backend.decode(readCache().getProperty(modelHash));
+        }
+        if (cached != null) {
+            measurements.add(cached + " cached");
+            return cached;
+        }
+
+        Backend best = null;
+        long bestMicros = Long.MAX_VALUE;
+        for (int threads : threadCandidates()) {
+            long micros = measure(trial, Backend.cpu(threads));
+            if (micros < bestMicros) {
+                best = Backend.cpu(threads);
+                bestMicros = micros;
+            }
+        }
+        if (best == null) {
+            //even plain CPU failed, nothing to choose from; let the caller report the real error
+            return Backend.cpu(1);
+        }
+        if (tryAccelerators) {
+            Backend[] accelerators = {
+                    new Backend(best.threads, true, false, false),
+                    new Backend(1, false, true, false),
+                    new Backend(1, false, false, true)
+            };
+            for (Backend accelerator : accelerators) {
+                long micros = measure(trial, accelerator);
+                if (micros < bestMicros) {
+                    best = accelerator;
+                    bestMicros = micros;
+                }
+            }
+        }
+        //selectors of other models may share the file, so the entry is added to what is there now
+        synchronized (CACHE_LOCK) {
+            Properties cache = readCache();
+            cache.setProperty(modelHash, best.encode());
+            writeCache(cache);
+        }
+        return best;
+    }
+
+    //what was measured by the last select
+    public List<String> getMeasurements() {
+        return measurements;
+    }
+
+    private long measure(Trial trial, Backend backend) {
+        try {
+            long micros = trial.measureMicros(backend);
+            measurements.add(backend + " " + micros + " us");
+            return micros;
+        } catch (Exception e) {
+            measurements.add(backend + " failed: " + e.getMessage());
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private Properties readCache() {
+        Properties cache = new Properties();
+        if (cacheFile == null || !cacheFile.exists()) {
+            return cache;
+        }
+        try {
+            FileInputStream inputStream = new FileInputStream(cacheFile);
+            try {
+                cache.load(inputStream);
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            //a broken cache only costs one more search
+        }
+        return cache;
+    }
+
+    private void writeCache(Properties cache) {
+        if (cacheFile == null) {
+            return;
+        }
+        try {
+            FileOutputStream outputStream = new FileOutputStream(cacheFile);
+            try {
+                cache.store(outputStream, "fastest interpreter backend per model hash");
+            } finally {
+                outputStream.close();
+            }
+        } catch (IOException e) {
+            //not cached, searched again next time
+        }
+    }
+}
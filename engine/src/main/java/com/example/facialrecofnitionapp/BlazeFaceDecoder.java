@@ -0,0 +1,151 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+
+//turns the raw output of the BlazeFace front camera model (128x128 input) into face rects
+//the model predicts an offset and size for each of 896 fixed anchors (16x16 cells with 2 anchors,
+//8x8 cells with 6) plus a logit per anchor; overlapping boxes of one face are merged with the
+//score weighted average MediaPipe uses instead of keeping only the best one
+//all working memory is allocated once, decode runs on the detect thread only
+public class BlazeFaceDecoder {
+    //the back camera model (256x256) has a different anchor layout and is not supported
+    public static final int INPUT_SIZE = 128;
+    public static final int ANCHORS = 896;
+    //regressor values per anchor: box (x, y, w, h) then 6 keypoints
+    public static final int BOX_VALUES = 16;
+    //logits are clipped before the sigmoid like in MediaPipe
+    private static final float MAX_LOGIT = 100;
+
+    private final float minScore;
+    private final float maxOverlap;
+    //anchor centers, relative to the input
+    private final float[] anchorX = new float[ANCHORS];
+    private final float[] anchorY = new float[ANCHORS];
+    //boxes above minScore, relative to the input, best first once sorted
+    private final float[] left = new float[ANCHORS];
+    private final float[] top = new float[ANCHORS];
+    private final float[] right = new float[ANCHORS];
+    private final float[] bottom = new float[ANCHORS];
+    private final float[] score = new float[ANCHORS];
+    private final int[] order = new int[ANCHORS];
+    private final boolean[] merged = new boolean[ANCHORS];
+    private final ArrayList<Rect> found = new ArrayList<>();
+
+    public BlazeFaceDecoder(float minScore, float maxOverlap) {
+        this.minScore = minScore;
+        this.maxOverlap = maxOverlap;
+        int anchor = 0;
+        //stride 8: 16x16 cells, 2 anchors each; the three stride 16 layers: 8x8 cells, 6 anchors each
+        anchor = addAnchors(anchor, INPUT_SIZE / 8, 2);
+        addAnchors(anchor, INPUT_SIZE / 16, 6);
+    }
+
+    private int addAnchors(int anchor, int cells, int perCell) {
+        for (int y = 0; y < cells; y++) {
+            for (int x = 0; x < cells; x++) {
+                for (int i = 0; i < perCell; i++) {
+                    anchorX[anchor] = (x + 0.5f) / cells;
+                    anchorY[anchor] = (y + 0.5f) / cells;
+                    anchor++;
+                }
+            }
+        }
+        return anchor;
+    }
+
+    float anchorX(int anchor) {
+        return anchorX[anchor];
+    }
+
+    float anchorY(int anchor) {
+        return anchorY[anchor];
+    }
+
+    //boxes [ANCHORS][BOX_VALUES] and logits [ANCHORS][1] of one image, faces in width x height
+    public Rect[] decode(float[][] boxes, float[][] logits, int width, int height) {
+        int count = 0;
+        for (int anchor = 0; anchor < ANCHORS; anchor++) {
+            float logit = Math.max(-MAX_LOGIT, Math.min(MAX_LOGIT, logits[anchor][0]));
+            float probability = (float) (1 / (1 + Math.exp(-logit)));
+            if (probability < minScore) {
+                continue;
+            }
+            float[] box = boxes[anchor];
+            float centerX = box[0] / INPUT_SIZE + anchorX[anchor];
+            float centerY = box[1] / INPUT_SIZE + anchorY[anchor];
+            float halfWidth = box[2] / INPUT_SIZE / 2;
+            float halfHeight = box[3] / INPUT_SIZE / 2;
+            left[count] = centerX - halfWidth;
+            top[count] = centerY - halfHeight;
+            right[count] = centerX + halfWidth;
+            bottom[count] = centerY + halfHeight;
+            score[count] = probability;
+            order[count] = count;
+            merged[count] = false;
+            count++;
+        }
+        //few candidates pass minScore, insertion sort by score is enough
+        for (int i = 1; i < count; i++) {
+            int candidate = order[i];
+            int j = i - 1;
+            while (j >= 0 && score[order[j]] < score[candidate]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = candidate;
+        }
+
+        found.clear();
+        for (int i = 0; i < count; i++) {
+            int best = order[i];
+            if (merged[best]) {
+                continue;
+            }
+            //average every box that overlaps the best one, weighted by score
+            float weight = 0;
+            float x1 = 0;
+            float y1 = 0;
+            float x2 = 0;
+            float y2 = 0;
+            for (int j = i; j < count; j++) {
+                int other = order[j];
+                if (merged[other] || (other != best && overlap(best, other) <= maxOverlap)) {
+                    continue;
+                }
+                merged[other] = true;
+                weight += score[other];
+                x1 += left[other] * score[other];
+                y1 += top[other] * score[other];
+                x2 += right[other] * score[other];
+                y2 += bottom[other] * score[other];
+            }
+            int faceLeft = clamp(x1 / weight, width);
+            int faceTop = clamp(y1 / weight, height);
+            int faceRight = clamp(x2 / weight, width);
+            int faceBottom = clamp(y2 / weight, height);
+            if (faceRight > faceLeft && faceBottom > faceTop) {
+                found.add(new Rect(faceLeft, faceTop, faceRight - faceLeft, faceBottom - faceTop));
+            }
+        }
+        return found.toArray(new Rect[0]);
+    }
+
+    //intersection over union of two candidates
+    private float overlap(int a, int b) {
+        float width = Math.min(right[a], right[b]) - Math.max(left[a], left[b]);
+        float height = Math.min(bottom[a], bottom[b]) - Math.max(top[a], top[b]);
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        float intersection = width * height;
+        float union = (right[a] - left[a]) * (bottom[a] - top[a]) + (right[b] - left[b]) * (bottom[b] - top[b])
+                - intersection;
+        return union <= 0 ? 0 : intersection / union;
+    }
+
+    private static int clamp(float relative, int size) {
+        return Math.max(0, Math.min(size, Math.round(relative * size)));
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.facialrecofnitionapp;
+
+//parameters of face detection, scaleFactor and minNeighbors only apply to the Haar cascade
+//immutable, so the detect thread can read it while another thread swaps in a new one
+public class DetectionConfig {
+    //long edge in pixels of the gray image the cascade and the tracker run on
+    //the frame is halved with pyrDown until the next half would be smaller than this
+    //0 runs detection at full resolution
+    public final int detectionLongEdge;
+    //how much the detection window grows between scales
+    public final double scaleFactor;
+    //how many neighbouring detections a face needs to be kept
+    public final int minNeighbors;
+    //smallest face as a fraction of the upright frame height
+    public final double minFaceFraction;
+    //largest face as a fraction of the upright frame height, 0 means no limit
+    public final double maxFaceFraction;
+
+    public DetectionConfig(int detectionLongEdge, double scaleFactor, int minNeighbors,
+                           double minFaceFraction, double maxFaceFraction) {
+        this.detectionLongEdge = detectionLongEdge;
+        this.scaleFactor = scaleFactor;
+        this.minNeighbors = minNeighbors;
+        this.minFaceFraction = minFaceFraction;
+        this.maxFaceFraction = maxFaceFraction;
+    }
+
+    //values used before detection became configurable, on a 320px detection image
+    public static DetectionConfig defaults() {
+        return new DetectionConfig(320, 1.1, 2, 0.1, 0);
+    }
+
+    public DetectionConfig withDetectionLongEdge(int detectionLongEdge) {
+        return new DetectionConfig(detectionLongEdge, scaleFactor, minNeighbors, minFaceFraction, maxFaceFraction);
+    }
+
+    //number of pyrDown steps for a frame whose long edge is longEdge
+    public int pyramidLevels(int longEdge) {
+        int levels = 0;
+        if (detectionLongEdge <= 0) {
+            return levels;
+        }
+        while ((longEdge >> (levels + 1)) >= detectionLongEdge) {
+            levels++;
+        }
+        return levels;
+    }
+
+    @Override
+    public String toString() {
+        return "DetectionConfig{longEdge=" + detectionLongEdge
+                + ", scaleFactor=" + scaleFactor
+                + ", minNeighbors=" + minNeighbors
+                + ", minFace=" + minFaceFraction
+                + ", maxFace=" + maxFaceFraction + "}";
+    }
+}
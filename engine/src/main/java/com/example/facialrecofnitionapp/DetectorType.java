@@ -0,0 +1,11 @@
+package com.example.facialrecofnitionapp;
+
+//detection backends, see FaceDetector
+public enum DetectorType {
+    //haarcascade_frontalface_alt with detectMultiScale, no model files needed
+    HAAR,
+    //OpenCV dnn with the res10 300x300 SSD face detector (Caffe)
+    SSD,
+    //BlazeFace front camera model on the TFLite interpreter, Android only
+    BLAZEFACE
+}
@@ -0,0 +1,112 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.dnn.Dnn;
+import org.opencv.dnn.Net;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+//SSD face detector on OpenCV's dnn module, e.g. res10_300x300_ssd_iter_140000.caffemodel
+//runs on the full color frame scaled to inputSize x inputSize, so it finds turned and small faces
+//the cascade misses and its cost does not grow with the frame resolution
+//input size trades recall on small faces for speed, 300 is what the res10 model was trained on
+public class DnnFaceDetector implements FaceDetector {
+    //mean of the training images in BGR, subtracted by blobFromImage
+    private static final Scalar SSD_MEAN = new Scalar(104, 177, 123);
+    //values per detection in the [1, 1, N, 7] output: image, class, confidence, x1, y1, x2, y2
+    private static final int VALUES = 7;
+
+    private final Net net;
+    private final Size inputDims;
+    private final float minConfidence;
+    //scratch memory, reused between frames
+    private final Mat resized = new Mat();
+    private final Mat bgr = new Mat();
+    private float[] values = new float[0];
+    private final ArrayList<Rect> found = new ArrayList<>();
+
+    public DnnFaceDetector(Net net, int inputSize, float minConfidence) {
+        this.net = net;
+        this.inputDims = new Size(inputSize, inputSize);
+        this.minConfidence = minConfidence;
+    }
+
+    //deploy.prototxt and the caffemodel next to it
+    public static DnnFaceDetector caffe(File prototxt, File weights, int inputSize, float minConfidence)
+            throws IOException {
+        if (!prototxt.isFile() || !weights.isFile()) {
+            throw new IOException("no SSD model at " + prototxt + " / " + weights);
+        }
+        Net net = Dnn.readNetFromCaffe(prototxt.getPath(), weights.getPath());
+        if (net.empty()) {
+            throw new IOException("cannot read SSD model " + weights);
+        }
+        return new DnnFaceDetector(net, inputSize, minConfidence);
+    }
+
+    @Override
+    public Rect[] detect(FrameContext context, Mat detectGray, DetectionConfig config) {
+        //scaled before it is turned upright, blobFromImage gets it at input size already
+        context.resizeUpright(resized, inputDims);
+        Imgproc.cvtColor(resized, bgr, Imgproc.COLOR_RGBA2BGR);
+        Mat blob = Dnn.blobFromImage(bgr, 1.0, inputDims, SSD_MEAN, false, false);
+        Mat output;
+        try {
+            net.setInput(blob);
+            output = net.forward();
+        } finally {
+            blob.release();
+        }
+        int count;
+        try {
+            count = (int) (output.total() / VALUES);
+            if (values.length < count * VALUES) {
+                values = new float[count * VALUES];
+            }
+            if (count > 0) {
+                Mat rows = output.reshape(1, count);
+                rows.get(0, 0, values);
+            }
+        } finally {
+            output.release();
+        }
+
+        //boxes are relative to the frame, the tracker wants detectGray coordinates
+        int width = detectGray.cols();
+        int height = detectGray.rows();
+        int minSize = (int) (height * config.minFaceFraction);
+        int maxSize = config.maxFaceFraction > 0 ? (int) (height * config.maxFaceFraction) : Integer.MAX_VALUE;
+        found.clear();
+        for (int i = 0; i < count; i++) {
+            int offset = i * VALUES;
+            if (values[offset + 2] < minConfidence) {
+                continue;
+            }
+            int x1 = clamp(values[offset + 3], width);
+            int y1 = clamp(values[offset + 4], height);
+            int x2 = clamp(values[offset + 5], width);
+            int y2 = clamp(values[offset + 6], height);
+            int size = Math.max(x2 - x1, y2 - y1);
+            if (x2 > x1 && y2 > y1 && size >= minSize && size <= maxSize) {
+                found.add(new Rect(x1, y1, x2 - x1, y2 - y1));
+            }
+        }
+        return found.toArray(new Rect[0]);
+    }
+
+    private static int clamp(float relative, int size) {
+        return Math.max(0, Math.min(size, Math.round(relative * size)));
+    }
+
+    @Override
+    public void close() {
+        resized.release();
+        bgr.release();
+    }
+}
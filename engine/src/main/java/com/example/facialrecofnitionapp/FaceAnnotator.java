@@ -0,0 +1,97 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+//annotate stage: draws rectangle and name of recognized faces on an rgba frame
+//used from one thread at a time, points and the label Mat are reused between calls
+//
+//on a frame in camera orientation (see FrameContext.rotated) the box is mapped onto the frame,
+//and only the small area under the name is turned upright, written and turned back
+public class FaceAnnotator {
+    //colors used to draw faces, created once
+    private static final Scalar FACE_BOX_COLOR = new Scalar(0, 255, 0, 255);
+    private static final Scalar FACE_TEXT_COLOR = new Scalar(255, 255, 255.150);
+    //font 1, scale 1.5, thickness 2
+    private static final int FONT = 1;
+    private static final double FONT_SCALE = 1.5;
+    private static final int THICKNESS = 2;
+    private final Point topLeft = new Point();
+    private final Point bottomRight = new Point();
+    private final Point textOrigin = new Point();
+    //upright copy of the area under a name, rotated frames only
+    private final Mat label = new Mat();
+    private final int[] baseline = new int[1];
+
+    //face on an upright frame
+    public void drawFace(Mat upright, RecognizedFace face) {
+        topLeft.x = face.rect.x;
+        topLeft.y = face.rect.y;
+        bottomRight.x = face.rect.x + face.rect.width;
+        bottomRight.y = face.rect.y + face.rect.height;
+        //rectangle around the face, thickness 2
+        Imgproc.rectangle(upright, topLeft, bottomRight, FACE_BOX_COLOR, THICKNESS);
+        //name inside the top left corner
+        textOrigin.x = face.rect.x + 10;
+        textOrigin.y = face.rect.y + 20;
+        Imgproc.putText(upright, face.name, textOrigin, FONT, FONT_SCALE, FACE_TEXT_COLOR, THICKNESS);
+    }
+
+    //face in upright coordinates on a frame that is upright after a 90 degree clockwise turn when rotated
+    //draws the same pixels drawFace draws on the upright frame
+    public void drawFace(Mat frame, RecognizedFace face, boolean rotated) {
+        if (!rotated) {
+            drawFace(frame, face);
+            return;
+        }
+        //upright (x, y) is frame (column y, row last - x)
+        Rect rect = face.rect;
+        int last = frame.rows() - 1;
+        topLeft.x = rect.y;
+        topLeft.y = last - rect.x - rect.width;
+        bottomRight.x = rect.y + rect.height;
+        bottomRight.y = last - rect.x;
+        Imgproc.rectangle(frame, topLeft, bottomRight, FACE_BOX_COLOR, THICKNESS);
+
+        //upright area the name can cover, clipped to the frame like putText would clip it
+        Size text = Imgproc.getTextSize(face.name, FONT, FONT_SCALE, THICKNESS, baseline);
+        int margin = 2 * THICKNESS + 2;
+        int left = Math.max(rect.x + 10 - margin, 0);
+        int top = Math.max(rect.y + 20 - (int) Math.ceil(text.height) - margin, 0);
+        int right = Math.min(rect.x + 10 + (int) Math.ceil(text.width) + margin, frame.rows());
+        int bottom = Math.min(rect.y + 20 + baseline[0] + margin, frame.cols());
+        if (right <= left || bottom <= top) {
+            return;
+        }
+        Mat area = frame.submat(new Rect(top, frame.rows() - right, bottom - top, right - left));
+        try {
+            Core.rotate(area, label, Core.ROTATE_90_CLOCKWISE);
+            textOrigin.x = rect.x + 10 - left;
+            textOrigin.y = rect.y + 20 - top;
+            Imgproc.putText(label, face.name, textOrigin, FONT, FONT_SCALE, FACE_TEXT_COLOR, THICKNESS);
+            //area has the size of the turned label, so rotate writes straight into the frame
+            Core.rotate(label, area, Core.ROTATE_90_COUNTERCLOCKWISE);
+        } finally {
+            area.release();
+        }
+    }
+
+    public void drawFaces(Mat upright, RecognizedFace[] faces) {
+        drawFaces(upright, faces, false);
+    }
+
+    public void drawFaces(Mat frame, RecognizedFace[] faces, boolean rotated) {
+        for (RecognizedFace face : faces) {
+            drawFace(frame, face, rotated);
+        }
+    }
+
+    public void release() {
+        label.release();
+    }
+}
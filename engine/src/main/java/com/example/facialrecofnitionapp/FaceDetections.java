@@ -0,0 +1,22 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Rect;
+
+//faces found in one frame, in full resolution upright coordinates
+//trackIds[i] is the stable id of faces[i], the same person keeps the same id across frames
+public class FaceDetections {
+    public final Rect[] faces;
+    public final int[] trackIds;
+    //true when the faces come from a full cascade pass, false when they were tracked
+    public final boolean detected;
+
+    public FaceDetections(Rect[] faces, int[] trackIds, boolean detected) {
+        this.faces = faces;
+        this.trackIds = trackIds;
+        this.detected = detected;
+    }
+
+    public static FaceDetections empty() {
+        return new FaceDetections(new Rect[0], new int[0], true);
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.io.Closeable;
+
+//finds faces for RecognitionEngine, one implementation per detection backend
+//(HaarFaceDetector, DnnFaceDetector, BlazeFaceDetector in the app)
+//called by one thread at a time, the detect stage, so implementations keep their scratch memory
+public interface FaceDetector extends Closeable {
+    //faces of the frame in context, in the coordinates of detectGray
+    //detectGray is the upright gray, possibly pyrDown'ed copy of the frame the tracker follows faces on
+    //the rgba frame may still be in camera orientation, FrameContext.resizeUpright turns a scaled copy
+    Rect[] detect(FrameContext context, Mat detectGray, DetectionConfig config);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,68 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+//several detectors of the same kind shared by the engines of RecognitionService
+//a detector keeps scratch memory and is used by one thread at a time (see FaceDetector), so a
+//call borrows an idle one; with one detector per worker thread no call ever waits
+//
+//the pool is not a HaarFaceDetector, so engines on it scan the full detection image every
+//detection pass instead of ROI windows
+public class FaceDetectorPool implements FaceDetector {
+    private final List<? extends FaceDetector> detectors;
+    private final BlockingQueue<FaceDetector> idle;
+
+    public FaceDetectorPool(List<? extends FaceDetector> detectors) {
+        if (detectors.isEmpty()) {
+            throw new IllegalArgumentException("no detectors");
+        }
+        this.detectors = detectors;
+        idle = new ArrayBlockingQueue<>(detectors.size());
+        idle.addAll(detectors);
+    }
+
+    public int size() {
+        return detectors.size();
+    }
+
+    @Override
+    public Rect[] detect(FrameContext context, Mat detectGray, DetectionConfig config) {
+        FaceDetector detector = acquire();
+        try {
+            return detector.detect(context, detectGray, config);
+        } finally {
+            idle.add(detector);
+        }
+    }
+
+    //a detector is busy for one frame at most, so the wait ignores interrupts and keeps the flag
+    private FaceDetector acquire() {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return idle.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    //closes every detector, no detection may be running
+    @Override
+    public void close() {
+        for (FaceDetector detector : detectors) {
+            detector.close();
+        }
+    }
+}
@@ -0,0 +1,473 @@
+package com.example.facialrecofnitionapp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+//enrolled face embeddings, searched by cosine similarity
+//embeddings are normalized on enroll and kept back to back in one off-heap buffer,
+//so a query is a single linear dot product scan with no per-row objects
+//once the gallery is large an inverted file index (IVF) is built: rows are grouped under
+//k-means centroids and a query only scans the lists of the closest centroids
+//
+//a person can be enrolled any time without touching the model, several embeddings may
+//share one identity
+//queries may run on several threads, enroll takes a write lock
+//
+//a gallery can start from a read-only base segment (see GalleryStore, which maps it from
+//a file); rows enrolled later go to an in-memory tail after it
+public class FaceGallery {
+    public static final int NO_MATCH = -1;
+
+    private final int dimension;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    //read-only base segment: normalized rows, identity of each row and names of its identities
+    private final FloatBuffer baseRows;
+    private final IntBuffer baseIdentity;
+    private final List<String> baseNames;
+    private final int baseCount;
+
+    //normalized embeddings enrolled after the base, tail row r starts at r * dimension
+    private FloatBuffer rows;
+    //rows in base and tail
+    private int rowCount;
+    //identity of each tail row
+    private int[] rowIdentity;
+    //names of identities created after the base
+    private final ArrayList<String> names = new ArrayList<>();
+    //name to identity, built on the first enroll so opening a large base stays cheap
+    private HashMap<String, Integer> identities;
+    //told about every enroll before the row is added
+    private EnrollListener enrollListener;
+
+    //IVF settings, ivfMinRows 0 keeps the exact scan
+    private int ivfMinRows = 0;
+    private int ivfLists = 0;
+    private int ivfProbes = 0;
+    //centroids of the lists, list l starts at l * dimension
+    private float[] centroids;
+    private int[][] lists;
+    private int[] listSizes;
+    //row count when the index was last built
+    private int indexedRows = 0;
+
+    public FaceGallery(int dimension) {
+        this(dimension, 64);
+    }
+
+    public FaceGallery(int dimension, int initialCapacity) {
+        this(dimension, null, null, Collections.<String>emptyList(), initialCapacity);
+    }
+
+    //gallery on top of an existing base segment, which is read but never written
+    //baseRows holds normalized rows back to back, baseIdentity one identity per row
+    public FaceGallery(int dimension, FloatBuffer baseRows, IntBuffer baseIdentity,
+                       List<String> baseNames, int initialCapacity) {
+        this.dimension = dimension;
+        this.baseRows = baseRows;
+        this.baseIdentity = baseIdentity;
+        this.baseNames = baseNames;
+        this.baseCount = baseIdentity == null ? 0 : baseIdentity.limit();
+        this.rowCount = baseCount;
+        int capacity = Math.max(1, initialCapacity);
+        rows = allocateRows(capacity * dimension);
+        rowIdentity = new int[capacity];
+    }
+
+    //called inside enroll, before the row is visible to queries
+    //row is the index the new embedding will get, throwing cancels the enroll
+    public interface EnrollListener {
+        void beforeEnroll(int row, String name, float[] embedding);
+    }
+
+    public void setEnrollListener(EnrollListener listener) {
+        lock.writeLock().lock();
+        try {
+            enrollListener = listener;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //result of a search
+    public static class Match {
+        public final int identity;
+        public final String name;
+        public final float similarity;
+
+        Match(int identity, String name, float similarity) {
+            this.identity = identity;
+            this.name = name;
+            this.similarity = similarity;
+        }
+    }
+
+    //scan only part of the gallery once it holds minRows embeddings
+    //lists is the number of k-means centroids, probes how many of them a query visits
+    public void setApproximate(int minRows, int lists, int probes) {
+        lock.writeLock().lock();
+        try {
+            ivfMinRows = minRows;
+            ivfLists = lists;
+            ivfProbes = Math.max(1, Math.min(probes, lists));
+            centroids = null;
+            indexedRows = 0;
+            if (ivfMinRows > 0 && rowCount >= ivfMinRows) {
+                buildIndex();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //add an embedding for name, a new identity is created the first time a name is seen
+    public int enroll(String name, float[] embedding) {
+        checkDimension(embedding);
+        lock.writeLock().lock();
+        try {
+            if (identities == null) {
+                identities = new HashMap<>();
+                for (int i = 0; i < identityCountLocked(); i++) {
+                    identities.put(nameLocked(i), i);
+                }
+            }
+            if (enrollListener != null) {
+                enrollListener.beforeEnroll(rowCount, name, embedding);
+            }
+            Integer known = identities.get(name);
+            int identity;
+            if (known == null) {
+                identity = identityCountLocked();
+                names.add(name);
+                identities.put(name, identity);
+            } else {
+                identity = known;
+            }
+            appendRow(embedding, identity);
+            return identity;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //closest identity to query with at least minSimilarity, or NO_MATCH
+    public Match search(float[] query, float minSimilarity) {
+        checkDimension(query);
+        float norm = norm(query, 0, dimension);
+        if (norm == 0) {
+            return new Match(NO_MATCH, null, 0);
+        }
+        lock.readLock().lock();
+        try {
+            int bestRow = -1;
+            float best = -Float.MAX_VALUE;
+            if (centroids == null) {
+                for (int row = 0; row < baseCount; row++) {
+                    float dot = dot(query, baseRows, row * dimension, dimension);
+                    if (dot > best) {
+                        best = dot;
+                        bestRow = row;
+                    }
+                }
+                for (int row = baseCount; row < rowCount; row++) {
+                    float dot = dot(query, rows, (row - baseCount) * dimension, dimension);
+                    if (dot > best) {
+                        best = dot;
+                        bestRow = row;
+                    }
+                }
+            } else {
+                int[] probed = closestLists(query, ivfProbes);
+                for (int list : probed) {
+                    int[] members = lists[list];
+                    for (int i = 0; i < listSizes[list]; i++) {
+                        int row = members[i];
+                        float dot = dotRow(query, row);
+                        if (dot > best) {
+                            best = dot;
+                            bestRow = row;
+                        }
+                    }
+                }
+            }
+            float similarity = bestRow < 0 ? 0 : best / norm;
+            if (bestRow < 0 || similarity < minSimilarity) {
+                return new Match(NO_MATCH, null, similarity);
+            }
+            int identity = identityLocked(bestRow);
+            return new Match(identity, nameLocked(identity), similarity);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public String name(int identity) {
+        lock.readLock().lock();
+        try {
+            return identity >= 0 && identity < identityCountLocked() ? nameLocked(identity) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    //number of embeddings
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rowCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int identityCount() {
+        lock.readLock().lock();
+        try {
+            return identityCountLocked();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //true when queries use the IVF index
+    public boolean isApproximate() {
+        lock.readLock().lock();
+        try {
+            return centroids != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //copy of row, normalized
+    public float[] embedding(int row) {
+        lock.readLock().lock();
+        try {
+            float[] copy = new float[dimension];
+            for (int i = 0; i < dimension; i++) {
+                copy[i] = rowValue(row, i);
+            }
+            return copy;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int identityOf(int row) {
+        lock.readLock().lock();
+        try {
+            return identityLocked(row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void appendRow(float[] embedding, int identity) {
+        int tailCount = rowCount - baseCount;
+        if (tailCount == rowIdentity.length) {
+            grow(tailCount);
+        }
+        float norm = norm(embedding, 0, dimension);
+        int offset = tailCount * dimension;
+        for (int i = 0; i < dimension; i++) {
+            rows.put(offset + i, norm == 0 ? 0 : embedding[i] / norm);
+        }
+        rowIdentity[tailCount] = identity;
+        rowCount++;
+
+        if (ivfMinRows > 0 && rowCount >= ivfMinRows && (centroids == null || rowCount >= 2 * indexedRows)) {
+            buildIndex();
+        } else if (centroids != null) {
+            addToList(nearestCentroid(rowCount - 1), rowCount - 1);
+        }
+    }
+
+    private void grow(int tailCount) {
+        int capacity = rowIdentity.length * 2;
+        FloatBuffer bigger = allocateRows(capacity * dimension);
+        for (int i = 0; i < tailCount * dimension; i++) {
+            bigger.put(i, rows.get(i));
+        }
+        rows = bigger;
+        int[] biggerIdentity = new int[capacity];
+        System.arraycopy(rowIdentity, 0, biggerIdentity, 0, tailCount);
+        rowIdentity = biggerIdentity;
+    }
+
+    //k-means over the stored rows, a few rounds are enough to spread them over the lists
+    private void buildIndex() {
+        int listCount = Math.min(ivfLists, rowCount);
+        centroids = new float[listCount * dimension];
+        Random random = new Random(rowCount);
+        for (int l = 0; l < listCount; l++) {
+            int row = random.nextInt(rowCount);
+            for (int i = 0; i < dimension; i++) {
+                centroids[l * dimension + i] = rowValue(row, i);
+            }
+        }
+        int[] assignment = new int[rowCount];
+        for (int round = 0; round < 8; round++) {
+            for (int row = 0; row < rowCount; row++) {
+                assignment[row] = nearestCentroid(row);
+            }
+            float[] sums = new float[listCount * dimension];
+            for (int row = 0; row < rowCount; row++) {
+                int base = assignment[row] * dimension;
+                for (int i = 0; i < dimension; i++) {
+                    sums[base + i] += rowValue(row, i);
+                }
+            }
+            //centroids stay normalized so a dot product is a cosine
+            for (int l = 0; l < listCount; l++) {
+                float norm = norm(sums, l * dimension, dimension);
+                if (norm > 0) {
+                    for (int i = 0; i < dimension; i++) {
+                        centroids[l * dimension + i] = sums[l * dimension + i] / norm;
+                    }
+                }
+            }
+        }
+        lists = new int[listCount][];
+        listSizes = new int[listCount];
+        for (int l = 0; l < listCount; l++) {
+            lists[l] = new int[16];
+        }
+        for (int row = 0; row < rowCount; row++) {
+            addToList(nearestCentroid(row), row);
+        }
+        indexedRows = rowCount;
+    }
+
+    private void addToList(int list, int row) {
+        if (listSizes[list] == lists[list].length) {
+            int[] bigger = new int[lists[list].length * 2];
+            System.arraycopy(lists[list], 0, bigger, 0, listSizes[list]);
+            lists[list] = bigger;
+        }
+        lists[list][listSizes[list]++] = row;
+    }
+
+    private int nearestCentroid(int row) {
+        FloatBuffer buffer = row < baseCount ? baseRows : rows;
+        int base = (row < baseCount ? row : row - baseCount) * dimension;
+        int best = 0;
+        float bestDot = -Float.MAX_VALUE;
+        int listCount = centroids.length / dimension;
+        for (int l = 0; l < listCount; l++) {
+            float dot = 0;
+            int centroid = l * dimension;
+            for (int i = 0; i < dimension; i++) {
+                dot += centroids[centroid + i] * buffer.get(base + i);
+            }
+            if (dot > bestDot) {
+                bestDot = dot;
+                best = l;
+            }
+        }
+        return best;
+    }
+
+    //indices of the count centroids most similar to query
+    private int[] closestLists(float[] query, int count) {
+        int listCount = centroids.length / dimension;
+        count = Math.min(count, listCount);
+        int[] best = new int[count];
+        float[] bestDots = new float[count];
+        int found = 0;
+        for (int l = 0; l < listCount; l++) {
+            float dot = 0;
+            int centroid = l * dimension;
+            for (int i = 0; i < dimension; i++) {
+                dot += centroids[centroid + i] * query[i];
+            }
+            if (found == count && dot <= bestDots[count - 1]) {
+                continue;
+            }
+            int position = Math.min(found, count - 1);
+            while (position > 0 && bestDots[position - 1] < dot) {
+                best[position] = best[position - 1];
+                bestDots[position] = bestDots[position - 1];
+                position--;
+            }
+            best[position] = l;
+            bestDots[position] = dot;
+            if (found < count) {
+                found++;
+            }
+        }
+        return best;
+    }
+
+    private float dotRow(float[] query, int row) {
+        if (row < baseCount) {
+            return dot(query, baseRows, row * dimension, dimension);
+        }
+        return dot(query, rows, (row - baseCount) * dimension, dimension);
+    }
+
+    private float rowValue(int row, int i) {
+        if (row < baseCount) {
+            return baseRows.get(row * dimension + i);
+        }
+        return rows.get((row - baseCount) * dimension + i);
+    }
+
+    private int identityLocked(int row) {
+        return row < baseCount ? baseIdentity.get(row) : rowIdentity[row - baseCount];
+    }
+
+    private int identityCountLocked() {
+        return baseNames.size() + names.size();
+    }
+
+    private String nameLocked(int identity) {
+        return identity < baseNames.size() ? baseNames.get(identity) : names.get(identity - baseNames.size());
+    }
+
+    //dot product with four independent sums so the JIT can keep several lanes busy
+    static float dot(float[] query, FloatBuffer buffer, int base, int length) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += query[i] * buffer.get(base + i);
+            s1 += query[i + 1] * buffer.get(base + i + 1);
+            s2 += query[i + 2] * buffer.get(base + i + 2);
+            s3 += query[i + 3] * buffer.get(base + i + 3);
+        }
+        for (; i < length; i++) {
+            s0 += query[i] * buffer.get(base + i);
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private static float norm(float[] values, int offset, int length) {
+        float sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += values[offset + i] * values[offset + i];
+        }
+        return (float) Math.sqrt(sum);
+    }
+
+    private void checkDimension(float[] embedding) {
+        if (embedding.length != dimension) {
+            throw new IllegalArgumentException("embedding has " + embedding.length
+                    + " values, gallery expects " + dimension);
+        }
+    }
+
+    private static FloatBuffer allocateRows(int floats) {
+        return ByteBuffer.allocateDirect(4 * floats).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+}
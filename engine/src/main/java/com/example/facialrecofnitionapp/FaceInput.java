@@ -0,0 +1,20 @@
+package com.example.facialrecofnitionapp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+//model input of one face
+//direct buffer handed to the interpreter plus a float view of the same memory
+//instances are pooled by FacePreprocessor and reused across frames
+public class FaceInput {
+    public final ByteBuffer bytes;
+    public final FloatBuffer floats;
+
+    FaceInput(int byteSize) {
+        bytes = ByteBuffer.allocateDirect(byteSize);
+        bytes.order(ByteOrder.nativeOrder());
+        //view must be created after order is set
+        floats = bytes.asFloatBuffer();
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.facialrecofnitionapp;
+
+//runs the recognition model on a batch of faces
+//returns one row of model output per input, in the order of inputs
+public interface FaceModel {
+    float[][] run(FaceInput[] inputs);
+}
@@ -0,0 +1,190 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayDeque;
+
+//crops a face out of an rgba frame and turns it into model input without Bitmaps
+//every thread gets its own preallocated Mats and pixel array, and model input
+//buffers come from a pool, so a face allocates nothing once the pool is warm
+//
+//crop and resize are done in one warpAffine from the full frame: a crop through
+//a submat would create a new Mat header (with a finalizer) for every face
+//a frame in camera orientation gets the 90 degree turn in the same transform, so the
+//face comes out upright without turning the frame
+//
+//float models get RGB scaled to 0-1, quantized (uint8/int8) models get RGB bytes in the
+//input's quantization, written with one bulk put and a quarter of the float bandwidth
+public class FacePreprocessor {
+    private final int inputSize;
+    //element type and quantization of the model input
+    private final TensorFormat format;
+    //RGB values of one face
+    private final int valuesPerFace;
+
+    //model input buffers that are free to use
+    private final ArrayDeque<FaceInput> pool = new ArrayDeque<>();
+
+    private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            return new Workspace();
+        }
+    };
+
+    public FacePreprocessor(int inputSize, TensorFormat format) {
+        this.inputSize = inputSize;
+        this.format = format;
+        this.valuesPerFace = inputSize * inputSize * 3;
+    }
+
+    public TensorFormat getFormat() {
+        return format;
+    }
+
+    //crop face out of upright rgba frame, scale it to input size and write it in the model's input format
+    //returned input must be given back with recycle() once the model has read it
+    public FaceInput preprocess(Mat rgba, Rect face) {
+        return preprocess(rgba, face, false);
+    }
+
+    //same for a frame that is upright after a 90 degree clockwise turn (see FrameContext.rotated),
+    //face is in upright coordinates
+    public FaceInput preprocess(Mat rgba, Rect face, boolean rotated) {
+        Workspace workspace = workspaces.get();
+        workspace.cropAndResize(rgba, face, rotated);
+
+        FaceInput input = acquire();
+        //one bulk put instead of a put per channel
+        if (format.isQuantized()) {
+            input.bytes.clear();
+            input.bytes.put(workspace.quantizedPixels);
+        } else {
+            input.floats.clear();
+            input.floats.put(workspace.pixels);
+        }
+        input.bytes.rewind();
+        return input;
+    }
+
+    //give one model input buffer back to the pool
+    public void recycle(FaceInput input) {
+        synchronized (pool) {
+            pool.push(input);
+        }
+    }
+
+    //give model input buffers back to the pool, null entries are skipped
+    public void recycle(FaceInput[] inputs) {
+        synchronized (pool) {
+            for (FaceInput input : inputs) {
+                if (input != null) {
+                    pool.push(input);
+                }
+            }
+        }
+    }
+
+    //free native Mats of the calling thread, call before a worker thread exits
+    public void releaseWorkspace() {
+        Workspace workspace = workspaces.get();
+        workspace.release();
+        workspaces.remove();
+    }
+
+    private FaceInput acquire() {
+        synchronized (pool) {
+            FaceInput input = pool.poll();
+            if (input != null) {
+                return input;
+            }
+        }
+        return new FaceInput(format.type.bytes * valuesPerFace);
+    }
+
+    //per thread scratch memory
+    private class Workspace {
+        //2x3 transform that maps the face rect onto the input size square
+        final Mat affine = new Mat(2, 3, CvType.CV_64F);
+        final double[] affineValues = new double[6];
+        final Size inputDims = new Size(inputSize, inputSize);
+        //face scaled to input size, still rgba
+        final Mat resized = new Mat(inputSize, inputSize, CvType.CV_8UC4);
+        final Mat rgb = new Mat(inputSize, inputSize, CvType.CV_8UC3);
+        //float models
+        final Mat rgbFloat = format.isQuantized() ? null : new Mat(inputSize, inputSize, CvType.CV_32FC3);
+        final float[] pixels = format.isQuantized() ? null : new float[valuesPerFace];
+        //quantized models, rgb itself when the pixels need no conversion
+        final Mat rgbQuantized = quantizedMat();
+        final byte[] quantizedPixels = format.isQuantized() ? new byte[valuesPerFace] : null;
+        final Scalar border = new Scalar(0, 0, 0, 0);
+
+        void cropAndResize(Mat rgba, Rect face, boolean rotated) {
+            double scaleX = (double) inputSize / face.width;
+            double scaleY = (double) inputSize / face.height;
+            if (rotated) {
+                //upright (x, y) is frame (column y, row rows - 1 - x)
+                int last = rgba.rows() - 1;
+                affineValues[0] = 0;
+                affineValues[1] = -scaleX;
+                affineValues[2] = (last - face.x) * scaleX;
+                affineValues[3] = scaleY;
+                affineValues[4] = 0;
+                affineValues[5] = -face.y * scaleY;
+            } else {
+                affineValues[0] = scaleX;
+                affineValues[1] = 0;
+                affineValues[2] = -face.x * scaleX;
+                affineValues[3] = 0;
+                affineValues[4] = scaleY;
+                affineValues[5] = -face.y * scaleY;
+            }
+            affine.put(0, 0, affineValues);
+            //nearest neighbour, same as createScaledBitmap without filter
+            Imgproc.warpAffine(rgba, resized, affine, inputDims, Imgproc.INTER_NEAREST,
+                    Core.BORDER_CONSTANT, border);
+            Imgproc.cvtColor(resized, rgb, Imgproc.COLOR_RGBA2RGB);
+            if (format.isQuantized()) {
+                if (rgbQuantized != rgb) {
+                    //pixel/255 in the input's scale and zero point, saturated to the byte range
+                    rgb.convertTo(rgbQuantized, rgbQuantized.type(), format.pixelAlpha(), format.pixelBeta());
+                }
+                rgbQuantized.get(0, 0, quantizedPixels);
+            } else {
+                //scaling pixels from 0-255 to 0-1
+                rgb.convertTo(rgbFloat, CvType.CV_32FC3, 1.0 / 255.0);
+                rgbFloat.get(0, 0, pixels);
+            }
+        }
+
+        //target of the quantization, null for float models
+        private Mat quantizedMat() {
+            if (!format.isQuantized()) {
+                return null;
+            }
+            if (format.type == TensorFormat.Type.UINT8 && format.pixelAlpha() == 1 && format.pixelBeta() == 0) {
+                return rgb;
+            }
+            int type = format.type == TensorFormat.Type.UINT8 ? CvType.CV_8UC3 : CvType.CV_8SC3;
+            return new Mat(inputSize, inputSize, type);
+        }
+
+        void release() {
+            affine.release();
+            resized.release();
+            if (rgbQuantized != null && rgbQuantized != rgb) {
+                rgbQuantized.release();
+            }
+            rgb.release();
+            if (rgbFloat != null) {
+                rgbFloat.release();
+            }
+        }
+    }
+}
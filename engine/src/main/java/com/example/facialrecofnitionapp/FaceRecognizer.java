@@ -0,0 +1,18 @@
+package com.example.facialrecofnitionapp;
+
+import java.io.Closeable;
+
+//detects and identifies the faces of a stream of frames
+//implementations keep tracks and identities between calls, so frames of one stream
+//are passed in order from one thread at a time
+public interface FaceRecognizer extends Closeable {
+    //faces of frame with their names, rects are in upright frame coordinates
+    RecognizedFace[] recognize(Frame frame);
+
+    //forget tracked faces and cached identities, e.g. when the stream restarts
+    void reset();
+
+    //free native memory, the model is owned and closed by whoever created it
+    @Override
+    void close();
+}
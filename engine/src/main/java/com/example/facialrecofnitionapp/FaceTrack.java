@@ -0,0 +1,27 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+//one face followed across frames by FaceTracker
+//rect is in the coordinates of the detection image (pyramid level), not the full frame
+class FaceTrack {
+    final int id;
+    Rect rect;
+    //gray patch of the face taken at the last detection
+    final Mat template = new Mat();
+    //matchTemplate output, reused between frames
+    final Mat matchResult = new Mat();
+    //score of the last template match, 1 right after a detection
+    double confidence = 1;
+
+    FaceTrack(int id, Rect rect) {
+        this.id = id;
+        this.rect = rect;
+    }
+
+    void release() {
+        template.release();
+        matchResult.release();
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+
+//follows faces between cascade passes so detection only runs every N frames
+//after a detection each face keeps a gray template, on the frames in between the template
+//is searched with matchTemplate in a window around the last position
+//detection runs again when the interval is over or a match score drops under minConfidence
+//tracks keep their id while detections overlap them, so later stages can reuse work per id
+//
+//works on the detection image (a pyramid level), where matching is cheap
+//not thread safe, used by the detect stage only
+public class FaceTracker {
+    //run full detection every detectionInterval frames, 1 detects every frame
+    private volatile int detectionInterval;
+    //template match score (TM_CCOEFF_NORMED) under which a track is not trusted
+    private final double minConfidence;
+    //search window is the face grown by this fraction of its size on each side
+    private final double searchMargin;
+    //a detection keeps the id of a track when they overlap at least this much
+    private static final double MATCH_IOU = 0.3;
+
+    private final ArrayList<FaceTrack> tracks = new ArrayList<>();
+    private int nextId = 1;
+    private int framesSinceDetection = 0;
+    private boolean forceDetection = true;
+    //width of the detection image the templates were cut from
+    private int imageWidth = -1;
+
+    public FaceTracker(int detectionInterval, double minConfidence, double searchMargin) {
+        this.detectionInterval = Math.max(1, detectionInterval);
+        this.minConfidence = minConfidence;
+        this.searchMargin = searchMargin;
+    }
+
+    public static FaceTracker defaults() {
+        return new FaceTracker(5, 0.6, 0.5);
+    }
+
+    public void setDetectionInterval(int detectionInterval) {
+        this.detectionInterval = Math.max(1, detectionInterval);
+    }
+
+    public int getDetectionInterval() {
+        return detectionInterval;
+    }
+
+    //true when this frame needs a full cascade pass
+    public boolean needsDetection(Mat detectGray) {
+        return forceDetection
+                || detectGray.cols() != imageWidth
+                || framesSinceDetection + 1 >= detectionInterval;
+    }
+
+    //take the result of a full detection, matching faces to existing tracks by overlap
+    public void update(Mat detectGray, Rect[] detections, int[] idsOut) {
+        ArrayList<FaceTrack> previous = new ArrayList<>(tracks);
+        tracks.clear();
+        for (int i = 0; i < detections.length; i++) {
+            FaceTrack track = takeBestOverlap(previous, detections[i]);
+            if (track == null) {
+                track = new FaceTrack(nextId++, detections[i]);
+            }
+            track.rect = detections[i];
+            track.confidence = 1;
+            Mat patch = detectGray.submat(track.rect);
+            patch.copyTo(track.template);
+            patch.release();
+            tracks.add(track);
+            idsOut[i] = track.id;
+        }
+        //faces that were not detected again are gone
+        for (FaceTrack lost : previous) {
+            lost.release();
+        }
+        imageWidth = detectGray.cols();
+        framesSinceDetection = 0;
+        forceDetection = false;
+    }
+
+    //move every track to its best template match in this frame
+    public Rect[] track(Mat detectGray, int[] idsOut) {
+        framesSinceDetection++;
+        Rect[] rects = new Rect[tracks.size()];
+        for (int i = 0; i < tracks.size(); i++) {
+            FaceTrack track = tracks.get(i);
+            Rect window = searchWindow(track.rect, detectGray);
+            if (window.width >= track.rect.width && window.height >= track.rect.height) {
+                Mat search = detectGray.submat(window);
+                Imgproc.matchTemplate(search, track.template, track.matchResult, Imgproc.TM_CCOEFF_NORMED);
+                search.release();
+                Core.MinMaxLocResult best = Core.minMaxLoc(track.matchResult);
+                track.confidence = best.maxVal;
+                track.rect = new Rect(window.x + (int) best.maxLoc.x, window.y + (int) best.maxLoc.y,
+                        track.rect.width, track.rect.height);
+            } else {
+                //face is cut off by the frame edge, let the cascade find it again
+                track.confidence = 0;
+            }
+            if (track.confidence < minConfidence) {
+                forceDetection = true;
+            }
+            rects[i] = track.rect.clone();
+            idsOut[i] = track.id;
+        }
+        return rects;
+    }
+
+    //faces where the last frame left them, in detection image coordinates
+    public Rect[] trackRects() {
+        Rect[] rects = new Rect[tracks.size()];
+        for (int i = 0; i < rects.length; i++) {
+            rects[i] = tracks.get(i).rect;
+        }
+        return rects;
+    }
+
+    public int trackCount() {
+        return tracks.size();
+    }
+
+    //forget all tracks, next frame runs a full detection
+    public void reset() {
+        for (FaceTrack track : tracks) {
+            track.release();
+        }
+        tracks.clear();
+        forceDetection = true;
+    }
+
+    private Rect searchWindow(Rect face, Mat image) {
+        int marginX = (int) (face.width * searchMargin);
+        int marginY = (int) (face.height * searchMargin);
+        int x = Math.max(0, face.x - marginX);
+        int y = Math.max(0, face.y - marginY);
+        int right = Math.min(image.cols(), face.x + face.width + marginX);
+        int bottom = Math.min(image.rows(), face.y + face.height + marginY);
+        return new Rect(x, y, right - x, bottom - y);
+    }
+
+    private static FaceTrack takeBestOverlap(ArrayList<FaceTrack> candidates, Rect detection) {
+        FaceTrack best = null;
+        double bestIou = MATCH_IOU;
+        for (FaceTrack candidate : candidates) {
+            double iou = intersectionOverUnion(candidate.rect, detection);
+            if (iou >= bestIou) {
+                best = candidate;
+                bestIou = iou;
+            }
+        }
+        if (best != null) {
+            candidates.remove(best);
+        }
+        return best;
+    }
+
+    static double intersectionOverUnion(Rect a, Rect b) {
+        int left = Math.max(a.x, b.x);
+        int top = Math.max(a.y, b.y);
+        int right = Math.min(a.x + a.width, b.x + b.width);
+        int bottom = Math.min(a.y + a.height, b.y + b.height);
+        if (right <= left || bottom <= top) {
+            return 0;
+        }
+        double intersection = (double) (right - left) * (bottom - top);
+        double union = (double) a.width * a.height + (double) b.width * b.height - intersection;
+        return intersection / union;
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.facialrecofnitionapp;
+
+import java.nio.ByteBuffer;
+
+//one camera or video frame handed to a FaceRecognizer
+//data is a direct buffer holding height rows of stride bytes (NV21: the Y rows followed by
+//the interleaved VU rows at the same stride), so camera and decoder buffers are used as they are
+//rotation is how far the frame has to be turned clockwise (0 or 90) for faces to be upright
+public class Frame {
+    public enum Format {
+        GRAY8(1), RGB888(3), RGBA8888(4), NV21(1);
+
+        //bytes per pixel of the first plane
+        public final int pixelBytes;
+
+        Format(int pixelBytes) {
+            this.pixelBytes = pixelBytes;
+        }
+    }
+
+    public final ByteBuffer data;
+    public final int width;
+    public final int height;
+    //bytes from the start of one row to the next, a whole number of pixels
+    public final int stride;
+    public final Format format;
+    public final int rotation;
+
+    public Frame(ByteBuffer data, int width, int height, int stride, Format format, int rotation) {
+        if (!data.isDirect()) {
+            throw new IllegalArgumentException("frame data must be a direct buffer");
+        }
+        if (stride < width * format.pixelBytes) {
+            throw new IllegalArgumentException("stride " + stride + " is shorter than a row of " + width + " pixels");
+        }
+        if (stride % format.pixelBytes != 0) {
+            throw new IllegalArgumentException("stride " + stride + " is not a whole number of "
+                    + format.pixelBytes + " byte pixels");
+        }
+        if (data.capacity() < (long) stride * rows(format, height)) {
+            throw new IllegalArgumentException("buffer of " + data.capacity() + " bytes is too small for the frame");
+        }
+        if (rotation != 0 && rotation != 90) {
+            throw new IllegalArgumentException("unsupported rotation " + rotation);
+        }
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.format = format;
+        this.rotation = rotation;
+    }
+
+    //tightly packed frame that needs no rotation
+    public Frame(ByteBuffer data, int width, int height, Format format) {
+        this(data, width, height, width * format.pixelBytes, format, 0);
+    }
+
+    //width of the frame once it is upright
+    public int uprightWidth() {
+        return rotation == 90 ? height : width;
+    }
+
+    public int uprightHeight() {
+        return rotation == 90 ? width : height;
+    }
+
+    //rows of the buffer, NV21 has half height chroma rows below the luma rows
+    static int rows(Format format, int height) {
+        return format == Format.NV21 ? height + height / 2 : height;
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+
+//native working memory for one frame, sized once from onCameraViewStarted(width, height)
+//and reused for every frame so recognition does not allocate Mats per frame
+//
+//the frame stays in the orientation it arrived in: a camera frame is never turned upright as
+//a whole, only the small detection image is (see detectionImage) and face rects are mapped
+//onto the frame where they are cropped (FacePreprocessor) and drawn (FaceAnnotator)
+//rects handed out by the engine are always in upright coordinates
+public class FrameContext {
+    //size of the frame as it arrives
+    public final int width;
+    public final int height;
+    //true for camera frames that are upright after turning them 90 degree clockwise
+    public final boolean rotated;
+    //rgba and gray frame the stages read: the buffers below after load(),
+    //the caller's own Mats after wrap()
+    Mat rgba;
+    Mat gray;
+    //frame buffers owned by the context
+    final Mat rgbaBuffer;
+    final Mat grayBuffer;
+    //pyrDown levels of gray used for detection, created the first time a level is needed
+    private final ArrayList<Mat> pyramid = new ArrayList<>();
+    //detection level turned upright, only used for rotated frames
+    private final Mat detectUpright = new Mat();
+    //color frame scaled for a dnn detector before it is turned upright
+    private final Mat scaled = new Mat();
+    private final Size scaledSize = new Size();
+    //output of detectMultiScale
+    final MatOfRect faces = new MatOfRect();
+    final Size minFaceSize = new Size();
+    final Size maxFaceSize = new Size();
+
+    //camera frame, faces are upright after a 90 degree turn
+    public FrameContext(int width, int height) {
+        this(width, height, true);
+    }
+
+    public FrameContext(int width, int height, boolean rotated) {
+        this.width = width;
+        this.height = height;
+        this.rotated = rotated;
+        rgbaBuffer = new Mat(height, width, CvType.CV_8UC4);
+        grayBuffer = new Mat(height, width, CvType.CV_8UC1);
+        rgba = rgbaBuffer;
+        gray = grayBuffer;
+    }
+
+    public boolean fits(int width, int height) {
+        return this.width == width && this.height == height;
+    }
+
+    public boolean fits(int width, int height, boolean rotated) {
+        return fits(width, height) && this.rotated == rotated;
+    }
+
+    //size of the frame once it is upright, the coordinate space of face rects
+    public int uprightWidth() {
+        return rotated ? height : width;
+    }
+
+    public int uprightHeight() {
+        return rotated ? width : height;
+    }
+
+    //copy a frame in, for callers that hand their buffers back before the stages ran
+    //gray is the camera's luminance plane, null converts it from rgba
+    public void load(Mat rgba, Mat gray) {
+        rgba.copyTo(rgbaBuffer);
+        this.rgba = rgbaBuffer;
+        if (gray != null) {
+            gray.copyTo(grayBuffer);
+        } else {
+            Imgproc.cvtColor(rgbaBuffer, grayBuffer, Imgproc.COLOR_RGBA2GRAY);
+        }
+        this.gray = grayBuffer;
+    }
+
+    //use the caller's Mats without copying, they must stay untouched until the frame is preprocessed
+    //gray null converts it from rgba
+    public void wrap(Mat rgba, Mat gray) {
+        this.rgba = rgba;
+        if (gray != null) {
+            this.gray = gray;
+        } else {
+            Imgproc.cvtColor(rgba, grayBuffer, Imgproc.COLOR_RGBA2GRAY);
+            this.gray = grayBuffer;
+        }
+    }
+
+    //Mat for pyramid level (1 is gray halved once), reused between frames
+    Mat pyramidLevel(int level) {
+        while (pyramid.size() < level) {
+            pyramid.add(new Mat());
+        }
+        return pyramid.get(level - 1);
+    }
+
+    //upright copy of a detection level, the level is small so turning it costs little
+    Mat uprightLevel(Mat level) {
+        if (!rotated) {
+            return level;
+        }
+        Core.rotate(level, detectUpright, Core.ROTATE_90_CLOCKWISE);
+        return detectUpright;
+    }
+
+    //rgba frame scaled to size (upright) and turned upright into dst, for detectors that
+    //need color; the frame is scaled first so only the small image is turned
+    void resizeUpright(Mat dst, Size size) {
+        if (!rotated) {
+            Imgproc.resize(rgba, dst, size, 0, 0, Imgproc.INTER_AREA);
+            return;
+        }
+        scaledSize.width = size.height;
+        scaledSize.height = size.width;
+        Imgproc.resize(rgba, scaled, scaledSize, 0, 0, Imgproc.INTER_AREA);
+        Core.rotate(scaled, dst, Core.ROTATE_90_CLOCKWISE);
+    }
+
+    public void release() {
+        rgbaBuffer.release();
+        grayBuffer.release();
+        rgba = rgbaBuffer;
+        gray = grayBuffer;
+        detectUpright.release();
+        scaled.release();
+        faces.release();
+        for (Mat level : pyramid) {
+            level.release();
+        }
+        pyramid.clear();
+    }
+}
@@ -0,0 +1,365 @@
+package com.example.facialrecofnitionapp;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+//keeps the pipeline within a per-frame budget, e.g. 33 ms for 30 fps, by trading detection and
+//recognition quality for time, and gives the quality back once there is headroom
+//
+//what is held to the budget is the time a frame occupies the pipeline: in a pipelined run
+//(FacePipeline, one thread per stage) the stages of consecutive frames overlap, so the frame
+//rate is set by the slowest stage, and its p90 is judged; capture to result latency there is
+//the sum of the stages plus the waits between them and may exceed the budget at full frame
+//rate; a sequential run (every stage on one thread) is judged on its p90 frame latency
+//
+//it listens to PipelineMetrics and decides once per window of frames on that p90:
+//- over budget: one step down on the ladder of the stage that took longest
+//  detection: detect less often, then on a smaller image, then leave cores to detection by
+//  running fewer interpreters in parallel; recognition: classify fewer faces per frame
+//  (the others keep their cached identity until a later frame has room for them)
+//  a ladder at its floor falls back to the other one
+//- under headroom x budget for recoverWindows windows in a row: the last step is undone,
+//  steps come back in reverse order until the baseline is reached
+//- in between: nothing changes, so a small swing does not flip settings back and forth
+//the window after a change is not judged, frames in flight still ran with the old settings;
+//a step that was undone and failed again at once waits twice as long before the next try
+//
+//no clock and no randomness: the same trace of latencies gives the same decisions, every
+//decision is kept with its reason (recentDecisions, writeTo) and handed to the Target
+public class FrameGovernor implements PipelineMetrics.Listener {
+    //frame latency percentile the budget applies to
+    static final double PERCENTILE = 0.9;
+    //below this fraction of the budget the pipeline has headroom
+    static final double HEADROOM = 0.7;
+    static final int RECOVER_WINDOWS = 3;
+    static final int MAX_RECOVER_WINDOWS = 48;
+    //decisions kept for the overlay and the metrics dump
+    static final int KEPT_DECISIONS = 16;
+
+    //knobs the governor turns, immutable so the pipeline threads always see a consistent set
+    public static final class Settings {
+        //long edge of the detection image (see DetectionConfig)
+        public final int detectionLongEdge;
+        //frames between full detections (see FaceTracker)
+        public final int detectionInterval;
+        //faces classified per frame, 0 means no limit (see RecognitionEngine.setMaxFacesPerFrame)
+        public final int maxFaces;
+        //interpreters of InterpreterPool running the faces of a frame in parallel
+        public final int interpreters;
+
+        public Settings(int detectionLongEdge, int detectionInterval, int maxFaces, int interpreters) {
+            this.detectionLongEdge = detectionLongEdge;
+            this.detectionInterval = detectionInterval;
+            this.maxFaces = maxFaces;
+            this.interpreters = interpreters;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Settings)) {
+                return false;
+            }
+            Settings settings = (Settings) other;
+            return detectionLongEdge == settings.detectionLongEdge
+                    && detectionInterval == settings.detectionInterval
+                    && maxFaces == settings.maxFaces
+                    && interpreters == settings.interpreters;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((detectionLongEdge * 31 + detectionInterval) * 31 + maxFaces) * 31 + interpreters;
+        }
+
+        @Override
+        public String toString() {
+            return "edge " + detectionLongEdge + " every " + detectionInterval
+                    + " faces " + (maxFaces > 0 ? String.valueOf(maxFaces) : "all") + " x" + interpreters;
+        }
+    }
+
+    //one change of settings and why it was made
+    public static final class Decision {
+        //number of the window that led to it, counted from 1
+        public final long window;
+        public final String action;
+        public final String reason;
+        public final Settings settings;
+
+        Decision(long window, String action, String reason, Settings settings) {
+            this.window = window;
+            this.action = action;
+            this.reason = reason;
+            this.settings = settings;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + window + " " + action + " (" + reason + ") -> " + settings;
+        }
+    }
+
+    //applies new settings to the pipeline, called on the thread that finished the window
+    public interface Target {
+        void apply(Settings settings, Decision decision);
+    }
+
+    private final long budgetMicros;
+    private final int windowFrames;
+    private final Settings baseline;
+    //lowest quality each knob may reach: smallest edge, longest interval, fewest faces, interpreters
+    private final Settings floor;
+    private final Target target;
+    //stages run on their own threads, judged on the slowest stage instead of the frame latency
+    private final boolean pipelined;
+
+    private Settings settings;
+    //settings before every step that is still in effect, the newest on top
+    private final ArrayDeque<Settings> steps = new ArrayDeque<>();
+    private final ArrayDeque<Decision> decisions = new ArrayDeque<>();
+
+    //current window, in microseconds
+    private final LogHistogram windowLatency = new LogHistogram();
+    private final long[] windowStageMicros = new long[PipelineMetrics.Stage.values().length];
+    private final LogHistogram[] windowStages = new LogHistogram[PipelineMetrics.Stage.values().length];
+    private int windowMaxFaces = 0;
+    private long windows = 0;
+    private long lastLatency = 0;
+    //the window after a change is measured but not judged
+    private boolean settling = false;
+    private int calmWindows = 0;
+    private int recoverAfter = RECOVER_WINDOWS;
+    //a step was undone and the next judged window decides whether it held
+    private boolean restored = false;
+    private boolean atFloor = false;
+
+    //pipelined, like the live FacePipeline
+    public FrameGovernor(long budgetMicros, int windowFrames, Settings baseline, Settings floor, Target target) {
+        this(budgetMicros, windowFrames, baseline, floor, true, target);
+    }
+
+    public FrameGovernor(long budgetMicros, int windowFrames, Settings baseline, Settings floor, boolean pipelined,
+                         Target target) {
+        this.budgetMicros = budgetMicros;
+        this.windowFrames = Math.max(1, windowFrames);
+        this.baseline = baseline;
+        this.floor = floor;
+        this.pipelined = pipelined;
+        this.target = target;
+        this.settings = baseline;
+        for (int i = 0; i < windowStages.length; i++) {
+            windowStages[i] = new LogHistogram();
+        }
+    }
+
+    //budget in milliseconds for a pipelined run, one decision per second at 30 fps, floor of a
+    //160px detection image, detection every 10th frame, one face and one interpreter
+    public static FrameGovernor forBudget(double budgetMillis, Settings baseline, Target target) {
+        return new FrameGovernor((long) (budgetMillis * 1000), 30, baseline, new Settings(160, 10, 1, 1), target);
+    }
+
+    @Override
+    public synchronized void stageFinished(PipelineMetrics.Stage stage, long micros) {
+        windowStageMicros[stage.ordinal()] += micros;
+        windowStages[stage.ordinal()].record(micros);
+    }
+
+    @Override
+    public synchronized void frameFinished(long latencyMicros, int faces) {
+        windowLatency.record(latencyMicros);
+        windowMaxFaces = Math.max(windowMaxFaces, faces);
+        if (windowLatency.count() >= windowFrames) {
+            evaluate();
+            windowLatency.reset();
+            Arrays.fill(windowStageMicros, 0);
+            for (LogHistogram stage : windowStages) {
+                stage.reset();
+            }
+            windowMaxFaces = 0;
+        }
+    }
+
+    private void evaluate() {
+        windows++;
+        lastLatency = pipelined ? slowestStage() : windowLatency.percentile(PERCENTILE);
+        if (settling) {
+            settling = false;
+            return;
+        }
+        if (lastLatency > budgetMicros) {
+            calmWindows = 0;
+            if (restored) {
+                //the step that was given back did not fit, wait longer before the next try
+                recoverAfter = Math.min(recoverAfter * 2, MAX_RECOVER_WINDOWS);
+            }
+            restored = false;
+            degrade();
+        } else {
+            if (restored) {
+                recoverAfter = RECOVER_WINDOWS;
+                restored = false;
+            }
+            if (lastLatency < budgetMicros * HEADROOM && !steps.isEmpty()) {
+                if (++calmWindows >= recoverAfter) {
+                    calmWindows = 0;
+                    restore();
+                }
+            } else {
+                calmWindows = 0;
+            }
+        }
+    }
+
+    //p90 of the stage that limits the frame rate of a pipelined run
+    private long slowestStage() {
+        long slowest = 0;
+        for (LogHistogram stage : windowStages) {
+            slowest = Math.max(slowest, stage.percentile(PERCENTILE));
+        }
+        return slowest;
+    }
+
+    private void degrade() {
+        boolean detectionHeavy = stageMicros(PipelineMetrics.Stage.DETECT)
+                >= stageMicros(PipelineMetrics.Stage.PREPROCESS) + stageMicros(PipelineMetrics.Stage.INFER);
+        String reason = reason(detectionHeavy ? "detect" : "recognition");
+        Settings next = detectionHeavy ? detectionStep() : recognitionStep();
+        if (next == null) {
+            next = detectionHeavy ? recognitionStep() : detectionStep();
+        }
+        if (next == null) {
+            //already at the floor, said once until something is given back
+            if (!atFloor) {
+                atFloor = true;
+                record("at floor", reason, settings);
+            }
+            return;
+        }
+        steps.push(settings);
+        change(describe(settings, next), reason, next);
+    }
+
+    private void restore() {
+        Settings previous = steps.pop();
+        atFloor = false;
+        restored = true;
+        change(describe(settings, previous), String.format(Locale.US, "p90 %.1f ms < %.1f ms for %d windows",
+                lastLatency / 1000.0, budgetMicros * HEADROOM / 1000.0, recoverAfter), previous);
+    }
+
+    //next step down on the detection ladder, null at its floor
+    private Settings detectionStep() {
+        Settings current = settings;
+        if (current.detectionInterval < floor.detectionInterval) {
+            return new Settings(current.detectionLongEdge,
+                    Math.min(current.detectionInterval * 2, floor.detectionInterval), current.maxFaces,
+                    current.interpreters);
+        }
+        if (current.detectionLongEdge / 2 >= floor.detectionLongEdge) {
+            return new Settings(current.detectionLongEdge / 2, current.detectionInterval, current.maxFaces,
+                    current.interpreters);
+        }
+        if (current.interpreters > floor.interpreters) {
+            return new Settings(current.detectionLongEdge, current.detectionInterval, current.maxFaces,
+                    current.interpreters - 1);
+        }
+        return null;
+    }
+
+    //next step down on the recognition ladder, null at its floor
+    //the first limit is half the most faces seen in the window, so it bites right away
+    private Settings recognitionStep() {
+        Settings current = settings;
+        int faces = current.maxFaces > 0 ? current.maxFaces : windowMaxFaces;
+        int limit = Math.max(floor.maxFaces, faces / 2);
+        if (limit >= faces) {
+            return null;
+        }
+        return new Settings(current.detectionLongEdge, current.detectionInterval, limit, current.interpreters);
+    }
+
+    private void change(String action, String reason, Settings next) {
+        settings = next;
+        settling = true;
+        Decision decision = record(action, reason, next);
+        if (target != null) {
+            target.apply(next, decision);
+        }
+    }
+
+    private Decision record(String action, String reason, Settings result) {
+        Decision decision = new Decision(windows, action, reason, result);
+        if (decisions.size() == KEPT_DECISIONS) {
+            decisions.removeFirst();
+        }
+        decisions.addLast(decision);
+        return decision;
+    }
+
+    private String reason(String heaviest) {
+        return String.format(Locale.US, "p90 %.1f ms > %.1f ms, %s heaviest", lastLatency / 1000.0,
+                budgetMicros / 1000.0, heaviest);
+    }
+
+    //the knob that differs, e.g. "interval 5 -> 10"
+    private static String describe(Settings from, Settings to) {
+        if (from.detectionInterval != to.detectionInterval) {
+            return "interval " + from.detectionInterval + " -> " + to.detectionInterval;
+        }
+        if (from.detectionLongEdge != to.detectionLongEdge) {
+            return "edge " + from.detectionLongEdge + " -> " + to.detectionLongEdge;
+        }
+        if (from.interpreters != to.interpreters) {
+            return "interpreters " + from.interpreters + " -> " + to.interpreters;
+        }
+        return "faces " + (from.maxFaces > 0 ? String.valueOf(from.maxFaces) : "all")
+                + " -> " + (to.maxFaces > 0 ? String.valueOf(to.maxFaces) : "all");
+    }
+
+    private long stageMicros(PipelineMetrics.Stage stage) {
+        return windowStageMicros[stage.ordinal()];
+    }
+
+    public synchronized Settings getSettings() {
+        return settings;
+    }
+
+    public Settings getBaseline() {
+        return baseline;
+    }
+
+    public long getBudgetMicros() {
+        return budgetMicros;
+    }
+
+    //steps below the baseline that are in effect
+    public synchronized int getLevel() {
+        return steps.size();
+    }
+
+    //oldest first
+    public synchronized List<Decision> recentDecisions() {
+        return new ArrayList<>(decisions);
+    }
+
+    //one line for the metrics overlay
+    public synchronized String summary() {
+        Decision last = decisions.peekLast();
+        return String.format(Locale.US, "budget %.0f ms p90 %.1f  level %d  %s%s", budgetMicros / 1000.0,
+                lastLatency / 1000.0, steps.size(), settings, last != null ? "  last " + last.action : "");
+    }
+
+    //settings and recent decisions for the metrics dump
+    public synchronized void writeTo(Writer writer) throws IOException {
+        writer.write(String.format(Locale.US, "%ngovernor: budget %.1f ms, baseline %s, now %s, %d window(s)%n",
+                budgetMicros / 1000.0, baseline, settings, windows));
+        for (Decision decision : decisions) {
+            writer.write(decision + "\n");
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.facialrecofnitionapp;
+
+//frames per second over the last frames, from a ring of completion times
+public class FrameRate {
+    private final long[] times;
+    private int next = 0;
+    private int count = 0;
+
+    public FrameRate(int window) {
+        times = new long[Math.max(2, window)];
+    }
+
+    public synchronized void tick(long nanos) {
+        times[next] = nanos;
+        next = (next + 1) % times.length;
+        count = Math.min(count + 1, times.length);
+    }
+
+    //0 until two frames were seen
+    public synchronized double perSecond() {
+        if (count < 2) {
+            return 0;
+        }
+        long newest = times[(next + times.length - 1) % times.length];
+        long oldest = times[(next + times.length - count) % times.length];
+        return newest == oldest ? 0 : (count - 1) * 1e9 / (newest - oldest);
+    }
+
+    public synchronized void reset() {
+        next = 0;
+        count = 0;
+    }
+}
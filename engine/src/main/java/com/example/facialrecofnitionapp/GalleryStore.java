@@ -0,0 +1,451 @@
+package com.example.facialrecofnitionapp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+//keeps a FaceGallery on disk so it survives restarts without being rebuilt
+//
+//gallery.bin is the base file, opened with FileChannel.map like the .tflite model, so the
+//gallery scans its rows straight from the page cache and opening it does not depend on its size
+//  header   magic, version, dimension, rows, identities
+//  rows     rows * dimension floats, normalized
+//  identity one int per row
+//  names    identities + 1 offsets, then the UTF-8 bytes of every name
+//
+//every enroll is first appended to gallery.wal as a record
+//  payload length, row, crc32 of row and payload, payload (name and embedding)
+//the row number of a record is its index in the gallery, so records already in the base are
+//skipped on replay and a torn record at the end of the log (crash while writing) is cut off
+//
+//compaction writes base + log to a new base file, swaps it in with a rename and then drops
+//the log records it contains; it runs in the background once the log is long enough
+//compactions run one at a time, whichever thread starts them, and close() waits for a running one
+public class GalleryStore implements Closeable, FaceGallery.EnrollListener {
+    static final int MAGIC = 0x4C414746; //"FGAL" little endian
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 20;
+    //payload length, row, crc
+    static final int RECORD_HEADER_SIZE = 12;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File baseFile;
+    private final File walFile;
+    private final FaceGallery gallery;
+    //rows in the base file
+    private final int baseRows;
+    //compact once the log holds this many records, 0 only compacts on request
+    private final int compactAfter;
+
+    private final Object walLock = new Object();
+    private RandomAccessFile wal;
+    private int walRecords = 0;
+
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "GalleryStore-compact");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private Future<?> pendingCompaction;
+    //held for a whole compaction, two writers of the .tmp base file would tear it
+    private final Object compactLock = new Object();
+    private boolean closed = false;
+    //error of the last background compaction, null once one succeeded
+    private volatile IOException compactionFailure;
+
+    private GalleryStore(File directory, FaceGallery gallery, int baseRows, int compactAfter) {
+        this.baseFile = new File(directory, "gallery.bin");
+        this.walFile = new File(directory, "gallery.wal");
+        this.gallery = gallery;
+        this.baseRows = baseRows;
+        this.compactAfter = compactAfter;
+    }
+
+    //open the gallery in directory, creating it when it does not exist yet
+    public static GalleryStore open(File directory, int dimension, int compactAfter) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+        File baseFile = new File(directory, "gallery.bin");
+        FaceGallery gallery;
+        int baseRows = 0;
+        if (baseFile.exists()) {
+            gallery = mapBase(baseFile, dimension);
+            baseRows = gallery.size();
+        } else {
+            gallery = new FaceGallery(dimension);
+        }
+        GalleryStore store = new GalleryStore(directory, gallery, baseRows, compactAfter);
+        store.replayLog();
+        gallery.setEnrollListener(store);
+        return store;
+    }
+
+    public FaceGallery gallery() {
+        return gallery;
+    }
+
+    //records in the log that are not in the base file yet
+    public int pendingRecords() {
+        synchronized (walLock) {
+            return walRecords;
+        }
+    }
+
+    //append the enroll to the log before the gallery shows it
+    @Override
+    public void beforeEnroll(int row, String name, float[] embedding) {
+        boolean compactNow;
+        synchronized (walLock) {
+            try {
+                byte[] nameBytes = name.getBytes(UTF_8);
+                ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + 4 + nameBytes.length + 4 * embedding.length)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                int payloadLength = record.capacity() - RECORD_HEADER_SIZE;
+                record.putInt(payloadLength);
+                record.putInt(row);
+                record.putInt(0);
+                record.putInt(nameBytes.length);
+                record.put(nameBytes);
+                for (float value : embedding) {
+                    record.putFloat(value);
+                }
+                record.putInt(8, checksum(record.array(), row, RECORD_HEADER_SIZE, payloadLength));
+                wal.seek(wal.length());
+                wal.write(record.array());
+                //enroll returns only when the record is on disk
+                wal.getFD().sync();
+                walRecords++;
+            } catch (IOException e) {
+                throw new IllegalStateException("cannot write gallery log", e);
+            }
+            compactNow = compactAfter > 0 && walRecords >= compactAfter;
+        }
+        if (compactNow) {
+            compactAsync();
+        }
+    }
+
+    //compact on the background thread, returns immediately
+    //the future fails with the IOException of the compaction, see also getCompactionFailure
+    public synchronized Future<?> compactAsync() {
+        if (pendingCompaction == null || pendingCompaction.isDone()) {
+            pendingCompaction = compactor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    try {
+                        compact();
+                        compactionFailure = null;
+                    } catch (IOException e) {
+                        //log stays as it is, nothing is lost
+                        compactionFailure = e;
+                        throw e;
+                    }
+                    return null;
+                }
+            });
+        }
+        return pendingCompaction;
+    }
+
+    //why the last background compaction failed, e.g. for enrolls that triggered one; null when
+    //the last one succeeded
+    public IOException getCompactionFailure() {
+        return compactionFailure;
+    }
+
+    //write base and log to a new base file and drop the log records it now contains
+    public void compact() throws IOException {
+        synchronized (compactLock) {
+            if (closed) {
+                throw new IOException("gallery store is closed");
+            }
+            //rows are only appended, so every row below size stays as it is while writing
+            int rows = gallery.size();
+            File tmp = new File(baseFile.getPath() + ".tmp");
+            writeBase(tmp, gallery, rows);
+            if (!tmp.renameTo(baseFile)) {
+                throw new IOException("cannot replace " + baseFile);
+            }
+            synchronized (walLock) {
+                rewriteLog(rows);
+            }
+        }
+    }
+
+    //waits for a running compaction, the log is closed after it
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (compactor.awaitTermination(1, TimeUnit.SECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        gallery.setEnrollListener(null);
+        try {
+            //a compaction started on another thread finishes first
+            synchronized (compactLock) {
+                closed = true;
+                synchronized (walLock) {
+                    if (wal != null) {
+                        wal.close();
+                        wal = null;
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    //apply log records that are newer than the base and cut off a torn tail
+    private void replayLog() throws IOException {
+        synchronized (walLock) {
+            wal = new RandomAccessFile(walFile, "rw");
+            long length = wal.length();
+            long position = 0;
+            byte[] header = new byte[RECORD_HEADER_SIZE];
+            while (position + RECORD_HEADER_SIZE <= length) {
+                wal.seek(position);
+                wal.readFully(header);
+                ByteBuffer headerBuffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+                int payloadLength = headerBuffer.getInt(0);
+                int row = headerBuffer.getInt(4);
+                int crc = headerBuffer.getInt(8);
+                if (payloadLength < 4 || position + RECORD_HEADER_SIZE + payloadLength > length) {
+                    break;
+                }
+                byte[] payload = new byte[payloadLength];
+                wal.readFully(payload);
+                if (checksum(payload, row, 0, payloadLength) != crc) {
+                    break;
+                }
+                if (row >= baseRows) {
+                    if (row != gallery.size()) {
+                        //a gap means the log is not ours to trust beyond this point
+                        break;
+                    }
+                    ByteBuffer buffer = ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN);
+                    byte[] name = new byte[buffer.getInt()];
+                    buffer.get(name);
+                    float[] embedding = new float[gallery.dimension()];
+                    for (int i = 0; i < embedding.length; i++) {
+                        embedding[i] = buffer.getFloat();
+                    }
+                    gallery.enroll(new String(name, UTF_8), embedding);
+                    walRecords++;
+                }
+                position += RECORD_HEADER_SIZE + payloadLength;
+            }
+            if (position < length) {
+                wal.setLength(position);
+                wal.getFD().sync();
+            }
+        }
+    }
+
+    //keep only records for rows at or after firstRow
+    private void rewriteLog(int firstRow) throws IOException {
+        File tmp = new File(walFile.getPath() + ".tmp");
+        RandomAccessFile kept = new RandomAccessFile(tmp, "rw");
+        int keptRecords = 0;
+        try {
+            kept.setLength(0);
+            long length = wal.length();
+            long position = 0;
+            byte[] header = new byte[RECORD_HEADER_SIZE];
+            while (position + RECORD_HEADER_SIZE <= length) {
+                wal.seek(position);
+                wal.readFully(header);
+                ByteBuffer headerBuffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+                int payloadLength = headerBuffer.getInt(0);
+                int row = headerBuffer.getInt(4);
+                byte[] payload = new byte[payloadLength];
+                wal.readFully(payload);
+                if (row >= firstRow) {
+                    kept.write(header);
+                    kept.write(payload);
+                    keptRecords++;
+                }
+                position += RECORD_HEADER_SIZE + payloadLength;
+            }
+            kept.getFD().sync();
+        } finally {
+            kept.close();
+        }
+        wal.close();
+        if (!tmp.renameTo(walFile)) {
+            throw new IOException("cannot replace " + walFile);
+        }
+        wal = new RandomAccessFile(walFile, "rw");
+        walRecords = keptRecords;
+    }
+
+    //write the first rows of gallery as a base file
+    static void writeBase(File file, FaceGallery gallery, int rows) throws IOException {
+        int dimension = gallery.dimension();
+        int identities = 0;
+        int[] rowIdentity = new int[rows];
+        for (int row = 0; row < rows; row++) {
+            rowIdentity[row] = gallery.identityOf(row);
+            identities = Math.max(identities, rowIdentity[row] + 1);
+        }
+        byte[][] names = new byte[identities][];
+        int namesLength = 0;
+        for (int i = 0; i < identities; i++) {
+            names[i] = gallery.name(i).getBytes(UTF_8);
+            namesLength += names[i].length;
+        }
+
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            FileChannel channel = outputStream.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(dimension).putInt(rows).putInt(identities);
+            header.flip();
+            writeFully(channel, header);
+
+            ByteBuffer chunk = ByteBuffer.allocate(4 * dimension).order(ByteOrder.LITTLE_ENDIAN);
+            for (int row = 0; row < rows; row++) {
+                chunk.clear();
+                chunk.asFloatBuffer().put(gallery.embedding(row));
+                writeFully(channel, chunk);
+            }
+            ByteBuffer identityBuffer = ByteBuffer.allocate(4 * rows).order(ByteOrder.LITTLE_ENDIAN);
+            identityBuffer.asIntBuffer().put(rowIdentity);
+            writeFully(channel, identityBuffer);
+
+            ByteBuffer offsets = ByteBuffer.allocate(4 * (identities + 1)).order(ByteOrder.LITTLE_ENDIAN);
+            int offset = 0;
+            for (byte[] name : names) {
+                offsets.putInt(offset);
+                offset += name.length;
+            }
+            offsets.putInt(offset);
+            offsets.flip();
+            writeFully(channel, offsets);
+            ByteBuffer nameBytes = ByteBuffer.allocate(namesLength);
+            for (byte[] name : names) {
+                nameBytes.put(name);
+            }
+            nameBytes.flip();
+            writeFully(channel, nameBytes);
+            channel.force(true);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    //map a base file, nothing is read except the header
+    static FaceGallery mapBase(File file, int dimension) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        final MappedByteBuffer mapped;
+        try {
+            mapped = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+        } finally {
+            //the mapping stays valid after the file is closed
+            input.close();
+        }
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (mapped.capacity() < HEADER_SIZE || mapped.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a gallery file");
+        }
+        int version = mapped.getInt(4);
+        if (version != VERSION) {
+            throw new IOException(file + " has version " + version + ", expected " + VERSION);
+        }
+        if (mapped.getInt(8) != dimension) {
+            throw new IOException(file + " has dimension " + mapped.getInt(8) + ", expected " + dimension);
+        }
+        int rows = mapped.getInt(12);
+        final int identities = mapped.getInt(16);
+
+        int rowsStart = HEADER_SIZE;
+        int identityStart = rowsStart + 4 * rows * dimension;
+        final int offsetsStart = identityStart + 4 * rows;
+        final int namesStart = offsetsStart + 4 * (identities + 1);
+        if (namesStart > mapped.capacity()
+                || namesStart + mapped.getInt(offsetsStart + 4 * identities) > mapped.capacity()) {
+            throw new IOException(file + " is truncated");
+        }
+
+        mapped.position(rowsStart).limit(identityStart);
+        ByteBuffer rowBytes = mapped.slice().order(ByteOrder.LITTLE_ENDIAN);
+        mapped.clear();
+        mapped.position(identityStart).limit(offsetsStart);
+        ByteBuffer identityBytes = mapped.slice().order(ByteOrder.LITTLE_ENDIAN);
+        mapped.clear();
+
+        //names are decoded when they are asked for
+        AbstractList<String> names = new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                int start = mapped.getInt(offsetsStart + 4 * index);
+                int end = mapped.getInt(offsetsStart + 4 * (index + 1));
+                byte[] bytes = new byte[end - start];
+                ByteBuffer view = mapped.duplicate();
+                view.position(namesStart + start);
+                view.get(bytes);
+                return new String(bytes, UTF_8);
+            }
+
+            @Override
+            public int size() {
+                return identities;
+            }
+        };
+        return new FaceGallery(dimension, rowBytes.asFloatBuffer(), identityBytes.asIntBuffer(), names, 64);
+    }
+
+    private static int checksum(byte[] payload, int row, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(row & 0xFF);
+        crc.update((row >>> 8) & 0xFF);
+        crc.update((row >>> 16) & 0xFF);
+        crc.update((row >>> 24) & 0xFF);
+        crc.update(payload, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    //only for tests: names of the files of this store
+    File baseFile() {
+        return baseFile;
+    }
+
+    File walFile() {
+        return walFile;
+    }
+}
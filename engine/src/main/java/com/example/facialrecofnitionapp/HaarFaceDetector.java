@@ -0,0 +1,63 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.objdetect.CascadeClassifier;
+import org.opencv.objdetect.Objdetect;
+
+//Haar cascade on the gray detection image, sized by DetectionConfig
+public class HaarFaceDetector implements FaceDetector {
+    private final CascadeClassifier cascadeClassifier;
+
+    public HaarFaceDetector(CascadeClassifier cascadeClassifier) {
+        this.cascadeClassifier = cascadeClassifier;
+    }
+
+    @Override
+    public Rect[] detect(FrameContext context, Mat detectGray, DetectionConfig config) {
+        return detect(context, detectGray, null, config);
+    }
+
+    //faces inside window of detectGray (null for all of it), in detectGray coordinates
+    //face size limits stay relative to the whole image, so a window finds the same faces
+    public Rect[] detect(FrameContext context, Mat detectGray, Rect window, DetectionConfig config) {
+        int height = detectGray.height();
+
+        //faces smaller than this are ignored
+        int absoluteFaceSize = (int) (height * config.minFaceFraction);
+        if (window != null && (window.width < absoluteFaceSize || window.height < absoluteFaceSize)) {
+            return new Rect[0];
+        }
+        context.minFaceSize.width = absoluteFaceSize;
+        context.minFaceSize.height = absoluteFaceSize;
+        //0 means no upper limit
+        int maxFaceSize = (int) (height * config.maxFaceFraction);
+        context.maxFaceSize.width = maxFaceSize;
+        context.maxFaceSize.height = maxFaceSize;
+        MatOfRect faces = context.faces;
+        //a few windows per detection pass, the submat headers are not worth pooling
+        Mat image = window != null ? detectGray.submat(window) : detectGray;
+        try {
+            cascadeClassifier.detectMultiScale(image, faces, config.scaleFactor, config.minNeighbors,
+                    Objdetect.CASCADE_SCALE_IMAGE, context.minFaceSize, context.maxFaceSize);
+        } finally {
+            if (image != detectGray) {
+                image.release();
+            }
+        }
+        Rect[] found = faces.toArray();
+        if (window != null) {
+            for (Rect face : found) {
+                face.x += window.x;
+                face.y += window.y;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void close() {
+        //the classifier frees itself when collected
+    }
+}
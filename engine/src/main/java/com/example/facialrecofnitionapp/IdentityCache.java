@@ -0,0 +1,191 @@
+package com.example.facialrecofnitionapp;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+
+//remembers who each tracked face is so the model does not run on it every frame
+//a face is classified again only when reinferInterval frames passed since its last
+//inference, or when its crop changed (hamming distance of a 64 bit average hash)
+//the shown label is a majority vote over the last windowSize predictions, which stops
+//the name from flickering when the regression output sits near a boundary
+//entries are dropped as soon as their track disappears
+//
+//used from the preprocess and infer stages, so every method is synchronized
+public class IdentityCache {
+    //number of predictions in the vote
+    private final int windowSize;
+    //classify a face at least every reinferInterval frames
+    private final int reinferInterval;
+    //classify again when this many of the 64 hash bits changed
+    private final int maxHashDistance;
+
+    private final HashMap<Integer, Entry> entries = new HashMap<>();
+
+    public IdentityCache(int windowSize, int reinferInterval, int maxHashDistance) {
+        this.windowSize = Math.max(1, windowSize);
+        this.reinferInterval = Math.max(1, reinferInterval);
+        this.maxHashDistance = maxHashDistance;
+    }
+
+    public static IdentityCache defaults() {
+        return new IdentityCache(5, 15, 10);
+    }
+
+    //true when the face needs to go through the model in this frame
+    public synchronized boolean needsInference(int trackId, long hash, long frameId) {
+        Entry entry = entries.get(trackId);
+        return entry == null
+                || frameId - entry.lastInferenceFrame >= reinferInterval
+                || Long.bitCount(entry.hash ^ hash) > maxHashDistance;
+    }
+
+    //frames since the track was last classified, Long.MAX_VALUE when it never was
+    public synchronized long framesSinceInference(int trackId, long frameId) {
+        Entry entry = entries.get(trackId);
+        return entry == null ? Long.MAX_VALUE : frameId - entry.lastInferenceFrame;
+    }
+
+    //store a new prediction, returns the smoothed label of the track
+    public synchronized int record(int trackId, long hash, long frameId, int label, float score) {
+        Entry entry = entries.get(trackId);
+        if (entry == null) {
+            entry = new Entry(windowSize);
+            entries.put(trackId, entry);
+        }
+        entry.hash = hash;
+        entry.lastInferenceFrame = frameId;
+        entry.score = score;
+        entry.add(label);
+        return entry.label;
+    }
+
+    //smoothed label of the track, -1 when nothing is cached
+    public synchronized int label(int trackId) {
+        Entry entry = entries.get(trackId);
+        return entry == null ? -1 : entry.label;
+    }
+
+    //model output of the last inference of the track
+    public synchronized float score(int trackId) {
+        Entry entry = entries.get(trackId);
+        return entry == null ? 0 : entry.score;
+    }
+
+    //drop every track that is not in trackIds
+    public synchronized void retainOnly(int[] trackIds) {
+        Iterator<Integer> ids = entries.keySet().iterator();
+        while (ids.hasNext()) {
+            int id = ids.next();
+            boolean alive = false;
+            for (int trackId : trackIds) {
+                if (trackId == id) {
+                    alive = true;
+                    break;
+                }
+            }
+            if (!alive) {
+                ids.remove();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    //64 bit average hash of a face input (float RGB, inputSize x inputSize)
+    //the face is shrunk to 8x8 gray blocks and every block brighter than the mean sets a bit
+    public static long averageHash(FloatBuffer pixels, int inputSize) {
+        float[] blocks = new float[64];
+        int blockSize = Math.max(1, inputSize / 8);
+        for (int y = 0; y < blockSize * 8 && y < inputSize; y++) {
+            int row = (y / blockSize) * 8;
+            for (int x = 0; x < blockSize * 8 && x < inputSize; x++) {
+                int index = (y * inputSize + x) * 3;
+                blocks[row + x / blockSize] += pixels.get(index) + pixels.get(index + 1) + pixels.get(index + 2);
+            }
+        }
+        return hashBlocks(blocks);
+    }
+
+    //same for a quantized face input (byte RGB), signed for int8 models
+    //quantization is monotonic, so the stored bytes give the same bits as the real values
+    public static long averageHash(ByteBuffer pixels, boolean signed, int inputSize) {
+        float[] blocks = new float[64];
+        int mask = signed ? -1 : 0xff;
+        int blockSize = Math.max(1, inputSize / 8);
+        for (int y = 0; y < blockSize * 8 && y < inputSize; y++) {
+            int row = (y / blockSize) * 8;
+            for (int x = 0; x < blockSize * 8 && x < inputSize; x++) {
+                int index = (y * inputSize + x) * 3;
+                blocks[row + x / blockSize] += (pixels.get(index) & mask) + (pixels.get(index + 1) & mask)
+                        + (pixels.get(index + 2) & mask);
+            }
+        }
+        return hashBlocks(blocks);
+    }
+
+    private static long hashBlocks(float[] blocks) {
+        float mean = 0;
+        for (float block : blocks) {
+            mean += block;
+        }
+        mean /= 64;
+        long hash = 0;
+        for (int i = 0; i < 64; i++) {
+            if (blocks[i] > mean) {
+                hash |= 1L << i;
+            }
+        }
+        return hash;
+    }
+
+    private static class Entry {
+        //last predictions, used as a ring
+        final int[] window;
+        int count = 0;
+        int next = 0;
+        long hash;
+        long lastInferenceFrame;
+        float score;
+        //result of the vote
+        int label = -1;
+
+        Entry(int windowSize) {
+            window = new int[windowSize];
+        }
+
+        void add(int prediction) {
+            window[next] = prediction;
+            next = (next + 1) % window.length;
+            count = Math.min(count + 1, window.length);
+            label = vote();
+        }
+
+        //most frequent label in the window, ties go to the newest prediction
+        int vote() {
+            int newest = window[(next + window.length - 1) % window.length];
+            int best = newest;
+            int bestVotes = 0;
+            for (int i = 0; i < count; i++) {
+                int votes = 0;
+                for (int j = 0; j < count; j++) {
+                    if (window[j] == window[i]) {
+                        votes++;
+                    }
+                }
+                if (votes > bestVotes || (votes == bestVotes && window[i] == newest)) {
+                    best = window[i];
+                    bestVotes = votes;
+                }
+            }
+            return best;
+        }
+    }
+}
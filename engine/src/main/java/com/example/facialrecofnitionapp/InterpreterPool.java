@@ -0,0 +1,216 @@
+package com.example.facialrecofnitionapp;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+//several interpreters of the same model, so the faces of a frame are classified in parallel
+//an Interpreter is not thread safe, so each instance is used by one thread at a time:
+//the faces are split into one contiguous chunk per instance, the chunks run on a fixed
+//executor (the first one on the calling thread) and the rows are joined back in input order
+//
+//instances x threads per instance stays within the cores (see instancesFor), a GPU or NNAPI
+//backend gets a single instance because the accelerator is shared anyway
+public class InterpreterPool implements FaceModel, Closeable {
+    //more instances mostly cost memory, frames rarely have more faces than this
+    static final int MAX_INSTANCES = 4;
+
+    private final int size;
+    //instances a frame is split over, lowered by FrameGovernor to leave cores to detection
+    private volatile int active;
+    //instances not running a chunk right now
+    private final BlockingQueue<FaceModel> idle;
+    //runs every chunk but the first, null for a single instance
+    private final ExecutorService executor;
+    //set by close(), the instances are never given back after it
+    private volatile boolean closed = false;
+
+    public InterpreterPool(List<? extends FaceModel> instances) {
+        size = instances.size();
+        active = size;
+        idle = new ArrayBlockingQueue<>(size);
+        idle.addAll(instances);
+        executor = size > 1 ? Executors.newFixedThreadPool(size - 1, new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "InterpreterPool-" + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        }) : null;
+    }
+
+    //number of interpreters for backend on a device with cores
+    //each interpreter keeps the thread count the backend was measured with
+    static int instancesFor(Backend backend, int cores) {
+        if (backend.gpu || backend.nnapi) {
+            return 1;
+        }
+        return Math.max(1, Math.min(MAX_INSTANCES, cores / Math.max(1, backend.threads)));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    //split frames over at most count instances, between 1 and size()
+    public void setActiveInstances(int count) {
+        active = Math.max(1, Math.min(size, count));
+    }
+
+    public int getActiveInstances() {
+        return active;
+    }
+
+    @Override
+    public float[][] run(final FaceInput[] inputs) {
+        checkOpen();
+        int chunks = Math.min(active, inputs.length);
+        if (chunks <= 1) {
+            return runChunk(inputs, 0, inputs.length);
+        }
+        float[][] results = new float[inputs.length][];
+        List<Future<float[][]>> futures = new ArrayList<>(chunks);
+        //chunk sizes differ by at most one face
+        int[] offsets = new int[chunks + 1];
+        for (int chunk = 0; chunk <= chunks; chunk++) {
+            offsets[chunk] = (int) ((long) inputs.length * chunk / chunks);
+        }
+        for (int chunk = 1; chunk < chunks; chunk++) {
+            final int offset = offsets[chunk];
+            final int count = offsets[chunk + 1] - offset;
+            futures.add(executor.submit(new Callable<float[][]>() {
+                @Override
+                public float[][] call() {
+                    return runChunk(inputs, offset, count);
+                }
+            }));
+        }
+        join(runChunk(inputs, 0, offsets[1]), results, 0);
+        //an interrupt (pipeline stop) is kept for the caller, the frame is finished first
+        //so no chunk is left running on an interpreter that is about to be closed
+        boolean interrupted = false;
+        try {
+            for (int chunk = 1; chunk < chunks; chunk++) {
+                while (true) {
+                    try {
+                        join(futures.get(chunk - 1).get(), results, offsets[chunk]);
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return results;
+    }
+
+    //run inputs once on every instance, so each one allocates its tensors before the first frame
+    public void runOnEach(FaceInput[] inputs) {
+        checkOpen();
+        FaceModel[] instances = acquireAll(false);
+        try {
+            for (FaceModel instance : instances) {
+                instance.run(inputs);
+            }
+        } finally {
+            for (FaceModel instance : instances) {
+                idle.add(instance);
+            }
+        }
+    }
+
+    //waits for running chunks, the caller closes the interpreters afterwards
+    //run() fails from now on instead of waiting for an instance that never comes back
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (executor != null) {
+            executor.shutdown();
+        }
+        //holding every instance means no chunk is running any more
+        acquireAll(true);
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("interpreter pool is closed");
+        }
+    }
+
+    private float[][] runChunk(FaceInput[] inputs, int offset, int count) {
+        FaceInput[] chunk = inputs;
+        if (offset != 0 || count != inputs.length) {
+            chunk = new FaceInput[count];
+            System.arraycopy(inputs, offset, chunk, 0, count);
+        }
+        FaceModel instance = acquire();
+        try {
+            return instance.run(chunk);
+        } finally {
+            idle.add(instance);
+        }
+    }
+
+    //an instance is busy for one chunk at most, so the wait ignores interrupts and keeps the flag
+    //a run that still waits when the pool is closed fails, close() keeps every instance
+    private FaceModel acquire() {
+        return acquire(false);
+    }
+
+    private FaceModel acquire(boolean closing) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    FaceModel instance = idle.poll(10, TimeUnit.MILLISECONDS);
+                    if (instance != null) {
+                        return instance;
+                    }
+                    if (!closing) {
+                        checkOpen();
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private FaceModel[] acquireAll(boolean closing) {
+        FaceModel[] instances = new FaceModel[size];
+        for (int i = 0; i < size; i++) {
+            instances[i] = acquire(closing);
+        }
+        return instances;
+    }
+
+    private static void join(float[][] rows, float[][] results, int offset) {
+        System.arraycopy(rows, 0, results, offset, rows.length);
+    }
+}
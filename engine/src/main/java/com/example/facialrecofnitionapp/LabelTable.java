@@ -0,0 +1,117 @@
+package com.example.facialrecofnitionapp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+
+//turns model output into a name
+//regression models ([N][1], the class index as a float) are rounded to an index into labels
+//classifier models ([N][K] scores) take the best score, and top-k is available for callers
+//that want alternatives
+//outputs that are not confident enough map to UNKNOWN (-1) and are shown as unknownLabel
+public class LabelTable {
+    public static final int UNKNOWN = -1;
+
+    private final String[] labels;
+    private final String unknownLabel;
+    //classifier: best score must be at least this
+    private final float minScore;
+    //regression: output may be at most this far from a whole number, 0.5 accepts everything
+    private final float maxRegressionError;
+
+    public LabelTable(String[] labels, String unknownLabel, float minScore, float maxRegressionError) {
+        this.labels = labels;
+        this.unknownLabel = unknownLabel;
+        this.minScore = minScore;
+        this.maxRegressionError = maxRegressionError;
+    }
+
+    //one label per line, empty lines are skipped
+    public static String[] readLabels(InputStream inputStream) throws IOException {
+        ArrayList<String> labels = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    labels.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return labels.toArray(new String[0]);
+    }
+
+    //label index for one row of model output, or UNKNOWN
+    public int labelFor(float[] output) {
+        if (output.length == 1) {
+            float value = output[0];
+            //negative outputs were always unknown, rounding would make (-0.5, 0) the first label
+            if (value < 0) {
+                return UNKNOWN;
+            }
+            int index = Math.round(value);
+            if (index < 0 || index >= labels.length || Math.abs(value - index) > maxRegressionError) {
+                return UNKNOWN;
+            }
+            return index;
+        }
+        int best = argMax(output);
+        return output[best] >= minScore && best < labels.length ? best : UNKNOWN;
+    }
+
+    //value shown next to the label: raw output of a regression model, best score of a classifier
+    public float scoreFor(float[] output) {
+        return output.length == 1 ? output[0] : output[argMax(output)];
+    }
+
+    //k best labels of a classifier output, best first
+    //fills indices and scores (both at least k long) and returns how many were written
+    public int topK(float[] output, int k, int[] indices, float[] scores) {
+        if (k <= 0) {
+            return 0;
+        }
+        int count = 0;
+        for (int label = 0; label < output.length && label < labels.length; label++) {
+            float score = output[label];
+            if (count == k && score <= scores[k - 1]) {
+                continue;
+            }
+            //insertion into the sorted prefix
+            int position = Math.min(count, k - 1);
+            while (position > 0 && scores[position - 1] < score) {
+                indices[position] = indices[position - 1];
+                scores[position] = scores[position - 1];
+                position--;
+            }
+            indices[position] = label;
+            scores[position] = score;
+            if (count < k) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public String name(int label) {
+        return label >= 0 && label < labels.length ? labels[label] : unknownLabel;
+    }
+
+    public int size() {
+        return labels.length;
+    }
+
+    private static int argMax(float[] output) {
+        int best = 0;
+        for (int i = 1; i < output.length; i++) {
+            if (output[i] > output[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.facialrecofnitionapp;
+
+//single slot hand off between two pipeline stages
+//the producer never waits: a new item replaces the one that is still waiting
+//and the replaced item is returned so the caller can release it
+public class LatestSlot<T> {
+    private T item;
+    //number of items that were replaced before the consumer took them
+    private long dropped = 0;
+
+    //put newest item in the slot, returns the stale item that was dropped (or null)
+    public synchronized T offer(T next) {
+        T stale = item;
+        item = next;
+        if (stale != null) {
+            dropped++;
+        }
+        notifyAll();
+        return stale;
+    }
+
+    //wait until an item is available and remove it from the slot
+    public synchronized T take() throws InterruptedException {
+        while (item == null) {
+            wait();
+        }
+        T next = item;
+        item = null;
+        return next;
+    }
+
+    //remove whatever is waiting without counting it as dropped
+    public synchronized T clear() {
+        T stale = item;
+        item = null;
+        return stale;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+}
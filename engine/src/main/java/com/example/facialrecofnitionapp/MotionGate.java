@@ -0,0 +1,102 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+//cheap check in front of the pipeline whether a frame changed enough to be worth recognizing
+//the gray camera frame is shrunk to a tiny image (longEdge pixels) and compared with the last
+//frame that was let through; comparing with that frame instead of the previous one also catches
+//slow changes that are too small from one frame to the next
+//every refreshInterval frames a frame passes anyway, so faces and identities do not go stale
+//all Mats are allocated on the first frame, not thread safe, used by the camera thread
+public class MotionGate {
+    //long edge of the compared image
+    private final int longEdge;
+    //a pixel changed when it differs by more than this (0-255), higher is less sensitive
+    private final int pixelThreshold;
+    //a frame moved when at least this fraction of pixels changed
+    private final double minChangedFraction;
+    //let a frame through at least every this many frames, 0 never forces one
+    private final int refreshInterval;
+
+    private final Mat small = new Mat();
+    private final Mat reference = new Mat();
+    private final Mat difference = new Mat();
+    private final Size smallSize = new Size();
+    private boolean hasReference = false;
+    private int framesSincePass = 0;
+    private long passed = 0;
+    private long skipped = 0;
+    //the last frame was skipped, the next one that passes ends an idle period
+    private boolean idle = false;
+
+    public MotionGate(int longEdge, int pixelThreshold, double minChangedFraction, int refreshInterval) {
+        this.longEdge = longEdge;
+        this.pixelThreshold = pixelThreshold;
+        this.minChangedFraction = minChangedFraction;
+        this.refreshInterval = refreshInterval;
+    }
+
+    //64 pixel image, 0.5% of the pixels by more than 12 gray levels, a refresh every 30 frames
+    public static MotionGate defaults() {
+        return new MotionGate(64, 12, 0.005, 30);
+    }
+
+    //true when gray (camera frame, any size) should be processed, false when nothing moved
+    public boolean check(Mat gray) {
+        double scale = (double) longEdge / Math.max(gray.cols(), gray.rows());
+        smallSize.width = Math.max(1, Math.round(gray.cols() * scale));
+        smallSize.height = Math.max(1, Math.round(gray.rows() * scale));
+        Imgproc.resize(gray, small, smallSize, 0, 0, Imgproc.INTER_AREA);
+
+        boolean pass = !hasReference
+                || reference.cols() != small.cols() || reference.rows() != small.rows()
+                || (refreshInterval > 0 && framesSincePass + 1 >= refreshInterval)
+                || changed();
+        if (pass) {
+            small.copyTo(reference);
+            hasReference = true;
+            framesSincePass = 0;
+            passed++;
+        } else {
+            framesSincePass++;
+            skipped++;
+        }
+        idle = !pass;
+        return pass;
+    }
+
+    private boolean changed() {
+        Core.absdiff(small, reference, difference);
+        Imgproc.threshold(difference, difference, pixelThreshold, 255, Imgproc.THRESH_BINARY);
+        int changed = Core.countNonZero(difference);
+        return changed >= minChangedFraction * difference.total();
+    }
+
+    //true when the last frame was skipped
+    public boolean isIdle() {
+        return idle;
+    }
+
+    public long getPassed() {
+        return passed;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    //next frame passes and becomes the new reference
+    public void reset() {
+        hasReference = false;
+        framesSincePass = 0;
+    }
+
+    public void release() {
+        small.release();
+        reference.release();
+        difference.release();
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.facialrecofnitionapp;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+//latency of every stage, end to end frame latency, frame rate, drops, frames skipped by the
+//motion gate, faces per frame and native memory of the recognition pipeline
+//all memory is allocated up front and recording is a few atomic operations, so it stays on
+//in release builds; reading (overlay, dump) builds strings and belongs off the hot path
+public class PipelineMetrics {
+    public enum Stage {
+        DETECT, PREPROCESS, INFER, ANNOTATE
+    }
+
+    //sees every measurement as it is recorded, e.g. FrameGovernor
+    //called on the recording stage's thread, so it has to be quick and thread safe
+    public interface Listener {
+        void stageFinished(Stage stage, long micros);
+
+        void frameFinished(long latencyMicros, int faces);
+    }
+
+    //stage latencies and frame latency in microseconds
+    private final LogHistogram[] stages = new LogHistogram[Stage.values().length];
+    private final LogHistogram frameLatency = new LogHistogram();
+    private final LogHistogram facesPerFrame = new LogHistogram();
+    private final FrameRate frameRate = new FrameRate(30);
+    private final AtomicLong framesDropped = new AtomicLong();
+    //frames the motion gate kept out of the pipeline
+    private final AtomicLong framesSkipped = new AtomicLong();
+    //sampled by the app, the engine cannot see the native heap itself
+    private final AtomicLong nativeBytes = new AtomicLong();
+    private final AtomicLong maxNativeBytes = new AtomicLong();
+    //configured bound on frames until a new face is detected, 0 when unknown
+    private volatile int newFaceLatencyFrames;
+    private volatile Listener listener;
+
+    public PipelineMetrics() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LogHistogram();
+        }
+    }
+
+    //time spent in stage since startNanos (System.nanoTime)
+    public void recordStage(Stage stage, long startNanos) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        stages[stage.ordinal()].record(micros);
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.stageFinished(stage, micros);
+        }
+    }
+
+    //a frame finished, captureNanos is when the camera handed it over
+    public void recordFrame(long captureNanos, int faces) {
+        long now = System.nanoTime();
+        long micros = (now - captureNanos) / 1000;
+        frameLatency.record(micros);
+        facesPerFrame.record(faces);
+        frameRate.tick(now);
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.frameFinished(micros, faces);
+        }
+    }
+
+    //null stops forwarding
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void recordDrops(long frames) {
+        framesDropped.addAndGet(frames);
+    }
+
+    public void recordSkipped() {
+        framesSkipped.incrementAndGet();
+    }
+
+    public void recordNativeMemory(long bytes) {
+        nativeBytes.set(bytes);
+        long currentMax;
+        while (bytes > (currentMax = maxNativeBytes.get()) && !maxNativeBytes.compareAndSet(currentMax, bytes)) {
+            //another thread raised it, check again
+        }
+    }
+
+    public void recordNewFaceLatencyBound(int frames) {
+        newFaceLatencyFrames = frames;
+    }
+
+    public int newFaceLatencyFrames() {
+        return newFaceLatencyFrames;
+    }
+
+    public LogHistogram stage(Stage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    public LogHistogram frameLatency() {
+        return frameLatency;
+    }
+
+    public LogHistogram facesPerFrame() {
+        return facesPerFrame;
+    }
+
+    public double framesPerSecond() {
+        return frameRate.perSecond();
+    }
+
+    public long framesDropped() {
+        return framesDropped.get();
+    }
+
+    public long framesSkipped() {
+        return framesSkipped.get();
+    }
+
+    public void reset() {
+        for (LogHistogram stage : stages) {
+            stage.reset();
+        }
+        frameLatency.reset();
+        facesPerFrame.reset();
+        frameRate.reset();
+        framesDropped.set(0);
+        framesSkipped.set(0);
+        maxNativeBytes.set(nativeBytes.get());
+    }
+
+    //short summary for an on-screen overlay, one entry per line
+    public String[] overlayLines() {
+        String[] lines = new String[stages.length + 2];
+        lines[0] = String.format(Locale.US, "%.1f fps  frame p50 %.1f p99 %.1f ms  dropped %d  still %d",
+                framesPerSecond(), millis(frameLatency.percentile(0.5)), millis(frameLatency.percentile(0.99)),
+                framesDropped(), framesSkipped());
+        for (Stage stage : Stage.values()) {
+            LogHistogram histogram = stages[stage.ordinal()];
+            lines[stage.ordinal() + 1] = String.format(Locale.US, "%-10s p50 %.1f p99 %.1f ms",
+                    stage.name().toLowerCase(Locale.US), millis(histogram.percentile(0.5)),
+                    millis(histogram.percentile(0.99)));
+        }
+        lines[lines.length - 1] = String.format(Locale.US, "faces %.1f max %d  new face <= %d frames  native %d MB",
+                facesPerFrame.mean(), facesPerFrame.max(), newFaceLatencyFrames, nativeBytes.get() >> 20);
+        return lines;
+    }
+
+    //full report with percentiles of every histogram
+    public void writeTo(Writer writer) throws IOException {
+        writer.write(String.format(Locale.US, "%-12s %8s %9s %9s %9s %9s %9s%n",
+                "ms", "count", "mean", "p50", "p90", "p99", "max"));
+        for (Stage stage : Stage.values()) {
+            writeRow(writer, stage.name().toLowerCase(Locale.US), stages[stage.ordinal()]);
+        }
+        writeRow(writer, "frame", frameLatency);
+        writer.write(String.format(Locale.US, "%nfps %.2f%ndropped %d%nskipped without motion %d%n",
+                framesPerSecond(), framesDropped(), framesSkipped()));
+        writer.write(String.format(Locale.US, "faces per frame: mean %.2f p50 %d p99 %d max %d%n",
+                facesPerFrame.mean(), facesPerFrame.percentile(0.5), facesPerFrame.percentile(0.99),
+                facesPerFrame.max()));
+        writer.write(String.format(Locale.US, "new faces detected within %d frames%n", newFaceLatencyFrames));
+        writer.write(String.format(Locale.US, "native memory: %d bytes, max %d bytes%n",
+                nativeBytes.get(), maxNativeBytes.get()));
+    }
+
+    private static void writeRow(Writer writer, String name, LogHistogram histogram) throws IOException {
+        writer.write(String.format(Locale.US, "%-12s %8d %9.2f %9.2f %9.2f %9.2f %9.2f%n", name,
+                histogram.count(), histogram.mean() / 1000, millis(histogram.percentile(0.5)),
+                millis(histogram.percentile(0.9)), millis(histogram.percentile(0.99)), millis(histogram.max())));
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
@@ -0,0 +1,524 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.util.ArrayList;
+
+//detection, tracking, preprocessing and identification without any Android code
+//the app loads detector and model and hands them in (see Face_Recognition), tests and
+//benchmarks on a desktop JVM do the same with desktop OpenCV and a stub FaceModel
+//the detector is pluggable (see FaceDetector), the caller owns and closes it
+//
+//recognize() runs every stage on the calling thread; FacePipeline calls the stages
+//(locateFaces, preprocessFaces, identifyFaces) from its own worker threads instead
+public class RecognitionEngine implements FaceRecognizer {
+    //null when no detector could be loaded, no faces are found then
+    private final FaceDetector faceDetector;
+    private final FaceModel faceModel;
+    //crops faces and writes them into pooled model input buffers, in the model's input format
+    private final FacePreprocessor facePreprocessor;
+    //names of the model outputs
+    private final LabelTable labelTable;
+    private final String unknownName;
+    private final int inputSize;
+    //parameters of detection, replaced as a whole so the detect thread always sees a consistent set
+    private volatile DetectionConfig detectionConfig = DetectionConfig.defaults();
+    //follows faces between full detections
+    private final FaceTracker faceTracker = FaceTracker.defaults();
+    //limits Haar detection passes to windows around known faces and a rotating stripe, null scans
+    //the full frame every pass
+    private volatile RoiScheduler roiScheduler;
+    //identity of every tracked face, so a face is not classified every frame
+    private final IdentityCache identityCache = IdentityCache.defaults();
+    //faces classified per frame at most, 0 classifies every face that needs it
+    private volatile int maxFacesPerFrame = 0;
+    //frames are unrelated (e.g. a directory of photos): every frame is detected and every face
+    //classified on its own, nothing is carried over by the tracker or the identity cache
+    private volatile boolean independentFrames = false;
+    //track ids of independent frames, never reused so no two faces share one
+    private int nextFaceId = 0;
+    //enrolled people, set in embedding mode
+    private volatile FaceGallery faceGallery;
+    private volatile float minGallerySimilarity = 0.6f;
+    //frame counter and Mats of recognize, FacePipeline numbers and owns its own
+    private long frameId = 0;
+    private FrameContext frameContext;
+
+    public RecognitionEngine(FaceDetector faceDetector, FaceModel faceModel, TensorFormat inputFormat,
+                             int inputSize, LabelTable labelTable, String unknownName) {
+        this.faceDetector = faceDetector;
+        this.faceModel = faceModel;
+        this.facePreprocessor = new FacePreprocessor(inputSize, inputFormat);
+        this.labelTable = labelTable;
+        this.unknownName = unknownName;
+        this.inputSize = inputSize;
+    }
+
+    //Haar cascade detection
+    public RecognitionEngine(CascadeClassifier cascadeClassifier, FaceModel faceModel, TensorFormat inputFormat,
+                             int inputSize, LabelTable labelTable, String unknownName) {
+        this(cascadeClassifier != null ? new HaarFaceDetector(cascadeClassifier) : null, faceModel, inputFormat,
+                inputSize, labelTable, unknownName);
+    }
+
+    @Override
+    public RecognizedFace[] recognize(Frame frame) {
+        FrameContext context = contextFor(frame);
+        Mat padded = wrap(frame);
+        //the pixels of each row, without the padding up to the stride
+        Mat data = padded.colRange(0, frame.width);
+        //luma rows of gray and NV21 frames are used as the gray frame as they are
+        Mat luma = null;
+        try {
+            //rgba frames are read in place, the others are converted into the context
+            Mat rgba = context.rgbaBuffer;
+            switch (frame.format) {
+                case GRAY8:
+                    Imgproc.cvtColor(data, rgba, Imgproc.COLOR_GRAY2RGBA);
+                    luma = data;
+                    break;
+                case RGB888:
+                    Imgproc.cvtColor(data, rgba, Imgproc.COLOR_RGB2RGBA);
+                    break;
+                case NV21:
+                    Imgproc.cvtColor(data, rgba, Imgproc.COLOR_YUV2RGBA_NV21);
+                    luma = data.submat(0, frame.height, 0, frame.width);
+                    break;
+                default:
+                    rgba = data;
+                    break;
+            }
+            context.wrap(rgba, luma);
+
+            FaceDetections detections = locateFaces(context);
+            long id = ++frameId;
+            long[] hashes = new long[detections.faces.length];
+            FaceInput[] inputs = preprocessFaces(context, detections, id, hashes);
+            try {
+                return identifyFaces(id, detections, inputs, hashes);
+            } finally {
+                recycleInputs(inputs);
+            }
+        } finally {
+            if (luma != null && luma != data) {
+                luma.release();
+            }
+            data.release();
+            padded.release();
+        }
+    }
+
+    //Mats of recognize, recreated only when the frame size or rotation changes
+    private FrameContext contextFor(Frame frame) {
+        boolean rotated = frame.rotation == 90;
+        if (frameContext == null || !frameContext.fits(frame.width, frame.height, rotated)) {
+            if (frameContext != null) {
+                frameContext.release();
+            }
+            frameContext = new FrameContext(frame.width, frame.height, rotated);
+        }
+        return frameContext;
+    }
+
+    //Mat header over the whole frame buffer, rows as wide as the stride, no pixels are copied
+    //the desktop OpenCV build has no constructor taking a step, so the padding is cut off by the caller
+    private static Mat wrap(Frame frame) {
+        int type = frame.format == Frame.Format.RGBA8888 ? CvType.CV_8UC4
+                : frame.format == Frame.Format.RGB888 ? CvType.CV_8UC3 : CvType.CV_8UC1;
+        return new Mat(Frame.rows(frame.format, frame.height), frame.stride / frame.format.pixelBytes, type,
+                frame.data);
+    }
+
+    //detect stage: find faces in the frame of context
+    //the detector runs on an upright pyrDown copy of the gray frame (see DetectionConfig)
+    //and the faces are mapped back to full resolution upright coordinates
+    Rect[] detectFaces(FrameContext context) {
+        Mat detectGray = prepareDetectionImage(context);
+        return scaleToFrame(detectOnImage(context, detectGray), detectGray, context);
+    }
+
+    //detect stage with tracking: full detection every few frames (see FaceTracker),
+    //faces are followed with template matching on the frames in between
+    FaceDetections locateFaces(FrameContext context) {
+        if (faceDetector == null) {
+            return FaceDetections.empty();
+        }
+        Mat detectGray = prepareDetectionImage(context);
+        if (independentFrames) {
+            Rect[] faceArray = detectOnImage(context, detectGray);
+            int[] faceIds = new int[faceArray.length];
+            for (int i = 0; i < faceIds.length; i++) {
+                faceIds[i] = ++nextFaceId;
+            }
+            return new FaceDetections(scaleToFrame(faceArray, detectGray, context), faceIds, true);
+        }
+        boolean detected = faceTracker.needsDetection(detectGray);
+        Rect[] faceArray;
+        int[] trackIds;
+        if (detected) {
+            faceArray = detectForTracking(context, detectGray);
+            trackIds = new int[faceArray.length];
+            faceTracker.update(detectGray, faceArray, trackIds);
+        } else {
+            trackIds = new int[faceTracker.trackCount()];
+            faceArray = faceTracker.track(detectGray, trackIds);
+        }
+        return new FaceDetections(scaleToFrame(faceArray, detectGray, context), trackIds, detected);
+    }
+
+    //halve the gray frame until it is close to the detection resolution and turn it upright
+    //pyrDown runs in the orientation the frame arrived in, only the last level is rotated
+    //returns the Mat the detector should run on
+    Mat prepareDetectionImage(FrameContext context) {
+        Mat detectGray = context.gray;
+        int levels = detectionConfig.pyramidLevels(Math.max(detectGray.cols(), detectGray.rows()));
+        for (int level = 1; level <= levels; level++) {
+            Mat next = context.pyramidLevel(level);
+            Imgproc.pyrDown(detectGray, next);
+            detectGray = next;
+        }
+        return context.uprightLevel(detectGray);
+    }
+
+    //run the detector, returns faces in the coordinates of detectGray
+    Rect[] detectOnImage(FrameContext context, Mat detectGray) {
+        if (faceDetector == null) {
+            return new Rect[0];
+        }
+        return faceDetector.detect(context, detectGray, detectionConfig);
+    }
+
+    //detection pass of locateFaces, limited to the windows of roiScheduler when there is one
+    private Rect[] detectForTracking(FrameContext context, Mat detectGray) {
+        RoiScheduler roi = roiScheduler;
+        //only the cascade scales with the scanned area, dnn detectors always see the whole frame
+        if (roi == null || !(faceDetector instanceof HaarFaceDetector)) {
+            return detectOnImage(context, detectGray);
+        }
+        DetectionConfig config = detectionConfig;
+        int maxFaceSize = (int) (detectGray.rows() * config.maxFaceFraction);
+        Rect[] windows = roi.windows(detectGray.cols(), detectGray.rows(), faceTracker.trackRects(), maxFaceSize,
+                faceTracker.getDetectionInterval());
+        if (windows == null) {
+            return detectOnImage(context, detectGray);
+        }
+        HaarFaceDetector haar = (HaarFaceDetector) faceDetector;
+        ArrayList<Rect> faces = new ArrayList<>();
+        for (Rect window : windows) {
+            for (Rect face : haar.detect(context, detectGray, window, config)) {
+                //windows overlap, the same face can be found twice
+                boolean duplicate = false;
+                for (Rect known : faces) {
+                    if (FaceTracker.intersectionOverUnion(known, face) >= 0.5) {
+                        duplicate = true;
+                        break;
+                    }
+                }
+                if (!duplicate) {
+                    faces.add(face);
+                }
+            }
+        }
+        return faces.toArray(new Rect[0]);
+    }
+
+    //turn ROI detection on (see RoiScheduler), null scans the full frame on every detection pass
+    public void setRoiScheduler(RoiScheduler roiScheduler) {
+        this.roiScheduler = roiScheduler;
+    }
+
+    public RoiScheduler getRoiScheduler() {
+        return roiScheduler;
+    }
+
+    //scan the full frame on the next detection pass, e.g. after motion
+    public void requestFullScan() {
+        RoiScheduler roi = roiScheduler;
+        if (roi != null) {
+            roi.requestFullScan();
+        }
+    }
+
+    //frames until a face entering the frame is detected at most
+    //without ROI detection that is the next detection pass
+    public int getNewFaceLatencyFrames() {
+        RoiScheduler roi = roiScheduler;
+        int interval = faceTracker.getDetectionInterval();
+        return roi != null && faceDetector instanceof HaarFaceDetector ? roi.newFaceLatencyFrames(interval) : interval;
+    }
+
+    public FaceDetector getFaceDetector() {
+        return faceDetector;
+    }
+
+    //map rects found on a pyramid level to the full resolution upright frame, returns new rects
+    private static Rect[] scaleToFrame(Rect[] faceArray, Mat detected, FrameContext context) {
+        Rect[] scaled = new Rect[faceArray.length];
+        int frameWidth = context.uprightWidth();
+        int frameHeight = context.uprightHeight();
+        double scaleX = (double) frameWidth / detected.cols();
+        double scaleY = (double) frameHeight / detected.rows();
+        for (int i = 0; i < faceArray.length; i++) {
+            Rect face = faceArray[i];
+            int x = (int) (face.x * scaleX);
+            int y = (int) (face.y * scaleY);
+            //keep the face inside the frame after rounding
+            int width = Math.min((int) (face.width * scaleX), frameWidth - x);
+            int height = Math.min((int) (face.height * scaleY), frameHeight - y);
+            scaled[i] = new Rect(x, y, width, height);
+        }
+        return scaled;
+    }
+
+    //crop/preprocess stage: cut face out of upright rgba frame and convert it to model input
+    //returned input must be given back with recycleInputs() once the model has read it
+    FaceInput preprocessFace(Mat upright, Rect face) {
+        return facePreprocessor.preprocess(upright, face);
+    }
+
+    //preprocess stage for all faces of a frame
+    //faces whose cached identity is still good get a null input and are not classified again
+    //hashes receives the crop hash of every face
+    FaceInput[] preprocessFaces(FrameContext context, FaceDetections detections, long frameId, long[] hashes) {
+        return preprocessFaces(context.rgba, context.rotated, detections, frameId, hashes);
+    }
+
+    //same for an rgba frame that is already upright
+    FaceInput[] preprocessFaces(Mat upright, FaceDetections detections, long frameId, long[] hashes) {
+        return preprocessFaces(upright, false, detections, frameId, hashes);
+    }
+
+    private FaceInput[] preprocessFaces(Mat rgba, boolean rotated, FaceDetections detections, long frameId,
+                                        long[] hashes) {
+        FaceInput[] inputs = new FaceInput[detections.faces.length];
+        boolean independent = independentFrames;
+        int pending = 0;
+        for (int i = 0; i < inputs.length; i++) {
+            FaceInput input = facePreprocessor.preprocess(rgba, detections.faces[i], rotated);
+            hashes[i] = hashFace(input);
+            if (independent) {
+                //every face of an unrelated frame is new
+                inputs[i] = input;
+            } else if (identityCache.needsInference(detections.trackIds[i], hashes[i], frameId)) {
+                inputs[i] = input;
+                pending++;
+            } else {
+                facePreprocessor.recycle(input);
+            }
+        }
+        //deferred faces would keep a cached identity, independent frames have none
+        int limit = maxFacesPerFrame;
+        if (!independent && limit > 0 && pending > limit) {
+            deferFaces(inputs, detections.trackIds, frameId, pending - limit);
+        }
+        return inputs;
+    }
+
+    //drop the inputs of count faces that waited least since their last classification,
+    //they keep their cached identity and still need inference in the next frame
+    //new faces have waited longest, so they are classified first
+    private void deferFaces(FaceInput[] inputs, int[] trackIds, long frameId, int count) {
+        for (int deferred = 0; deferred < count; deferred++) {
+            int shortest = -1;
+            long shortestWait = Long.MAX_VALUE;
+            for (int i = 0; i < inputs.length; i++) {
+                if (inputs[i] == null) {
+                    continue;
+                }
+                long wait = identityCache.framesSinceInference(trackIds[i], frameId);
+                //on a tie the later face is deferred, so detection order decides among new faces
+                if (shortest < 0 || wait <= shortestWait) {
+                    shortest = i;
+                    shortestWait = wait;
+                }
+            }
+            facePreprocessor.recycle(inputs[shortest]);
+            inputs[shortest] = null;
+        }
+    }
+
+    //classify at most maxFaces faces per frame, 0 for no limit; set by FrameGovernor
+    public void setMaxFacesPerFrame(int maxFaces) {
+        maxFacesPerFrame = Math.max(0, maxFaces);
+    }
+
+    public int getMaxFacesPerFrame() {
+        return maxFacesPerFrame;
+    }
+
+    //true for frames that do not belong to one scene, e.g. a directory of photos: a face at the
+    //same spot in the next frame may be someone else, so tracking and cached identities are off
+    public void setIndependentFrames(boolean independent) {
+        independentFrames = independent;
+        reset();
+    }
+
+    public boolean isIndependentFrames() {
+        return independentFrames;
+    }
+
+    //crop hash in whatever format the model input is
+    private long hashFace(FaceInput input) {
+        TensorFormat format = facePreprocessor.getFormat();
+        if (format.isQuantized()) {
+            return IdentityCache.averageHash(input.bytes, format.type == TensorFormat.Type.INT8, inputSize);
+        }
+        return IdentityCache.averageHash(input.floats, inputSize);
+    }
+
+    //infer stage for all faces of a frame: classify faces that have an input,
+    //take the others from the identity cache, and smooth every label over recent frames
+    RecognizedFace[] identifyFaces(long frameId, FaceDetections detections, FaceInput[] inputs, long[] hashes) {
+        //pack faces that need the model next to each other for one batched call
+        int pending = 0;
+        for (FaceInput input : inputs) {
+            if (input != null) {
+                pending++;
+            }
+        }
+        FaceInput[] batch = new FaceInput[pending];
+        int next = 0;
+        for (FaceInput input : inputs) {
+            if (input != null) {
+                batch[next++] = input;
+            }
+        }
+        float[][] outputs = runModel(batch);
+
+        RecognizedFace[] faces = new RecognizedFace[inputs.length];
+        boolean independent = independentFrames;
+        next = 0;
+        for (int i = 0; i < inputs.length; i++) {
+            int trackId = detections.trackIds[i];
+            int label;
+            float score;
+            if (inputs[i] != null) {
+                float[] output = outputs[next++];
+                FaceGallery gallery = faceGallery;
+                if (gallery != null) {
+                    //embedding mode: output is an embedding, look up the closest enrolled person
+                    FaceGallery.Match match = gallery.search(output, minGallerySimilarity);
+                    score = match.similarity;
+                    label = match.identity;
+                } else {
+                    score = labelTable.scoreFor(output);
+                    label = labelTable.labelFor(output);
+                }
+                if (!independent) {
+                    label = identityCache.record(trackId, hashes[i], frameId, label, score);
+                }
+            } else {
+                label = identityCache.label(trackId);
+                score = identityCache.score(trackId);
+            }
+            faces[i] = new RecognizedFace(trackId, detections.faces[i], getFaceName(label), score);
+        }
+        //forget faces that left the frame
+        if (!independent) {
+            identityCache.retainOnly(detections.trackIds);
+        }
+        return faces;
+    }
+
+    //infer stage: run model on all faces of a frame, returns one row of raw output per face
+    float[][] runModel(FaceInput[] inputs) {
+        if (inputs.length == 0) {
+            return new float[0][];
+        }
+        return faceModel.run(inputs);
+    }
+
+    //give model inputs back to the preprocessing pool
+    void recycleInputs(FaceInput[] inputs) {
+        facePreprocessor.recycle(inputs);
+    }
+
+    //free preprocessing Mats of the calling thread
+    void releaseThreadResources() {
+        facePreprocessor.releaseWorkspace();
+    }
+
+    //name of a label index, see LabelTable
+    //in embedding mode the label is a gallery identity
+    public String getFaceName(int label) {
+        FaceGallery gallery = faceGallery;
+        if (gallery != null) {
+            String name = gallery.name(label);
+            return name != null ? name : unknownName;
+        }
+        return labelTable.name(label);
+    }
+
+    //tracker used by locateFaces, e.g. to change how often full detection runs
+    public FaceTracker getFaceTracker() {
+        return faceTracker;
+    }
+
+    //change detection parameters, used by the next frame
+    public void setDetectionConfig(DetectionConfig config) {
+        detectionConfig = config;
+    }
+
+    public DetectionConfig getDetectionConfig() {
+        return detectionConfig;
+    }
+
+    //switch to embedding mode: the model output ([1][D]) is matched against gallery
+    //faces less similar than minSimilarity to every enrolled person are unknown
+    //null switches back to reading the output as a label
+    public void setGallery(FaceGallery gallery, float minSimilarity) {
+        minGallerySimilarity = minSimilarity;
+        faceGallery = gallery;
+        //cached labels belong to the old mode
+        identityCache.clear();
+    }
+
+    public FaceGallery getGallery() {
+        return faceGallery;
+    }
+
+    //embedding of one face of an upright rgba frame
+    public float[] embedFace(Mat upright, Rect face) {
+        FaceInput input = preprocessFace(upright, face);
+        try {
+            return runModel(new FaceInput[]{input})[0];
+        } finally {
+            facePreprocessor.recycle(input);
+        }
+    }
+
+    //add a person to the gallery from one face, no retraining or redeploy needed
+    public int enrollFace(String name, Mat upright, Rect face) {
+        FaceGallery gallery = faceGallery;
+        if (gallery == null) {
+            throw new IllegalStateException("no gallery to enroll " + name + " into, call setGallery first");
+        }
+        return gallery.enroll(name, embedFace(upright, face));
+    }
+
+    public LabelTable getLabelTable() {
+        return labelTable;
+    }
+
+    @Override
+    public void reset() {
+        faceTracker.reset();
+        identityCache.clear();
+        //no faces are known any more, windows around them would miss everyone
+        requestFullScan();
+    }
+
+    @Override
+    public void close() {
+        reset();
+        if (frameContext != null) {
+            frameContext.release();
+            frameContext = null;
+        }
+        releaseThreadResources();
+    }
+}
@@ -0,0 +1,435 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Mat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+
+//recognition for several cameras or recorded streams at once on one set of shared resources:
+//one model (e.g. an InterpreterPool over one mapped model file), one detector per worker
+//(FaceDetectorPool), one label table and one gallery, however many streams are open
+//
+//every stream gets its own RecognitionEngine, so tracks, cached identities and frame numbers
+//never mix between cameras, its own queue of frames and its own PipelineMetrics
+//- fair: streams with frames take turns round robin, one frame per turn, so a busy stream
+//  cannot starve a quiet one; a stream is run by one worker at a time, its frames in order
+//- backpressure per stream: at most capacity frames wait, offer() drops the oldest (live
+//  cameras), put() waits for room (recorded files that must not lose frames)
+//frames are copied into buffers of the stream on submit, the caller's Mats are free right away
+public class RecognitionService implements Closeable {
+    //results of a stream, called on a worker thread in frame order, so it has to be quick
+    public interface Listener {
+        //faces of frame index, counted per stream from 0, in upright coordinates
+        void recognized(Stream stream, long index, RecognizedFace[] faces);
+
+        //a frame threw, the stream is closed
+        void failed(Stream stream, RuntimeException e);
+    }
+
+    private final FaceDetectorPool detectors;
+    private final FaceModel faceModel;
+    private final TensorFormat inputFormat;
+    private final int inputSize;
+    private final LabelTable labelTable;
+    private final String unknownName;
+    private final Thread[] workers;
+
+    //all state below is guarded by this
+    private final ArrayList<Stream> streams = new ArrayList<>();
+    //streams with waiting frames that no worker runs right now, the next turn first
+    private final ArrayDeque<Stream> ready = new ArrayDeque<>();
+    private FaceGallery faceGallery;
+    private float minGallerySimilarity = 0.6f;
+    private boolean started = false;
+    private boolean closed = false;
+
+    //one worker thread per detector, the caller owns detectors and model and closes them after close()
+    public RecognitionService(List<? extends FaceDetector> detectors, FaceModel faceModel, TensorFormat inputFormat,
+                              int inputSize, LabelTable labelTable, String unknownName) {
+        this.detectors = new FaceDetectorPool(detectors);
+        this.faceModel = faceModel;
+        this.inputFormat = inputFormat;
+        this.inputSize = inputSize;
+        this.labelTable = labelTable;
+        this.unknownName = unknownName;
+        workers = new Thread[detectors.size()];
+    }
+
+    public synchronized void start() {
+        if (started || closed) {
+            return;
+        }
+        started = true;
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "RecognitionService-" + (i + 1));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    //new stream, rotated for camera frames that are upright after a 90 degree clockwise turn
+    //(see FrameContext), capacity frames may wait before offer drops or put waits
+    public synchronized Stream openStream(String name, boolean rotated, int capacity, Listener listener) {
+        if (closed) {
+            throw new IllegalStateException("service is closed");
+        }
+        RecognitionEngine engine = new RecognitionEngine(detectors, faceModel, inputFormat, inputSize, labelTable,
+                unknownName);
+        if (faceGallery != null) {
+            engine.setGallery(faceGallery, minGallerySimilarity);
+        }
+        Stream stream = new Stream(name, rotated, Math.max(1, capacity), listener, engine);
+        streams.add(stream);
+        return stream;
+    }
+
+    //embedding mode for every open and later stream, see RecognitionEngine.setGallery
+    public synchronized void setGallery(FaceGallery gallery, float minSimilarity) {
+        faceGallery = gallery;
+        minGallerySimilarity = minSimilarity;
+        for (Stream stream : streams) {
+            stream.engine.setGallery(gallery, minSimilarity);
+        }
+    }
+
+    public synchronized FaceGallery getGallery() {
+        return faceGallery;
+    }
+
+    public int getWorkers() {
+        return workers.length;
+    }
+
+    //open streams in the order they were opened
+    public synchronized List<Stream> getStreams() {
+        return new ArrayList<>(streams);
+    }
+
+    //metrics of every open stream, one section each
+    public void writeTo(Writer writer) throws IOException {
+        for (Stream stream : getStreams()) {
+            writer.write(String.format(Locale.US, "stream %s: %d frames submitted, %d waiting%n", stream.name,
+                    stream.getSubmitted(), stream.getWaiting()));
+            stream.metrics.writeTo(writer);
+            writer.write("\n");
+        }
+    }
+
+    //stops the workers after the frame each one is running, waiting frames are dropped
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        boolean interrupted = false;
+        for (Thread worker : workers) {
+            while (worker != null && worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        for (Stream stream : getStreams()) {
+            stream.close();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void work() {
+        //engines whose preprocessing Mats this thread holds, freed when it exits
+        HashSet<RecognitionEngine> used = new HashSet<>();
+        try {
+            while (true) {
+                Stream stream;
+                StreamFrame frame;
+                synchronized (this) {
+                    while (!closed && ready.isEmpty()) {
+                        wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    stream = ready.poll();
+                    frame = stream.waiting.poll();
+                    stream.busy = true;
+                    //room for a put that waits on this stream
+                    notifyAll();
+                }
+                used.add(stream.engine);
+                //results are handed over before the next frame of the stream can be taken,
+                //so they stay in order
+                RuntimeException failure = null;
+                try {
+                    stream.listener.recognized(stream, frame.index, stream.process(frame));
+                } catch (RuntimeException e) {
+                    failure = e;
+                    stream.listener.failed(stream, e);
+                }
+                synchronized (this) {
+                    stream.busy = false;
+                    //wakes awaitIdle
+                    notifyAll();
+                    stream.free.push(frame);
+                    if (failure != null) {
+                        stream.stop();
+                    }
+                    if (stream.closed) {
+                        stream.releaseIfIdle();
+                    } else if (!stream.waiting.isEmpty()) {
+                        //back to the end of the line, every other stream goes first
+                        ready.add(stream);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            //closing
+        } finally {
+            for (RecognitionEngine engine : used) {
+                engine.releaseThreadResources();
+            }
+        }
+    }
+
+    //one camera or file feeding the service
+    public final class Stream {
+        public final String name;
+        public final boolean rotated;
+        private final int capacity;
+        private final Listener listener;
+        private final RecognitionEngine engine;
+        private final PipelineMetrics metrics = new PipelineMetrics();
+        //frames waiting for a worker, oldest first, and buffers to copy the next ones into
+        private final ArrayDeque<StreamFrame> waiting = new ArrayDeque<>();
+        private final ArrayDeque<StreamFrame> free = new ArrayDeque<>();
+        //index of the next frame submitted
+        private long submitted = 0;
+        private boolean busy = false;
+        private boolean closed = false;
+        private boolean released = false;
+
+        private Stream(String name, boolean rotated, int capacity, Listener listener, RecognitionEngine engine) {
+            this.name = name;
+            this.rotated = rotated;
+            this.capacity = capacity;
+            this.listener = listener;
+            this.engine = engine;
+        }
+
+        //queue a frame without waiting, the oldest waiting frame is dropped when the queue is full
+        //gray is the camera's luminance plane or null; false once the stream is closed
+        //a stream is fed from one thread, e.g. the camera callback
+        public boolean offer(Mat rgba, Mat gray) {
+            StreamFrame frame;
+            synchronized (RecognitionService.this) {
+                if (closed || RecognitionService.this.closed) {
+                    return false;
+                }
+                if (waiting.size() >= capacity) {
+                    frame = waiting.pollFirst();
+                    metrics.recordDrops(1);
+                    if (waiting.isEmpty()) {
+                        //its turn comes again with the new frame
+                        ready.remove(this);
+                    }
+                } else {
+                    frame = acquire();
+                }
+            }
+            return submit(frame, rgba, gray);
+        }
+
+        //queue a frame, waiting while capacity frames are waiting; false once the stream is closed
+        public boolean put(Mat rgba, Mat gray) throws InterruptedException {
+            StreamFrame frame;
+            synchronized (RecognitionService.this) {
+                while (!closed && !RecognitionService.this.closed && waiting.size() >= capacity) {
+                    RecognitionService.this.wait();
+                }
+                if (closed || RecognitionService.this.closed) {
+                    return false;
+                }
+                frame = acquire();
+            }
+            return submit(frame, rgba, gray);
+        }
+
+        //the copy runs outside the lock, so other streams are not held up by it
+        private boolean submit(StreamFrame frame, Mat rgba, Mat gray) {
+            try {
+                frame.load(rgba, gray, rotated);
+            } catch (RuntimeException e) {
+                synchronized (RecognitionService.this) {
+                    recycle(frame);
+                }
+                throw e;
+            }
+            synchronized (RecognitionService.this) {
+                if (closed || RecognitionService.this.closed) {
+                    recycle(frame);
+                    return false;
+                }
+                frame.index = submitted++;
+                frame.submittedNanos = System.nanoTime();
+                waiting.add(frame);
+                //first waiting frame of a stream nobody runs: the stream takes its turn
+                if (!busy && waiting.size() == 1) {
+                    ready.add(this);
+                    RecognitionService.this.notifyAll();
+                }
+            }
+            return true;
+        }
+
+        //a free buffer, new ones are sized by the first frame loaded into them
+        private StreamFrame acquire() {
+            StreamFrame frame = free.poll();
+            return frame != null ? frame : new StreamFrame();
+        }
+
+        //buffer back to the free list, or freed when the stream was released while it was filled
+        private void recycle(StreamFrame frame) {
+            if (released) {
+                frame.release();
+            } else {
+                free.push(frame);
+            }
+        }
+
+        //detect, preprocess and identify one frame on the calling worker
+        private RecognizedFace[] process(StreamFrame frame) {
+            FrameContext context = frame.context;
+            long start = System.nanoTime();
+            FaceDetections detections = engine.locateFaces(context);
+            metrics.recordStage(PipelineMetrics.Stage.DETECT, start);
+            //frame ids start at 1 and skip dropped frames
+            long id = frame.index + 1;
+            start = System.nanoTime();
+            long[] hashes = new long[detections.faces.length];
+            FaceInput[] inputs = engine.preprocessFaces(context, detections, id, hashes);
+            metrics.recordStage(PipelineMetrics.Stage.PREPROCESS, start);
+            start = System.nanoTime();
+            RecognizedFace[] faces;
+            try {
+                faces = engine.identifyFaces(id, detections, inputs, hashes);
+            } finally {
+                engine.recycleInputs(inputs);
+            }
+            metrics.recordStage(PipelineMetrics.Stage.INFER, start);
+            //submit to result, including the wait for a turn
+            metrics.recordFrame(frame.submittedNanos, faces.length);
+            return faces;
+        }
+
+        //drop waiting frames and take the stream out of the rotation, holding the service lock
+        private void stop() {
+            closed = true;
+            ready.remove(this);
+            while (!waiting.isEmpty()) {
+                free.push(waiting.poll());
+            }
+            RecognitionService.this.notifyAll();
+        }
+
+        //free the buffers and the engine once no worker runs the stream, holding the service lock
+        private void releaseIfIdle() {
+            if (!closed || busy || released) {
+                return;
+            }
+            released = true;
+            for (StreamFrame frame : free) {
+                frame.release();
+            }
+            free.clear();
+            engine.close();
+            streams.remove(this);
+        }
+
+        //stop taking frames, waiting frames are dropped and a running one finishes first
+        public void close() {
+            synchronized (RecognitionService.this) {
+                stop();
+                releaseIfIdle();
+            }
+        }
+
+        //wait until every submitted frame has its result or the stream is closed
+        public void awaitIdle() throws InterruptedException {
+            synchronized (RecognitionService.this) {
+                while (!closed && !RecognitionService.this.closed && (busy || !waiting.isEmpty())) {
+                    RecognitionService.this.wait();
+                }
+            }
+        }
+
+        //tracker, detection config and face limit of this stream
+        public RecognitionEngine getEngine() {
+            return engine;
+        }
+
+        public PipelineMetrics getMetrics() {
+            return metrics;
+        }
+
+        public long getSubmitted() {
+            synchronized (RecognitionService.this) {
+                return submitted;
+            }
+        }
+
+        public int getWaiting() {
+            synchronized (RecognitionService.this) {
+                return waiting.size();
+            }
+        }
+
+        public boolean isClosed() {
+            synchronized (RecognitionService.this) {
+                return closed;
+            }
+        }
+    }
+
+    //one buffered frame of a stream, its Mats are reused from frame to frame
+    private static final class StreamFrame {
+        FrameContext context;
+        long index;
+        //System.nanoTime when the frame was submitted
+        long submittedNanos;
+
+        void load(Mat rgba, Mat gray, boolean rotated) {
+            if (context == null || !context.fits(rgba.cols(), rgba.rows(), rotated)) {
+                if (context != null) {
+                    context.release();
+                }
+                context = new FrameContext(rgba.cols(), rgba.rows(), rotated);
+            }
+            context.load(rgba, gray);
+        }
+
+        void release() {
+            if (context != null) {
+                context.release();
+                context = null;
+            }
+        }
+    }
+}
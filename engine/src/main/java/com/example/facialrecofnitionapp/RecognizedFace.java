@@ -0,0 +1,21 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Rect;
+
+//result of recognition for one face in a frame
+//rect is in the coordinates of the upright (rotated) frame
+public class RecognizedFace {
+    //stable id of the face across frames (see FaceTracker)
+    public final int trackId;
+    public final Rect rect;
+    public final String name;
+    //raw output of the model for this face
+    public final float score;
+
+    public RecognizedFace(int trackId, Rect rect, String name, float score) {
+        this.trackId = trackId;
+        this.rect = rect;
+        this.name = name;
+        this.score = score;
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.facialrecofnitionapp;
+
+import org.opencv.core.Rect;
+
+//decides where the cascade looks on a detection pass, so it does not scan the whole frame
+//a pass scans a window around every face of the last frame plus one vertical stripe of the
+//frame, the stripes take turns so a face entering anywhere is scanned within one round;
+//stripes overlap by the largest face size so no face is cut in two
+//the whole frame is still scanned on the first pass, after the frame size changed, every
+//fullScanEvery passes and when requestFullScan is called (e.g. on motion)
+//
+//the number of stripes follows from the configured maximum latency for a new face:
+//detections run every detectionInterval frames, so a round of n stripes takes n x interval frames
+//faces larger than half the frame height may only be found by full scans
+//windows() is called by the detect stage only, requestFullScan from any thread
+public class RoiScheduler {
+    //a face entering the frame is scanned within this many frames
+    private final int maxNewFaceFrames;
+    //face windows are the face grown by this fraction of its size on each side
+    private final double margin;
+    //every this many passes scan the full frame, 0 only on the triggers above
+    private final int fullScanEvery;
+
+    private int stripes = 0;
+    private int nextStripe = 0;
+    private int passesSinceFullScan = 0;
+    private int imageWidth = -1;
+    private int imageHeight = -1;
+    private volatile boolean fullScanRequested = true;
+
+    public RoiScheduler(int maxNewFaceFrames, double margin, int fullScanEvery) {
+        this.maxNewFaceFrames = Math.max(1, maxNewFaceFrames);
+        this.margin = margin;
+        this.fullScanEvery = fullScanEvery;
+    }
+
+    //new faces within 15 frames (half a second at 30 fps), a full scan every 10 passes
+    public static RoiScheduler defaults() {
+        return new RoiScheduler(15, 0.5, 10);
+    }
+
+    public int getMaxNewFaceFrames() {
+        return maxNewFaceFrames;
+    }
+
+    //stripes a pass at detectionInterval scans, 1 means every pass scans the full frame
+    public int stripesFor(int detectionInterval) {
+        return Math.max(1, maxNewFaceFrames / Math.max(1, detectionInterval));
+    }
+
+    //frames until a face entering the frame is scanned at most, at detectionInterval frames per pass
+    //never more than getMaxNewFaceFrames once a full pass is at least that often
+    public int newFaceLatencyFrames(int detectionInterval) {
+        int passes = stripesFor(detectionInterval);
+        if (fullScanEvery > 0) {
+            passes = Math.min(passes, fullScanEvery);
+        }
+        return passes * Math.max(1, detectionInterval);
+    }
+
+    //scan the full frame on the next pass
+    public void requestFullScan() {
+        fullScanRequested = true;
+    }
+
+    //windows to scan on this pass in a width x height detection image, null to scan the full frame
+    //previous are the faces of the last frame, maxFaceSize the largest face in pixels (0 no limit)
+    public Rect[] windows(int width, int height, Rect[] previous, int maxFaceSize, int detectionInterval) {
+        int count = stripesFor(detectionInterval);
+        boolean full = fullScanRequested || count == 1 || count != stripes
+                || width != imageWidth || height != imageHeight
+                || (fullScanEvery > 0 && passesSinceFullScan + 1 >= fullScanEvery);
+        if (full) {
+            fullScanRequested = false;
+            stripes = count;
+            //a full scan covers every stripe, the next round starts over
+            nextStripe = 0;
+            passesSinceFullScan = 0;
+            imageWidth = width;
+            imageHeight = height;
+            return null;
+        }
+        passesSinceFullScan++;
+
+        Rect[] windows = new Rect[previous.length + 1];
+        for (int i = 0; i < previous.length; i++) {
+            windows[i] = grow(previous[i], width, height);
+        }
+        int overlap = maxFaceSize > 0 ? Math.min(maxFaceSize, width) : Math.min(height / 2, width);
+        int stripeWidth = (width + stripes - 1) / stripes;
+        int left = Math.min(width - 1, nextStripe * stripeWidth);
+        int right = Math.min(width, left + stripeWidth + overlap);
+        windows[previous.length] = new Rect(left, 0, right - left, height);
+        nextStripe = (nextStripe + 1) % stripes;
+        return windows;
+    }
+
+    private Rect grow(Rect face, int width, int height) {
+        int marginX = (int) (face.width * margin);
+        int marginY = (int) (face.height * margin);
+        int x = Math.max(0, face.x - marginX);
+        int y = Math.max(0, face.y - marginY);
+        int right = Math.min(width, face.x + face.width + marginX);
+        int bottom = Math.min(height, face.y + face.height + marginY);
+        return new Rect(x, y, Math.max(0, right - x), Math.max(0, bottom - y));
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.facialrecofnitionapp;
+
+//element type and quantization of a model input or output tensor
+//quantized tensors store q with real value = scale * (q - zeroPoint)
+//float16 models take and return float32 at their boundary, so they are FLOAT32 here
+//read from an interpreter tensor by BatchInterpreter.formatOf
+public class TensorFormat {
+    public enum Type {
+        FLOAT32(4), UINT8(1), INT8(1);
+
+        public final int bytes;
+
+        Type(int bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    public static final TensorFormat FLOAT32 = new TensorFormat(Type.FLOAT32, 0, 0);
+
+    public final Type type;
+    //0 when the tensor has no quantization parameters
+    public final float scale;
+    public final int zeroPoint;
+
+    public TensorFormat(Type type, float scale, int zeroPoint) {
+        this.type = type;
+        this.scale = scale;
+        this.zeroPoint = zeroPoint;
+    }
+
+    public boolean isQuantized() {
+        return type != Type.FLOAT32;
+    }
+
+    //real value of a stored byte, raw value when the tensor has no scale
+    public float dequantize(byte stored) {
+        int q = type == Type.UINT8 ? stored & 0xff : stored;
+        return scale == 0 ? q : scale * (q - zeroPoint);
+    }
+
+    //factor and offset that turn a 0-255 pixel into a stored value for a model trained on
+    //pixels scaled to 0-1; a model without scale takes the raw pixel
+    //uint8 with scale 1/255 and zero point 0 gives (1, 0), the pixel bytes are copied as they are
+    public double pixelAlpha() {
+        return scale == 0 ? 1 : 1.0 / (255.0 * scale);
+    }
+
+    public double pixelBeta() {
+        return scale == 0 ? 0 : zeroPoint;
+    }
+
+    @Override
+    public String toString() {
+        return isQuantized() ? type + "(scale=" + scale + ", zeroPoint=" + zeroPoint + ")" : type.toString();
+    }
+}
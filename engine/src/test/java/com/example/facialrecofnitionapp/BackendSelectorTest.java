@@ -0,0 +1,97 @@
+package com.example.facialrecofnitionapp;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Backend search of BackendSelector with fake timings, run on the development machine.
+ */
+public class BackendSelectorTest {
+
+    @Test
+    public void threadCandidates_skipDuplicatesAndMissingCores() {
+        assertEquals(Arrays.asList(1, 2, 4, 8), new BackendSelector(8, false, null).threadCandidates());
+        assertEquals(Arrays.asList(1, 2, 4), new BackendSelector(4, false, null).threadCandidates());
+        assertEquals(Arrays.asList(1, 2, 3), new BackendSelector(3, false, null).threadCandidates());
+        assertEquals(Arrays.asList(1), new BackendSelector(1, false, null).threadCandidates());
+    }
+
+    @Test
+    public void select_cpuOnly_picksFastestThreadCount() {
+        //4 threads is best, 8 threads pays for contention
+        FakeTrial trial = new FakeTrial();
+        Backend backend = new BackendSelector(8, false, null).select("model", trial);
+        assertEquals(Backend.cpu(4), backend);
+        assertEquals(Arrays.asList("cpu1", "cpu2", "cpu4", "cpu8"), trial.tried);
+    }
+
+    @Test
+    public void select_failingDelegatesFallBackToCpu() {
+        FakeTrial trial = new FakeTrial();
+        trial.failing = true;
+        Backend backend = new BackendSelector(8, true, null).select("model", trial);
+        assertEquals(Backend.cpu(4), backend);
+        assertTrue(trial.tried.contains("gpu"));
+    }
+
+    @Test
+    public void select_fasterAcceleratorWins() {
+        FakeTrial trial = new FakeTrial();
+        Backend backend = new BackendSelector(8, true, null).select("model", trial);
+        //XNNPACK is tried with the best thread count
+        assertEquals(new Backend(4, true, false, false), backend);
+    }
+
+    @Test
+    public void select_cachedPerModelHash() throws IOException {
+        File cache = new File(Files.createTempDirectory("backend").toFile(), "backend.properties");
+        new BackendSelector(8, true, cache).select("model-a", new FakeTrial());
+
+        FakeTrial trial = new FakeTrial();
+        assertEquals(new Backend(4, true, false, false), new BackendSelector(8, true, cache).select("model-a", trial));
+        assertTrue(trial.tried.isEmpty());
+        //another model is measured again
+        new BackendSelector(8, true, cache).select("model-b", trial);
+        assertFalse(trial.tried.isEmpty());
+    }
+
+    @Test
+    public void encode_roundTrips() {
+        for (Backend backend : new Backend[]{Backend.cpu(3), new Backend(6, true, false, false),
+                new Backend(1, false, true, false), new Backend(1, false, false, true)}) {
+            assertEquals(backend, Backend.decode(backend.encode()));
+        }
+        assertNull(Backend.decode("cpuX"));
+        assertNull(Backend.decode("tpu"));
+    }
+
+    //cpu time shrinks with threads up to 4, XNNPACK is a bit faster, NNAPI and GPU slow or failing
+    private static class FakeTrial implements BackendSelector.Trial {
+        final List<String> tried = new ArrayList<>();
+        boolean failing = false;
+
+        @Override
+        public long measureMicros(Backend backend) throws Exception {
+            tried.add(backend.encode());
+            if (backend.gpu || backend.nnapi) {
+                if (failing) {
+                    throw new IllegalArgumentException("delegate not supported");
+                }
+                return 50000;
+            }
+            if (backend.xnnpack && failing) {
+                throw new IllegalStateException("xnnpack not built in");
+            }
+            long micros = 40000 / Math.min(backend.threads, 4) + (backend.threads > 4 ? 3000 : 0);
+            return backend.xnnpack ? micros * 3 / 4 : micros;
+        }
+    }
+}
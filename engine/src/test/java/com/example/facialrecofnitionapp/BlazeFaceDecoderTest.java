@@ -0,0 +1,71 @@
+package com.example.facialrecofnitionapp;
+
+import org.junit.Test;
+import org.opencv.core.Rect;
+
+import static org.junit.Assert.*;
+
+/**
+ * Anchor layout and box decoding of BlazeFaceDecoder, run on the development machine.
+ */
+public class BlazeFaceDecoderTest {
+    private final BlazeFaceDecoder decoder = new BlazeFaceDecoder(0.75f, 0.3f);
+    private final float[][] boxes = new float[BlazeFaceDecoder.ANCHORS][BlazeFaceDecoder.BOX_VALUES];
+    private final float[][] logits = new float[BlazeFaceDecoder.ANCHORS][1];
+
+    public BlazeFaceDecoderTest() {
+        for (float[] logit : logits) {
+            logit[0] = -10;
+        }
+    }
+
+    @Test
+    public void anchors_coverBothGrids() {
+        //first stride 8 cell, two anchors
+        assertEquals(0.5f / 16, decoder.anchorX(0), 1e-6);
+        assertEquals(0.5f / 16, decoder.anchorX(1), 1e-6);
+        //last stride 8 anchor and first stride 16 anchor
+        assertEquals(15.5f / 16, decoder.anchorY(511), 1e-6);
+        assertEquals(0.5f / 8, decoder.anchorX(512), 1e-6);
+        assertEquals(7.5f / 8, decoder.anchorX(BlazeFaceDecoder.ANCHORS - 1), 1e-6);
+    }
+
+    @Test
+    public void decode_noConfidentAnchor_findsNothing() {
+        assertEquals(0, decoder.decode(boxes, logits, 320, 240).length);
+    }
+
+    @Test
+    public void decode_mapsBoxToFrame() {
+        //stride 16 anchor at cell (4, 4), center 0.5625, box 32x32 input pixels
+        int anchor = 512 + (4 * 8 + 4) * 6;
+        logits[anchor][0] = 5;
+        boxes[anchor][2] = 32;
+        boxes[anchor][3] = 32;
+
+        Rect[] faces = decoder.decode(boxes, logits, 128, 128);
+
+        assertEquals(1, faces.length);
+        assertEquals(new Rect(56, 56, 32, 32), faces[0]);
+    }
+
+    @Test
+    public void decode_mergesOverlappingBoxes() {
+        int anchor = 512 + (4 * 8 + 4) * 6;
+        for (int i = 0; i < 6; i++) {
+            logits[anchor + i][0] = 5;
+            boxes[anchor + i][0] = i % 2 == 0 ? -2 : 2;
+            boxes[anchor + i][2] = 32;
+            boxes[anchor + i][3] = 32;
+        }
+        //a second face far away stays separate
+        logits[0][0] = 3;
+        boxes[0][2] = 8;
+        boxes[0][3] = 8;
+
+        Rect[] faces = decoder.decode(boxes, logits, 128, 128);
+
+        assertEquals(2, faces.length);
+        assertEquals(new Rect(56, 56, 32, 32), faces[0]);
+    }
+}
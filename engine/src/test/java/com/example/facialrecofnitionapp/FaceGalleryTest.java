@@ -0,0 +1,93 @@
+package com.example.facialrecofnitionapp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the embedding gallery, run on the development machine.
+ */
+public class FaceGalleryTest {
+    private static final int DIMENSION = 128;
+
+    @Test
+    public void search_findsClosestIdentity() {
+        FaceGallery gallery = new FaceGallery(DIMENSION, 2);
+        Random random = new Random(1);
+        float[][] people = new float[50][];
+        for (int i = 0; i < people.length; i++) {
+            people[i] = randomEmbedding(random);
+            gallery.enroll("person " + i, people[i]);
+        }
+        assertEquals(50, gallery.size());
+
+        FaceGallery.Match match = gallery.search(noisy(people[17], random, 0.05f), 0.5f);
+        assertEquals(17, match.identity);
+        assertEquals("person 17", match.name);
+        assertTrue(match.similarity > 0.9f);
+    }
+
+    @Test
+    public void search_rejectsStrangers() {
+        FaceGallery gallery = new FaceGallery(DIMENSION);
+        Random random = new Random(2);
+        gallery.enroll("known", randomEmbedding(random));
+
+        FaceGallery.Match match = gallery.search(randomEmbedding(random), 0.8f);
+        assertEquals(FaceGallery.NO_MATCH, match.identity);
+        assertNull(match.name);
+    }
+
+    @Test
+    public void enroll_sameNameSharesIdentity() {
+        FaceGallery gallery = new FaceGallery(DIMENSION);
+        Random random = new Random(3);
+        int first = gallery.enroll("a", randomEmbedding(random));
+        int second = gallery.enroll("a", randomEmbedding(random));
+        assertEquals(first, second);
+        assertEquals(2, gallery.size());
+        assertEquals(1, gallery.identityCount());
+    }
+
+    @Test
+    public void approximate_keepsMostNeighbours() {
+        FaceGallery gallery = new FaceGallery(DIMENSION);
+        gallery.setApproximate(1000, 32, 4);
+        Random random = new Random(4);
+        float[][] people = new float[2000][];
+        for (int i = 0; i < people.length; i++) {
+            people[i] = randomEmbedding(random);
+            gallery.enroll("person " + i, people[i]);
+        }
+        assertTrue(gallery.isApproximate());
+
+        int found = 0;
+        for (int i = 0; i < 200; i++) {
+            //query with a small variation of an enrolled face
+            FaceGallery.Match match = gallery.search(noisy(people[i * 10], random, 0.05f), 0.5f);
+            if (match.identity == i * 10) {
+                found++;
+            }
+        }
+        //probing 4 of 32 lists misses some faces, but most are close to their own centroid
+        assertTrue("found " + found, found >= 100);
+    }
+
+    static float[] randomEmbedding(Random random) {
+        float[] embedding = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            embedding[i] = (float) random.nextGaussian();
+        }
+        return embedding;
+    }
+
+    static float[] noisy(float[] embedding, Random random, float amount) {
+        float[] copy = embedding.clone();
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] += (float) random.nextGaussian() * amount;
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.facialrecofnitionapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decisions of FrameGovernor on synthetic latency traces, run on the development machine.
+ */
+public class FrameGovernorTest {
+    private static final int WINDOW = 4;
+    private static final FrameGovernor.Settings BASELINE = new FrameGovernor.Settings(320, 5, 0, 2);
+    private static final FrameGovernor.Settings FLOOR = new FrameGovernor.Settings(160, 10, 1, 1);
+
+    private final List<FrameGovernor.Settings> applied = new ArrayList<>();
+
+    @Test
+    public void overBudget_detectionHeavy_stepsDownDetectionLadder() {
+        FrameGovernor governor = governor();
+        detectionHeavy(governor, 50, 4);
+        assertEquals(new FrameGovernor.Settings(320, 10, 0, 2), governor.getSettings());
+        //the window after a change is not judged
+        detectionHeavy(governor, 50, 4);
+        assertEquals(1, applied.size());
+        detectionHeavy(governor, 50, 4);
+        assertEquals(new FrameGovernor.Settings(160, 10, 0, 2), governor.getSettings());
+        detectionHeavy(governor, 50, 4);
+        detectionHeavy(governor, 50, 4);
+        assertEquals(new FrameGovernor.Settings(160, 10, 0, 1), governor.getSettings());
+        //detection ladder at its floor, recognition takes over with half the faces seen
+        detectionHeavy(governor, 50, 4);
+        detectionHeavy(governor, 50, 4);
+        assertEquals(new FrameGovernor.Settings(160, 10, 2, 1), governor.getSettings());
+        assertEquals(4, governor.getLevel());
+        assertEquals(applied.get(applied.size() - 1), governor.getSettings());
+    }
+
+    @Test
+    public void overBudget_recognitionHeavy_limitsFacesFirst() {
+        FrameGovernor governor = governor();
+        recognitionHeavy(governor, 50, 6);
+        assertEquals(3, governor.getSettings().maxFaces);
+        recognitionHeavy(governor, 50, 6);
+        recognitionHeavy(governor, 50, 6);
+        assertEquals(1, governor.getSettings().maxFaces);
+        recognitionHeavy(governor, 50, 6);
+        recognitionHeavy(governor, 50, 6);
+        //one face is the floor, detection gives the rest
+        assertEquals(new FrameGovernor.Settings(320, 10, 1, 2), governor.getSettings());
+    }
+
+    @Test
+    public void headroom_restoresStepsInReverseOrder() {
+        FrameGovernor governor = governor();
+        detectionHeavy(governor, 50, 2);
+        detectionHeavy(governor, 50, 2);
+        detectionHeavy(governor, 50, 2);
+        assertEquals(2, governor.getLevel());
+        //settling window plus three calm ones give back the newest step
+        for (int i = 0; i < 3; i++) {
+            detectionHeavy(governor, 15, 2);
+        }
+        assertEquals(2, governor.getLevel());
+        detectionHeavy(governor, 15, 2);
+        assertEquals(new FrameGovernor.Settings(320, 10, 0, 2), governor.getSettings());
+        for (int i = 0; i < 4; i++) {
+            detectionHeavy(governor, 15, 2);
+        }
+        assertEquals(BASELINE, governor.getSettings());
+        assertEquals(0, governor.getLevel());
+        //nothing below the baseline to give back
+        for (int i = 0; i < 10; i++) {
+            detectionHeavy(governor, 15, 2);
+        }
+        assertEquals(4, applied.size());
+    }
+
+    @Test
+    public void withinHeadroomBand_keepsSettings() {
+        FrameGovernor governor = governor();
+        detectionHeavy(governor, 50, 2);
+        for (int i = 0; i < 20; i++) {
+            detectionHeavy(governor, 28, 2);
+        }
+        assertEquals(1, governor.getLevel());
+        assertEquals(1, applied.size());
+    }
+
+    @Test
+    public void failedRestore_waitsLongerBeforeNextTry() {
+        FrameGovernor governor = governor();
+        detectionHeavy(governor, 50, 2);
+        for (int i = 0; i < 4; i++) {
+            detectionHeavy(governor, 15, 2);
+        }
+        assertEquals(0, governor.getLevel());
+        //settling window, then the restored setting turns out too slow
+        detectionHeavy(governor, 50, 2);
+        detectionHeavy(governor, 50, 2);
+        assertEquals(1, governor.getLevel());
+        //now six calm windows are needed after the settling one
+        for (int i = 0; i < 6; i++) {
+            detectionHeavy(governor, 15, 2);
+        }
+        assertEquals(1, governor.getLevel());
+        detectionHeavy(governor, 15, 2);
+        assertEquals(0, governor.getLevel());
+    }
+
+    @Test
+    public void atFloor_isRecordedOnce() {
+        FrameGovernor governor = new FrameGovernor(33000, WINDOW, FLOOR, FLOOR, null);
+        for (int i = 0; i < 5; i++) {
+            detectionHeavy(governor, 50, 1);
+        }
+        List<FrameGovernor.Decision> decisions = governor.recentDecisions();
+        assertEquals(1, decisions.size());
+        assertEquals("at floor", decisions.get(0).action);
+        assertEquals(FLOOR, governor.getSettings());
+    }
+
+    @Test
+    public void pipelined_everyStageWithinBudget_keepsSettings() {
+        FrameGovernor governor = governor();
+        //30 ms detection and 30 ms inference on their own threads: 30 fps, though each
+        //frame takes 60 ms and more from capture to result
+        for (int i = 0; i < 20; i++) {
+            window(governor, 75, 30000, 30000, 2);
+        }
+        assertEquals(0, governor.getLevel());
+        assertTrue(applied.isEmpty());
+    }
+
+    @Test
+    public void sequential_sumOfStagesOverBudget_stepsDown() {
+        FrameGovernor governor = new FrameGovernor(33000, WINDOW, BASELINE, FLOOR, false,
+                new FrameGovernor.Target() {
+                    @Override
+                    public void apply(FrameGovernor.Settings settings, FrameGovernor.Decision decision) {
+                        applied.add(settings);
+                    }
+                });
+        //the same stages one after the other on one thread
+        window(governor, 60, 30000, 30000, 2);
+        assertEquals(1, governor.getLevel());
+    }
+
+    @Test
+    public void sameTrace_givesSameDecisions() {
+        List<String> first = replay(new Random(7));
+        List<String> second = replay(new Random(7));
+        assertFalse(first.isEmpty());
+        assertEquals(first, second);
+    }
+
+    private List<String> replay(Random random) {
+        FrameGovernor governor = governor();
+        for (int frame = 0; frame < 2000; frame++) {
+            long detect = 5000 + random.nextInt(30000);
+            long infer = 2000 + random.nextInt(20000);
+            governor.stageFinished(PipelineMetrics.Stage.DETECT, detect);
+            governor.stageFinished(PipelineMetrics.Stage.INFER, infer);
+            governor.frameFinished(detect + infer, random.nextInt(5));
+        }
+        List<String> decisions = new ArrayList<>();
+        for (FrameGovernor.Decision decision : governor.recentDecisions()) {
+            decisions.add(decision.toString());
+        }
+        return decisions;
+    }
+
+    private FrameGovernor governor() {
+        return new FrameGovernor(33000, WINDOW, BASELINE, FLOOR, new FrameGovernor.Target() {
+            @Override
+            public void apply(FrameGovernor.Settings settings, FrameGovernor.Decision decision) {
+                applied.add(settings);
+            }
+        });
+    }
+
+    //one window of frames taking frameMillis, most of it in detection
+    private static void detectionHeavy(FrameGovernor governor, long frameMillis, int faces) {
+        window(governor, frameMillis, frameMillis * 900, frameMillis * 100, faces);
+    }
+
+    private static void recognitionHeavy(FrameGovernor governor, long frameMillis, int faces) {
+        window(governor, frameMillis, frameMillis * 100, frameMillis * 900, faces);
+    }
+
+    private static void window(FrameGovernor governor, long frameMillis, long detectMicros, long inferMicros,
+                               int faces) {
+        for (int i = 0; i < WINDOW; i++) {
+            governor.stageFinished(PipelineMetrics.Stage.DETECT, detectMicros);
+            governor.stageFinished(PipelineMetrics.Stage.INFER, inferMicros);
+            governor.frameFinished(frameMillis * 1000, faces);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.facialrecofnitionapp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Validation of Frame buffers, run on the development machine.
+ */
+public class FrameTest {
+
+    @Test
+    public void nv21_needsChromaRows() {
+        Frame frame = new Frame(ByteBuffer.allocateDirect(640 * 480 * 3 / 2), 640, 480, Frame.Format.NV21);
+        assertEquals(640, frame.stride);
+    }
+
+    @Test
+    public void rotation90_swapsUprightSize() {
+        Frame frame = new Frame(ByteBuffer.allocateDirect(704 * 480 * 4), 640, 480, 704 * 4,
+                Frame.Format.RGBA8888, 90);
+        assertEquals(480, frame.uprightWidth());
+        assertEquals(640, frame.uprightHeight());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void heapBuffer_isRejected() {
+        new Frame(ByteBuffer.allocate(640 * 480), 640, 480, Frame.Format.GRAY8);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shortStride_isRejected() {
+        new Frame(ByteBuffer.allocateDirect(640 * 480 * 4), 640, 480, 640, Frame.Format.RGBA8888, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void smallBuffer_isRejected() {
+        new Frame(ByteBuffer.allocateDirect(640 * 480), 640, 480, Frame.Format.NV21);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void strideOfPartialPixels_isRejected() {
+        new Frame(ByteBuffer.allocateDirect((640 * 3 + 2) * 480), 640, 480, 640 * 3 + 2, Frame.Format.RGB888, 0);
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.facialrecofnitionapp;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Persistence and crash recovery of GalleryStore, run on the development machine.
+ */
+public class GalleryStoreTest {
+    private static final int DIMENSION = 16;
+
+    @Test
+    public void reopen_replaysLog() throws IOException {
+        File directory = newDirectory();
+        Random random = new Random(1);
+        float[][] people = enroll(directory, random, 10);
+
+        GalleryStore store = GalleryStore.open(directory, DIMENSION, 0);
+        assertEquals(10, store.gallery().size());
+        assertEquals(10, store.pendingRecords());
+        assertEquals("person 4", store.gallery().search(people[4], 0.9f).name);
+        store.close();
+    }
+
+    @Test
+    public void compact_movesLogIntoBase() throws IOException {
+        File directory = newDirectory();
+        Random random = new Random(2);
+        float[][] people = enroll(directory, random, 10);
+
+        GalleryStore store = GalleryStore.open(directory, DIMENSION, 0);
+        store.compact();
+        assertEquals(0, store.pendingRecords());
+        assertEquals(0, store.walFile().length());
+        //enrolled after compaction, lives in the log until the next one
+        store.gallery().enroll("late", FaceGalleryTest.noisy(people[0], random, 1f));
+        store.close();
+
+        store = GalleryStore.open(directory, DIMENSION, 0);
+        assertEquals(11, store.gallery().size());
+        assertEquals(1, store.pendingRecords());
+        assertEquals("person 7", store.gallery().search(people[7], 0.9f).name);
+        assertEquals(11, store.gallery().identityCount());
+        store.close();
+    }
+
+    @Test
+    public void compactAsync_runsInBackgroundAfterThreshold() throws Exception {
+        File directory = newDirectory();
+        GalleryStore store = GalleryStore.open(directory, DIMENSION, 5);
+        Random random = new Random(3);
+        for (int i = 0; i < 5; i++) {
+            store.gallery().enroll("person " + i, randomEmbedding(random));
+        }
+        store.compactAsync().get();
+        assertTrue(store.baseFile().exists());
+        assertEquals(0, store.pendingRecords());
+        store.close();
+    }
+
+    @Test
+    public void close_waitsForRunningCompaction() throws Exception {
+        File directory = newDirectory();
+        GalleryStore store = GalleryStore.open(directory, DIMENSION, 5);
+        Random random = new Random(5);
+        for (int i = 0; i < 5; i++) {
+            store.gallery().enroll("person " + i, randomEmbedding(random));
+        }
+        //the fifth enroll started a background compaction, a direct one runs after it
+        store.compact();
+        store.close();
+        assertNull(store.getCompactionFailure());
+
+        GalleryStore reopened = GalleryStore.open(directory, DIMENSION, 0);
+        assertEquals(5, reopened.gallery().size());
+        assertEquals(0, reopened.pendingRecords());
+        reopened.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void compact_afterClose_fails() throws IOException {
+        GalleryStore store = GalleryStore.open(newDirectory(), DIMENSION, 0);
+        store.close();
+        store.compact();
+    }
+
+    @Test
+    public void tornRecord_isCutOff() throws IOException {
+        File directory = newDirectory();
+        Random random = new Random(4);
+        float[][] people = enroll(directory, random, 3);
+
+        //crash in the middle of writing the third record
+        File wal = new File(directory, "gallery.wal");
+        RandomAccessFile file = new RandomAccessFile(wal, "rw");
+        file.setLength(file.length() - 10);
+        file.close();
+
+        GalleryStore store = GalleryStore.open(directory, DIMENSION, 0);
+        assertEquals(2, store.gallery().size());
+        assertEquals("person 1", store.gallery().search(people[1], 0.9f).name);
+        //enrolling again continues after the last good record
+        store.gallery().enroll("person 2", people[2]);
+        store.close();
+
+        store = GalleryStore.open(directory, DIMENSION, 0);
+        assertEquals(3, store.gallery().size());
+        assertEquals("person 2", store.gallery().search(people[2], 0.9f).name);
+        store.close();
+    }
+
+    @Test
+    public void corruptRecord_stopsReplay() throws IOException {
+        File directory = newDirectory();
+        enroll(directory, new Random(5), 3);
+
+        //flip a byte in the embedding of the second record
+        File wal = new File(directory, "gallery.wal");
+        long recordLength = wal.length() / 3;
+        RandomAccessFile file = new RandomAccessFile(wal, "rw");
+        file.seek(recordLength + recordLength - 2);
+        int value = file.read();
+        file.seek(recordLength + recordLength - 2);
+        file.write(value ^ 0xFF);
+        file.close();
+
+        GalleryStore store = GalleryStore.open(directory, DIMENSION, 0);
+        assertEquals(1, store.gallery().size());
+        assertEquals(recordLength, wal.length());
+        store.close();
+    }
+
+    @Test
+    public void crashAfterBaseSwap_doesNotDuplicateRows() throws IOException {
+        File directory = newDirectory();
+        enroll(directory, new Random(6), 4);
+
+        //new base written and renamed, but the log was not rewritten yet
+        GalleryStore store = GalleryStore.open(directory, DIMENSION, 0);
+        GalleryStore.writeBase(store.baseFile(), store.gallery(), store.gallery().size());
+        store.close();
+
+        store = GalleryStore.open(directory, DIMENSION, 0);
+        assertEquals(4, store.gallery().size());
+        assertEquals(0, store.pendingRecords());
+        store.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void wrongDimension_isRejected() throws IOException {
+        File directory = newDirectory();
+        GalleryStore store = GalleryStore.open(directory, DIMENSION, 0);
+        store.gallery().enroll("a", randomEmbedding(new Random(7)));
+        store.compact();
+        store.close();
+        GalleryStore.open(directory, DIMENSION * 2, 0);
+    }
+
+    private static float[][] enroll(File directory, Random random, int count) throws IOException {
+        GalleryStore store = GalleryStore.open(directory, DIMENSION, 0);
+        float[][] people = new float[count][];
+        for (int i = 0; i < count; i++) {
+            people[i] = randomEmbedding(random);
+            store.gallery().enroll("person " + i, people[i]);
+        }
+        store.close();
+        return people;
+    }
+
+    private static float[] randomEmbedding(Random random) {
+        float[] embedding = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            embedding[i] = (float) random.nextGaussian();
+        }
+        return embedding;
+    }
+
+    private static File newDirectory() throws IOException {
+        File directory = Files.createTempDirectory("gallery").toFile();
+        directory.deleteOnExit();
+        return directory;
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.facialrecofnitionapp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Splitting and joining of InterpreterPool with fake models, run on the development machine.
+ */
+public class InterpreterPoolTest {
+
+    @Test
+    public void run_keepsInputOrder() {
+        InterpreterPool pool = new InterpreterPool(Arrays.asList(new EchoModel(), new EchoModel(), new EchoModel()));
+        for (int faces : new int[]{0, 1, 2, 3, 7, 16}) {
+            float[][] outputs = pool.run(inputs(faces));
+            assertEquals(faces, outputs.length);
+            for (int i = 0; i < faces; i++) {
+                assertEquals(i, outputs[i][0], 0f);
+            }
+        }
+        pool.close();
+    }
+
+    @Test
+    public void run_spreadsChunksOverInstances() {
+        List<EchoModel> models = Arrays.asList(new EchoModel(), new EchoModel(), new EchoModel(), new EchoModel());
+        InterpreterPool pool = new InterpreterPool(models);
+        pool.run(inputs(10));
+        int calls = 0;
+        int faces = 0;
+        for (EchoModel model : models) {
+            calls += model.calls;
+            faces += model.faces;
+        }
+        //10 faces over 4 instances: 4 chunks of 2 or 3 faces
+        assertEquals(4, calls);
+        assertEquals(10, faces);
+        for (EchoModel model : models) {
+            assertTrue(model.smallestChunk >= 2 && model.largestChunk <= 3);
+        }
+        pool.close();
+    }
+
+    @Test
+    public void setActiveInstances_limitsChunks() {
+        List<EchoModel> models = Arrays.asList(new EchoModel(), new EchoModel(), new EchoModel(), new EchoModel());
+        InterpreterPool pool = new InterpreterPool(models);
+        pool.setActiveInstances(2);
+        float[][] outputs = pool.run(inputs(10));
+        assertEquals(9, outputs[9][0], 0f);
+        int calls = 0;
+        for (EchoModel model : models) {
+            calls += model.calls;
+        }
+        assertEquals(2, calls);
+        //clamped to the instances there are
+        pool.setActiveInstances(0);
+        assertEquals(1, pool.getActiveInstances());
+        pool.setActiveInstances(9);
+        assertEquals(4, pool.getActiveInstances());
+        pool.close();
+    }
+
+    @Test
+    public void run_interruptedCallerStillGetsAllRows() {
+        InterpreterPool pool = new InterpreterPool(Arrays.asList(new EchoModel(), new EchoModel()));
+        Thread.currentThread().interrupt();
+        float[][] outputs = pool.run(inputs(4));
+        //the flag is kept for the caller's own loop
+        assertTrue(Thread.interrupted());
+        assertEquals(3, outputs[3][0], 0f);
+        pool.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void run_afterClose_failsInsteadOfWaiting() {
+        InterpreterPool pool = new InterpreterPool(Arrays.asList(new EchoModel(), new EchoModel()));
+        pool.close();
+        pool.run(inputs(2));
+    }
+
+    @Test
+    public void runOnEach_runsEveryInstance() {
+        List<EchoModel> models = Arrays.asList(new EchoModel(), new EchoModel());
+        InterpreterPool pool = new InterpreterPool(models);
+        pool.runOnEach(inputs(1));
+        assertEquals(1, models.get(0).calls);
+        assertEquals(1, models.get(1).calls);
+        pool.close();
+    }
+
+    @Test
+    public void instancesFor_staysWithinCores() {
+        assertEquals(2, InterpreterPool.instancesFor(Backend.cpu(4), 8));
+        assertEquals(1, InterpreterPool.instancesFor(Backend.cpu(4), 4));
+        assertEquals(InterpreterPool.MAX_INSTANCES, InterpreterPool.instancesFor(Backend.cpu(1), 8));
+        assertEquals(1, InterpreterPool.instancesFor(new Backend(1, false, false, true), 8));
+        assertEquals(1, InterpreterPool.instancesFor(new Backend(1, false, true, false), 8));
+    }
+
+    static FaceInput[] inputs(int count) {
+        FaceInput[] inputs = new FaceInput[count];
+        for (int i = 0; i < count; i++) {
+            inputs[i] = new FaceInput(4);
+            inputs[i].floats.put(0, i);
+        }
+        return inputs;
+    }
+
+    //returns the first value of every input
+    private static class EchoModel implements FaceModel {
+        int calls = 0;
+        int faces = 0;
+        int smallestChunk = Integer.MAX_VALUE;
+        int largestChunk = 0;
+
+        @Override
+        public synchronized float[][] run(FaceInput[] inputs) {
+            calls++;
+            faces += inputs.length;
+            smallestChunk = Math.min(smallestChunk, inputs.length);
+            largestChunk = Math.max(largestChunk, inputs.length);
+            float[][] outputs = new float[inputs.length][1];
+            for (int i = 0; i < inputs.length; i++) {
+                outputs[i][0] = inputs[i].floats.get(0);
+            }
+            return outputs;
+        }
+    }
+}
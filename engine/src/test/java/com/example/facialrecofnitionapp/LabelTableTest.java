@@ -0,0 +1,40 @@
+package com.example.facialrecofnitionapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * LabelTable on the plain JVM.
+ */
+public class LabelTableTest {
+    private final LabelTable table = new LabelTable(new String[]{"Alice", "Bob", "Carol", "Dave"}, "Unknown", 0.5f,
+            0.5f);
+
+    @Test
+    public void labelFor_regression_roundsToLabel() {
+        assertEquals(1, table.labelFor(new float[]{1.3f}));
+        assertEquals(0, table.labelFor(new float[]{0f}));
+        assertEquals(LabelTable.UNKNOWN, table.labelFor(new float[]{4.2f}));
+    }
+
+    @Test
+    public void labelFor_negativeRegression_isUnknown() {
+        assertEquals(LabelTable.UNKNOWN, table.labelFor(new float[]{-0.2f}));
+        assertEquals("Unknown", table.name(table.labelFor(new float[]{-0.2f})));
+    }
+
+    @Test
+    public void topK_bestFirst() {
+        int[] indices = new int[2];
+        float[] scores = new float[2];
+        assertEquals(2, table.topK(new float[]{0.1f, 0.7f, 0.05f, 0.15f}, 2, indices, scores));
+        assertArrayEquals(new int[]{1, 3}, indices);
+        assertArrayEquals(new float[]{0.7f, 0.15f}, scores, 0);
+    }
+
+    @Test
+    public void topK_zero_writesNothing() {
+        assertEquals(0, table.topK(new float[]{0.1f, 0.7f, 0.05f, 0.15f}, 0, new int[0], new float[0]));
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.facialrecofnitionapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bucket layout and percentiles of LogHistogram, run on the development machine.
+ */
+public class LogHistogramTest {
+
+    @Test
+    public void smallValues_areExact() {
+        LogHistogram histogram = new LogHistogram();
+        for (int value = 0; value < 64; value++) {
+            histogram.record(value);
+        }
+        assertEquals(64, histogram.count());
+        assertEquals(31, histogram.percentile(0.5));
+        assertEquals(63, histogram.percentile(1));
+        assertEquals(31.5, histogram.mean(), 1e-9);
+    }
+
+    @Test
+    public void buckets_areContiguous() {
+        int previous = LogHistogram.bucketOf(0);
+        for (long value = 1; value < 1 << 20; value++) {
+            int bucket = LogHistogram.bucketOf(value);
+            assertTrue(bucket == previous || bucket == previous + 1);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void largeValues_stayWithinRelativeError() {
+        for (long value = 64; value < 100000000L; value = value * 3 / 2 + 7) {
+            long reported = LogHistogram.representative(LogHistogram.bucketOf(value));
+            assertEquals(value, reported, value * 0.032);
+        }
+    }
+
+    @Test
+    public void percentiles_ofUniformLatencies() {
+        LogHistogram histogram = new LogHistogram();
+        for (int micros = 1; micros <= 10000; micros++) {
+            histogram.record(micros);
+        }
+        assertEquals(5000, histogram.percentile(0.5), 5000 * 0.032);
+        assertEquals(9900, histogram.percentile(0.99), 9900 * 0.032);
+        assertEquals(10000, histogram.max());
+        assertTrue(histogram.percentile(1) <= histogram.max());
+    }
+
+    @Test
+    public void hugeValues_landInLastBucket() {
+        LogHistogram histogram = new LogHistogram();
+        histogram.record(Long.MAX_VALUE / 2);
+        assertEquals(1, histogram.count());
+        assertEquals(Long.MAX_VALUE / 2, histogram.max());
+    }
+
+    @Test
+    public void reset_clearsEverything() {
+        LogHistogram histogram = new LogHistogram();
+        histogram.record(1234);
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.percentile(0.99));
+        assertEquals(0, histogram.max());
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.facialrecofnitionapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import static org.junit.Assert.*;
+
+/**
+ * MotionGate on synthetic gray frames with desktop OpenCV, run on the development machine.
+ */
+public class MotionGateTest {
+    private Mat gray;
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    @Before
+    public void setUp() {
+        gray = new Mat(480, 640, CvType.CV_8UC1, new Scalar(100));
+    }
+
+    @After
+    public void tearDown() {
+        gray.release();
+    }
+
+    @Test
+    public void stillFrames_areSkipped() {
+        MotionGate gate = new MotionGate(64, 12, 0.005, 0);
+        assertTrue(gate.check(gray));
+        assertFalse(gate.check(gray));
+        assertFalse(gate.check(gray));
+        assertTrue(gate.isIdle());
+        assertEquals(1, gate.getPassed());
+        assertEquals(2, gate.getSkipped());
+        gate.release();
+    }
+
+    @Test
+    public void movingObject_passes() {
+        MotionGate gate = new MotionGate(64, 12, 0.005, 0);
+        gate.check(gray);
+        Imgproc.rectangle(gray, new Point(100, 100), new Point(200, 200), new Scalar(255), -1);
+        assertTrue(gate.check(gray));
+        assertFalse(gate.isIdle());
+        gate.release();
+    }
+
+    @Test
+    public void smallBrightnessChange_isSkipped() {
+        MotionGate gate = new MotionGate(64, 12, 0.005, 0);
+        gate.check(gray);
+        Core.add(gray, new Scalar(5), gray);
+        assertFalse(gate.check(gray));
+        gate.release();
+    }
+
+    @Test
+    public void refreshInterval_forcesPass() {
+        MotionGate gate = new MotionGate(64, 12, 0.005, 3);
+        assertTrue(gate.check(gray));
+        assertFalse(gate.check(gray));
+        assertFalse(gate.check(gray));
+        assertTrue(gate.check(gray));
+        gate.release();
+    }
+}
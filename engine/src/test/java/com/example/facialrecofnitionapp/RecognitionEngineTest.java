@@ -0,0 +1,223 @@
+package com.example.facialrecofnitionapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * RecognitionEngine with desktop OpenCV and a stub model, run on the development machine.
+ */
+public class RecognitionEngineTest {
+    private static final int INPUT_SIZE = 96;
+    private static final String[] LABELS = {"Alice", "Bob", "Carol"};
+
+    private StubModel model;
+    private RecognitionEngine engine;
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    @Before
+    public void setUp() {
+        //tests run in engine/, the cascade is the one the app ships
+        File cascade = new File("../app/src/main/res/raw/haarcascade_frontalface_alt.xml");
+        model = new StubModel();
+        engine = new RecognitionEngine(new CascadeClassifier(cascade.getAbsolutePath()), model,
+                TensorFormat.FLOAT32, INPUT_SIZE, new LabelTable(LABELS, "Unknown", 0.5f, 0.5f), "Unknown");
+    }
+
+    @After
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Test
+    public void recognize_blankFrame_findsNoFaces() {
+        for (Frame.Format format : Frame.Format.values()) {
+            //padded rows, as camera buffers often have
+            int stride = (320 + 16) * format.pixelBytes;
+            Frame frame = new Frame(ByteBuffer.allocateDirect(stride * Frame.rows(format, 240)), 320, 240, stride,
+                    format, 90);
+            assertEquals(0, engine.recognize(frame).length);
+        }
+        assertEquals(0, model.calls);
+    }
+
+    @Test
+    public void identifyFaces_keepsDetectionOrder() {
+        Mat upright = gradient(240, 320);
+        Rect[] rects = {new Rect(10, 10, 60, 60), new Rect(100, 20, 80, 80), new Rect(200, 100, 50, 50)};
+        FaceDetections detections = new FaceDetections(rects, new int[]{7, 8, 9}, true);
+        //the stub answers label = index of the face in its batch
+        RecognizedFace[] faces = recognize(upright, detections, 1);
+        assertEquals(3, faces.length);
+        for (int i = 0; i < faces.length; i++) {
+            assertSame(rects[i], faces[i].rect);
+            assertEquals(LABELS[i], faces[i].name);
+            assertEquals(7 + i, faces[i].trackId);
+        }
+        upright.release();
+    }
+
+    @Test
+    public void identifyFaces_reusesCachedIdentity() {
+        Mat upright = gradient(240, 320);
+        FaceDetections detections = new FaceDetections(new Rect[]{new Rect(40, 40, 100, 100)}, new int[]{1}, true);
+        recognize(upright, detections, 1);
+        RecognizedFace[] faces = recognize(upright, detections, 2);
+        //same crop in the next frame is not classified again
+        assertEquals(1, model.calls);
+        assertEquals("Alice", faces[0].name);
+        upright.release();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void enrollFace_withoutGallery_fails() {
+        Mat upright = gradient(240, 320);
+        try {
+            engine.enrollFace("Dave", upright, new Rect(40, 40, 100, 100));
+        } finally {
+            upright.release();
+        }
+    }
+
+    @Test
+    public void maxFacesPerFrame_defersFacesToLaterFrames() {
+        Mat upright = gradient(240, 320);
+        Rect[] rects = {new Rect(10, 10, 60, 60), new Rect(100, 20, 80, 80), new Rect(200, 100, 50, 50)};
+        FaceDetections detections = new FaceDetections(rects, new int[]{1, 2, 3}, true);
+        engine.setMaxFacesPerFrame(2);
+        RecognizedFace[] faces = recognize(upright, detections, 1);
+        //the third face has no identity yet and waits for the next frame
+        assertEquals(LABELS[0], faces[0].name);
+        assertEquals(LABELS[1], faces[1].name);
+        assertEquals("Unknown", faces[2].name);
+        faces = recognize(upright, detections, 2);
+        assertEquals(2, model.calls);
+        assertEquals(LABELS[0], faces[2].name);
+        upright.release();
+    }
+
+    @Test
+    public void preprocessFaces_cameraOrientation_matchesUprightFrame() {
+        Mat camera = gradient(240, 320);
+        //vertical gradient as well, so a wrong turn changes the crop
+        Core.add(camera.submat(0, 120, 0, 320), new Scalar(40, 0, 0, 0), camera.submat(0, 120, 0, 320));
+        Mat upright = new Mat();
+        Core.rotate(camera, upright, Core.ROTATE_90_CLOCKWISE);
+        FrameContext context = new FrameContext(320, 240);
+        context.wrap(camera, null);
+        //scale 1 and 2 sample whole pixels, so both paths read exactly the same ones
+        Rect[] rects = {new Rect(30, 50, 96, 96), new Rect(20, 100, 192, 192)};
+        FaceInput[] expected = engine.preprocessFaces(upright,
+                new FaceDetections(rects, new int[]{1, 2}, true), 1, new long[2]);
+        FaceInput[] actual = engine.preprocessFaces(context,
+                new FaceDetections(rects, new int[]{3, 4}, true), 1, new long[2]);
+        for (int i = 0; i < rects.length; i++) {
+            float[] want = new float[INPUT_SIZE * INPUT_SIZE * 3];
+            float[] got = new float[want.length];
+            expected[i].floats.rewind();
+            expected[i].floats.get(want);
+            actual[i].floats.rewind();
+            actual[i].floats.get(got);
+            assertArrayEquals(want, got, 0f);
+        }
+        engine.recycleInputs(expected);
+        engine.recycleInputs(actual);
+        context.release();
+        upright.release();
+        camera.release();
+    }
+
+    @Test
+    public void prepareDetectionImage_cameraOrientation_isUpright() {
+        Mat camera = gradient(480, 640);
+        FrameContext context = new FrameContext(640, 480);
+        context.wrap(camera, null);
+        Mat detectGray = engine.prepareDetectionImage(context);
+        //portrait once turned, at the same scale on both axes
+        assertTrue(detectGray.rows() > detectGray.cols());
+        assertEquals(640.0 / 480.0, (double) detectGray.rows() / detectGray.cols(), 0.01);
+        context.release();
+        camera.release();
+    }
+
+    @Test
+    public void drawFace_cameraOrientation_matchesUprightDrawing() {
+        Mat camera = gradient(240, 320);
+        Mat upright = new Mat();
+        Core.rotate(camera, upright, Core.ROTATE_90_CLOCKWISE);
+        FaceAnnotator annotator = new FaceAnnotator();
+        //second face runs into the bottom right corner, its name is clipped on both paths
+        RecognizedFace[] faces = {new RecognizedFace(1, new Rect(20, 30, 100, 100), "Alice", 1),
+                new RecognizedFace(2, new Rect(180, 280, 60, 40), "Carol", 1)};
+        annotator.drawFaces(upright, faces);
+        annotator.drawFaces(camera, faces, true);
+        Mat turned = new Mat();
+        Core.rotate(camera, turned, Core.ROTATE_90_CLOCKWISE);
+        Mat difference = new Mat();
+        Core.absdiff(turned, upright, difference);
+        assertEquals(0, Core.countNonZero(difference.reshape(1)));
+        annotator.release();
+        difference.release();
+        turned.release();
+        upright.release();
+        camera.release();
+    }
+
+    private RecognizedFace[] recognize(Mat upright, FaceDetections detections, long frameId) {
+        long[] hashes = new long[detections.faces.length];
+        FaceInput[] inputs = engine.preprocessFaces(upright, detections, frameId, hashes);
+        try {
+            return engine.identifyFaces(frameId, detections, inputs, hashes);
+        } finally {
+            engine.recycleInputs(inputs);
+        }
+    }
+
+    //rgba image with a horizontal gradient, so crops hash to something stable
+    private static Mat gradient(int rows, int cols) {
+        Mat image = new Mat(rows, cols, CvType.CV_8UC4, new Scalar(0, 0, 0, 255));
+        byte[] row = new byte[cols * 4];
+        for (int x = 0; x < cols; x++) {
+            byte value = (byte) (x * 255 / cols);
+            row[x * 4] = value;
+            row[x * 4 + 1] = value;
+            row[x * 4 + 2] = value;
+            row[x * 4 + 3] = (byte) 255;
+        }
+        for (int y = 0; y < rows; y++) {
+            image.put(y, 0, row);
+        }
+        return image;
+    }
+
+    //regression model stand-in: the output of a face is its position in the batch
+    private static class StubModel implements FaceModel {
+        int calls = 0;
+
+        @Override
+        public float[][] run(FaceInput[] inputs) {
+            calls++;
+            float[][] outputs = new float[inputs.length][1];
+            for (int i = 0; i < inputs.length; i++) {
+                outputs[i][0] = i;
+            }
+            return outputs;
+        }
+    }
+}
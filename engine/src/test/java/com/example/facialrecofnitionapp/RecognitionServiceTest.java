@@ -0,0 +1,145 @@
+package com.example.facialrecofnitionapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * RecognitionService with desktop OpenCV, a stub detector and a stub model, run on the development machine.
+ */
+public class RecognitionServiceTest {
+    private RecognitionService service;
+    private Mat frame;
+    //"stream:index" of every result, in the order the workers delivered them
+    private final List<String> results = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+    private final RecognitionService.Listener listener = new RecognitionService.Listener() {
+        @Override
+        public void recognized(RecognitionService.Stream stream, long index, RecognizedFace[] faces) {
+            results.add(stream.name + ":" + index);
+        }
+
+        @Override
+        public void failed(RecognitionService.Stream stream, RuntimeException e) {
+            failures.add(stream.name + ":" + e.getMessage());
+        }
+    };
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    @Before
+    public void setUp() {
+        frame = new Mat(48, 64, CvType.CV_8UC4, new Scalar(0, 0, 0, 255));
+        service = newService(new NoFaceDetector(false));
+    }
+
+    @After
+    public void tearDown() {
+        service.close();
+        frame.release();
+    }
+
+    @Test
+    public void busyStream_takesTurnsWithQuietOne() throws InterruptedException {
+        RecognitionService.Stream busy = service.openStream("busy", false, 8, listener);
+        RecognitionService.Stream quiet = service.openStream("quiet", false, 8, listener);
+        for (int i = 0; i < 8; i++) {
+            assertTrue(busy.put(frame, null));
+        }
+        assertTrue(quiet.put(frame, null));
+        assertTrue(quiet.put(frame, null));
+        service.start();
+        busy.awaitIdle();
+        quiet.awaitIdle();
+
+        assertEquals(10, results.size());
+        assertEquals("busy:0", results.get(0));
+        assertEquals("quiet:0", results.get(1));
+        assertEquals("busy:1", results.get(2));
+        assertEquals("quiet:1", results.get(3));
+        //the rest of the busy stream, still in order
+        for (int i = 4; i < 10; i++) {
+            assertEquals("busy:" + (i - 2), results.get(i));
+        }
+        assertEquals(8, busy.getMetrics().frameLatency().count());
+        assertEquals(2, quiet.getMetrics().frameLatency().count());
+    }
+
+    @Test
+    public void offer_dropsOldestWhenFull() throws InterruptedException {
+        RecognitionService.Stream stream = service.openStream("camera", true, 2, listener);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(stream.offer(frame, null));
+        }
+        assertEquals(2, stream.getWaiting());
+        service.start();
+        stream.awaitIdle();
+
+        assertEquals(2, results.size());
+        assertEquals("camera:3", results.get(0));
+        assertEquals("camera:4", results.get(1));
+        assertEquals(3, stream.getMetrics().framesDropped());
+    }
+
+    @Test
+    public void failingFrame_closesOnlyItsStream() throws InterruptedException {
+        service.close();
+        service = newService(new NoFaceDetector(true));
+        RecognitionService.Stream stream = service.openStream("broken", false, 4, listener);
+        assertTrue(stream.put(frame, null));
+        assertTrue(stream.put(frame, null));
+        service.start();
+        stream.awaitIdle();
+
+        assertEquals(Collections.singletonList("broken:detector failed"), failures);
+        assertTrue(results.isEmpty());
+        assertTrue(stream.isClosed());
+        assertFalse(stream.offer(frame, null));
+        assertTrue(service.getStreams().isEmpty());
+    }
+
+    //one worker, so the order of results is the order of turns
+    private static RecognitionService newService(FaceDetector detector) {
+        return new RecognitionService(Collections.singletonList(detector), new FaceModel() {
+            @Override
+            public float[][] run(FaceInput[] inputs) {
+                return new float[inputs.length][1];
+            }
+        }, TensorFormat.FLOAT32, 96, new LabelTable(new String[]{"Alice"}, "Unknown", 0.5f, 0.5f), "Unknown");
+    }
+
+    //finds no faces, or throws on every frame
+    private static class NoFaceDetector implements FaceDetector {
+        private final boolean fail;
+
+        NoFaceDetector(boolean fail) {
+            this.fail = fail;
+        }
+
+        @Override
+        public Rect[] detect(FrameContext context, Mat detectGray, DetectionConfig config) {
+            if (fail) {
+                throw new IllegalStateException("detector failed");
+            }
+            return new Rect[0];
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.facialrecofnitionapp;
+
+import org.junit.Test;
+import org.opencv.core.Rect;
+
+import static org.junit.Assert.*;
+
+/**
+ * Scan schedule of RoiScheduler, run on the development machine.
+ */
+public class RoiSchedulerTest {
+    private static final Rect[] NO_FACES = new Rect[0];
+
+    @Test
+    public void firstPass_scansFullFrame() {
+        RoiScheduler roi = new RoiScheduler(15, 0.5, 0);
+        assertNull(roi.windows(320, 240, NO_FACES, 0, 5));
+        assertNotNull(roi.windows(320, 240, NO_FACES, 0, 5));
+    }
+
+    @Test
+    public void stripes_coverFrameWithinLatency() {
+        //15 frames at a detection every 5 frames: 3 stripes
+        RoiScheduler roi = new RoiScheduler(15, 0.5, 0);
+        assertEquals(3, roi.stripesFor(5));
+        assertEquals(15, roi.newFaceLatencyFrames(5));
+        roi.windows(300, 240, NO_FACES, 60, 5);
+        boolean[] covered = new boolean[300];
+        for (int pass = 0; pass < 3; pass++) {
+            Rect[] windows = roi.windows(300, 240, NO_FACES, 60, 5);
+            assertEquals(1, windows.length);
+            Rect stripe = windows[0];
+            assertEquals(0, stripe.y);
+            assertEquals(240, stripe.height);
+            for (int x = stripe.x; x < stripe.x + stripe.width; x++) {
+                covered[x] = true;
+            }
+        }
+        for (boolean column : covered) {
+            assertTrue(column);
+        }
+    }
+
+    @Test
+    public void stripes_overlapByLargestFace() {
+        RoiScheduler roi = new RoiScheduler(15, 0.5, 0);
+        roi.windows(300, 240, NO_FACES, 60, 5);
+        Rect first = roi.windows(300, 240, NO_FACES, 60, 5)[0];
+        Rect second = roi.windows(300, 240, NO_FACES, 60, 5)[0];
+        assertEquals(new Rect(0, 0, 160, 240), first);
+        assertEquals(new Rect(100, 0, 160, 240), second);
+    }
+
+    @Test
+    public void previousFaces_getGrownWindows() {
+        RoiScheduler roi = new RoiScheduler(15, 0.5, 0);
+        roi.windows(320, 240, NO_FACES, 0, 5);
+        Rect[] windows = roi.windows(320, 240, new Rect[]{new Rect(10, 100, 40, 40), new Rect(200, 50, 40, 40)}, 0, 5);
+        assertEquals(3, windows.length);
+        //clipped at the left edge
+        assertEquals(new Rect(0, 80, 70, 80), windows[0]);
+        assertEquals(new Rect(180, 30, 80, 80), windows[1]);
+    }
+
+    @Test
+    public void fullScan_onScheduleRequestAndResize() {
+        RoiScheduler roi = new RoiScheduler(30, 0.5, 3);
+        assertEquals(15, roi.newFaceLatencyFrames(5));
+        assertNull(roi.windows(320, 240, NO_FACES, 0, 5));
+        assertNotNull(roi.windows(320, 240, NO_FACES, 0, 5));
+        assertNotNull(roi.windows(320, 240, NO_FACES, 0, 5));
+        assertNull(roi.windows(320, 240, NO_FACES, 0, 5));
+
+        roi.requestFullScan();
+        assertNull(roi.windows(320, 240, NO_FACES, 0, 5));
+        assertNull(roi.windows(640, 480, NO_FACES, 0, 5));
+        //detection every 30 frames leaves one stripe, that is the full frame
+        assertNull(roi.windows(640, 480, NO_FACES, 0, 30));
+        assertNull(roi.windows(640, 480, NO_FACES, 0, 30));
+    }
+}